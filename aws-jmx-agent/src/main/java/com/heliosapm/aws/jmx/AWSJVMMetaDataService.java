@@ -12,60 +12,197 @@
 // see <http://www.gnu.org/licenses/>.
 package com.heliosapm.aws.jmx;
 
-import java.util.Collection;
-
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.Attribute;
+import javax.management.AttributeChangeNotification;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanException;
+import javax.management.MBeanInfo;
+import javax.management.MBeanNotificationInfo;
+import javax.management.NotCompliantMBeanException;
+import javax.management.NotificationBroadcasterSupport;
 import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import javax.management.StandardMBean;
+import javax.management.openmbean.CompositeData;
 
+import com.amazonaws.regions.Region;
 import com.amazonaws.regions.Regions;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.heliosapm.aws.metadata.MetaDataClient;
 import com.heliosapm.aws.metadata.MetaDataReader;
+import com.heliosapm.aws.metadata.MetaDataSnapshot;
+import com.heliosapm.aws.metadata.NetworkInterfaceInfo;
+import com.heliosapm.aws.regions.RegionDescriptor;
+import com.heliosapm.aws.threads.AsyncInitializer;
+import com.heliosapm.aws.threads.SharedThreadPoolService;
 import com.heliosapm.utils.config.ConfigurationHelper;
 import com.heliosapm.utils.io.StdInCommandHandler;
 import com.heliosapm.utils.jmx.JMXHelper;
 
 /**
  * <p>Title: AWSJVMMetaDataService</p>
- * <p>Description: JMX MBean service to expose the JVM's AWS EC2 meta data</p> 
+ * <p>Description: JMX MBean service to expose the JVM's AWS EC2 meta data. The volatile meta-data is polled
+ * in the background and an {@link AttributeChangeNotification} is emitted for each attribute that changes.
+ * Attributes are dispatched through {@link MetaDataAttribute} rather than standard MBean reflection, and the
+ * <b><code>Snapshot</code></b> attribute returns the whole meta-data in one composite.</p> 
  * <p>Company: Helios Development Group LLC</p>
  * @author Whitehead (nwhitehead AT heliosdev DOT org)
  * <p><code>com.heliosapm.aws.jmx.AWSJVMMetaDataService</code></p>
  */
 
-public class AWSJVMMetaDataService implements AWSJVMMetaDataServiceMBean {
-	private static volatile AWSJVMMetaDataService instance = null;
-	private static final Object lock = new Object();
+public class AWSJVMMetaDataService extends NotificationBroadcasterSupport implements AWSJVMMetaDataServiceMBean, DynamicMBean {
+	/** The singleton initializer */
+	private static final AsyncInitializer<AWSJVMMetaDataService> initializer = new AsyncInitializer<AWSJVMMetaDataService>("AWSJVMMetaDataService") {
+		@Override
+		protected ListenableFuture<AWSJVMMetaDataService> start() {
+			return submit(new Callable<AWSJVMMetaDataService>() {
+				@Override
+				public AWSJVMMetaDataService call() {
+					return new AWSJVMMetaDataService();
+				}
+			});
+		}
+	};
+	/** The notification types emitted by this service */
+	private static final MBeanNotificationInfo[] NOTIFICATION_INFOS = {
+		new MBeanNotificationInfo(new String[]{AttributeChangeNotification.ATTRIBUTE_CHANGE}, AttributeChangeNotification.class.getName(), "Emitted when a volatile meta-data attribute changes")
+	};
 	
-	private final MetaDataReader reader;
 	private final ObjectName objectName;
-	private final String region;
-	private final String domain;
-	private final String partition;
-	private final String[] endpoints;
+	private final AtomicLong notificationSequence = new AtomicLong(0L);
+	/** Guards against overlapping polls */
+	private final AtomicBoolean polling = new AtomicBoolean(false);
+	/** Set while a poll is waiting for the unreachable endpoint to become reachable */
+	private final AtomicBoolean awaitingReachable = new AtomicBoolean(false);
+	private volatile MetaDataReader reader;
+	/** The resolved region, or null if it could not be determined */
+	private volatile RegionDescriptor regionDescriptor;
+	/** The management interface */
+	private final MBeanInfo mbeanInfo;
+	/** The reader the cached snapshot was taken from and the snapshot */
+	private volatile Object[] snapshot = null;
 	
 	
+	/**
+	 * Returns the readiness future of the AWSJVMMetaDataService singleton, starting its initialization if required
+	 * @return the readiness future
+	 */
+	public static ListenableFuture<AWSJVMMetaDataService> ready() {
+		return initializer.ready();
+	}
+
+	/**
+	 * Acquires the AWSJVMMetaDataService singleton instance, waiting for it to be initialized
+	 * @return the AWSJVMMetaDataService singleton instance
+	 */
 	public static AWSJVMMetaDataService getInstance() {
-		if(instance==null) {
-			synchronized(lock) {
-				if(instance==null) {
-					instance = new AWSJVMMetaDataService(); 
-				}
-			}
-		}
-		return instance;
+		return initializer.get();
 	}
 	
 	/**
 	 * Creates a new AWSJVMMetaDataService
 	 */
 	private AWSJVMMetaDataService() {
-		reader = new MetaDataReader();
-		region = region();
-		domain = domain();
-		partition = partition();
-		endpoints = availableEndpoints();
+		super(SharedThreadPoolService.getInstance().newExecutor(), NOTIFICATION_INFOS);
+		mbeanInfo = mbeanInfo();
+		install(MetaDataSnapshot.reader());
 		final String on = ConfigurationHelper.getSystemThenEnvProperty(SYSPROP_OBJECT_NAME_KEY, DEFAULT_OBJECT_NAME);
 		objectName = JMXHelper.objectName(on);
 		try { JMXHelper.unregisterMBean(objectName); } catch (Exception x) {/* No Op */}
 		JMXHelper.registerMBean(this, objectName);
+		final long pollPeriod = ConfigurationHelper.getIntSystemThenEnvProperty(SYSPROP_POLL_PERIOD_KEY, DEFAULT_POLL_PERIOD);
+		if(pollPeriod > 0) {
+			final ExecutorService executor = SharedThreadPoolService.getInstance().newExecutor();
+			final Runnable poll = new Runnable() {
+				@Override
+				public void run() {
+					try {
+						poll();
+					} finally {
+						polling.set(false);
+					}
+				}
+			};
+			SharedThreadPoolService.getInstance().getScheduler().scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					if(polling.compareAndSet(false, true)) {
+						try {
+							executor.execute(poll);
+						} catch (Exception ex) {
+							polling.set(false);
+						}
+					}
+				}
+			}, pollPeriod, pollPeriod, TimeUnit.MILLISECONDS);
+		}
+	}
+	
+	/**
+	 * Re-reads the volatile meta-data, installs the refreshed reader and emits a notification for each changed attribute.
+	 * If the endpoint is unreachable, the poll is repeated as soon as a background re-probe finds it reachable.
+	 */
+	private void poll() {
+		final MetaDataReader current = reader;
+		final MetaDataClient client = MetaDataClient.getInstance(current.getMetaEndpoint());
+		if(!client.isReachable()) {
+			if(awaitingReachable.compareAndSet(false, true)) {
+				client.onReachable(new Runnable() {
+					@Override
+					public void run() {
+						awaitingReachable.set(false);
+						if(polling.compareAndSet(false, true)) {
+							try {
+								poll();
+							} finally {
+								polling.set(false);
+							}
+						}
+					}
+				});
+			}
+			return;
+		}
+		final MetaDataReader refreshed;
+		try {
+			refreshed = current.refresh();
+		} catch (Exception ex) {
+			return;
+		}
+		synchronized(this) {
+			// a reader installed since this poll started takes precedence
+			if(reader!=current) return;
+			reader = refreshed;
+		}
+		notifyChange("InstanceAction", current.getInstanceAction(), refreshed.getInstanceAction());
+		notifyChange("IamCredsLastUpdate", current.getIamCredsLastUpdate(), refreshed.getIamCredsLastUpdate());
+		notifyChange("IamCredsExpiration", current.getIamCredsExpiration(), refreshed.getIamCredsExpiration());
+		notifyChange("IamCredsType", current.getIamCredsType(), refreshed.getIamCredsType());
+		notifyChange("IamCredsStatus", current.getIamCredsStatus(), refreshed.getIamCredsStatus());
+	}
+	
+	/**
+	 * Emits an attribute change notification if the passed values differ
+	 * @param attribute The attribute name
+	 * @param oldValue The prior value
+	 * @param newValue The current value
+	 */
+	private void notifyChange(final String attribute, final String oldValue, final String newValue) {
+		if(oldValue==null ? newValue==null : oldValue.equals(newValue)) return;
+		sendNotification(new AttributeChangeNotification(objectName, notificationSequence.incrementAndGet(), System.currentTimeMillis(),
+			attribute + " changed from [" + oldValue + "] to [" + newValue + "]", attribute, String.class.getName(), oldValue, newValue));
 	}
 	
 	public static void main(String[] args) {
@@ -80,49 +217,83 @@ public class AWSJVMMetaDataService implements AWSJVMMetaDataServiceMBean {
 		StdInCommandHandler.getInstance().run();
 	}
 	
-	private String region() {
-		try {
-			return Regions.getCurrentRegion().getName();
-		} catch (Exception ex) {
-			return null;
-		}		
+	/**
+	 * Installs the passed reader and the region data derived from it. If the reader was built while the meta-data
+	 * endpoint was unreachable, a fresh reader is installed once a background re-probe finds it reachable.
+	 * @param newReader The reader to install
+	 */
+	private void install(final MetaDataReader newReader) {
+		synchronized(this) {
+			reader = newReader;
+			regionDescriptor = regionDescriptor();
+		}
+		final MetaDataClient client = MetaDataClient.getInstance(newReader.getMetaEndpoint());
+		if(!client.isReachable()) {
+			client.onReachable(new Runnable() {
+				@Override
+				public void run() {
+					install(MetaDataSnapshot.reader());
+				}
+			});
+		}
 	}
-
 	
-	private String partition() {		
+	/**
+	 * Resolves the region this JVM is running in, using the region read from the identity document
+	 * where available so no additional meta-data round trip is made
+	 * @return the region descriptor or null if the region cannot be determined
+	 */
+	private RegionDescriptor regionDescriptor() {
+		String regionName = reader.getRegion();
+		// the SDK lookup goes to the meta-data endpoint with its own retries, so don't bother if it is known to be unreachable
+		if(regionName==null && MetaDataClient.getInstance(reader.getMetaEndpoint()).isReachable()) {
+			try {
+				final Region current = Regions.getCurrentRegion();
+				if(current!=null) regionName = current.getName();
+			} catch (Exception ex) {/* No Op */}
+		}
+		if(regionName==null) return null;
 		try {
-			return Regions.getCurrentRegion().getPartition();
+			return RegionDescriptor.forRegion(regionName);
 		} catch (Exception ex) {
 			return null;
-		}				
+		}
 	}
 	
-	private String domain() {
-		try {
-			return Regions.getCurrentRegion().getDomain();
-		} catch (Exception ex) {
-			return null;
-		}				
-	}	
-	
-	private String[] availableEndpoints() {
-		try {
-			final Collection<String> eps = Regions.getCurrentRegion().getAvailableEndpoints(); 
-			return eps.toArray(new String[0]);
-		} catch (Exception ex) {
-			return new String[0];
-		}						
+	/**
+	 * Returns the descriptor of the region this JVM is running in
+	 * @return the region descriptor or null if the region could not be determined
+	 */
+	public RegionDescriptor getRegionDescriptor() {
+		return regionDescriptor;
 	}
 	
-	
-	
 	/**
 	 * {@inheritDoc}
 	 * @see com.heliosapm.aws.jmx.AWSJVMMetaDataServiceMBean#getRegion()
 	 */
 	@Override
 	public String getRegion() {
-		return region;
+		final RegionDescriptor rd = regionDescriptor;
+		return rd!=null ? rd.getName() : reader.getRegion();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.aws.jmx.AWSJVMMetaDataServiceMBean#getAvailabilityZone()
+	 */
+	@Override
+	public String getAvailabilityZone() {
+		return reader.getAvailabilityZone();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.aws.jmx.AWSJVMMetaDataServiceMBean#getAccountId()
+	 */
+	@Override
+	public String getAccountId() {
+		return reader.getAccountId();
 	}
 	
 	/**
@@ -131,7 +302,8 @@ public class AWSJVMMetaDataService implements AWSJVMMetaDataServiceMBean {
 	 */
 	@Override
 	public String getPartition() {
-		return partition;
+		final RegionDescriptor rd = regionDescriptor;
+		return rd==null ? null : rd.getPartition();
 	}
 	
 	/**
@@ -140,7 +312,8 @@ public class AWSJVMMetaDataService implements AWSJVMMetaDataServiceMBean {
 	 */
 	@Override
 	public String getDomain() {
-		return domain;
+		final RegionDescriptor rd = regionDescriptor;
+		return rd==null ? null : rd.getDomain();
 	}	
 
 	/**
@@ -149,7 +322,8 @@ public class AWSJVMMetaDataService implements AWSJVMMetaDataServiceMBean {
 	 */
 	@Override
 	public String[] getAvailableEndpoints() {
-		return endpoints;
+		final RegionDescriptor rd = regionDescriptor;
+		return rd==null ? new String[0] : rd.getAvailableEndpoints();
 	}
 	
 	
@@ -160,6 +334,26 @@ public class AWSJVMMetaDataService implements AWSJVMMetaDataServiceMBean {
 	public String toJSON() {
 		return reader.toJSON();
 	}
+	
+	/**
+	 * Encodes the current meta-data to a JsonNode
+	 * @return the JsonNode, which may be shared and must not be modified
+	 * @see com.heliosapm.aws.metadata.MetaDataReader#toJsonNode()
+	 */
+	public JsonNode toJsonNode() {
+		return reader.toJsonNode();
+	}
+	
+	/**
+	 * Streams the fields of the current meta-data's JSON form to the passed generator
+	 * @param gen The generator to write to, which must be writing an object
+	 * @param exclude The names of fields not to write
+	 * @throws IOException thrown on any error writing to the generator
+	 * @see com.heliosapm.aws.metadata.MetaDataReader#writeJSONFields(JsonGenerator, String...)
+	 */
+	public void writeJSONFields(final JsonGenerator gen, final String... exclude) throws IOException {
+		reader.writeJSONFields(gen, exclude);
+	}
 
 	/**
 	 * {@inheritDoc}
@@ -257,6 +451,15 @@ public class AWSJVMMetaDataService implements AWSJVMMetaDataServiceMBean {
 	public String[] getPublicKeys() {		
 		return reader.getPublicKeys();
 	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.aws.jmx.AWSJVMMetaDataServiceMBean#getNetworkInterfaces()
+	 */
+	@Override
+	public NetworkInterfaceInfo[] getNetworkInterfaces() {
+		return reader.getNetworkInterfaces();
+	}
 
 	/**
 	 * {@inheritDoc}
@@ -370,4 +573,112 @@ public class AWSJVMMetaDataService implements AWSJVMMetaDataServiceMBean {
 		return reader.getElapsed();
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.aws.jmx.AWSJVMMetaDataServiceMBean#getKeyTimings()
+	 */
+	public Map<String, Long> getKeyTimings() {
+		return reader.getKeyTimings();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.aws.jmx.AWSJVMMetaDataServiceMBean#getSnapshot()
+	 */
+	public CompositeData getSnapshot() {
+		final MetaDataReader r = reader;
+		final Object[] cached = snapshot;
+		if(cached!=null && cached[0]==r) return (CompositeData)cached[1];
+		final CompositeData data = MetaDataAttribute.snapshot(this, r);
+		snapshot = new Object[]{r, data};
+		return data;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.DynamicMBean#getMBeanInfo()
+	 */
+	@Override
+	public MBeanInfo getMBeanInfo() {
+		return mbeanInfo;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.DynamicMBean#getAttribute(java.lang.String)
+	 */
+	@Override
+	public Object getAttribute(final String attribute) throws AttributeNotFoundException, MBeanException, ReflectionException {
+		final MetaDataAttribute a = MetaDataAttribute.forName(attribute);
+		if(a==null) throw new AttributeNotFoundException("No such attribute [" + attribute + "]");
+		try {
+			return a.get(this, reader);
+		} catch (Exception ex) {
+			throw new MBeanException(ex, "Failed to read attribute [" + attribute + "]");
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>All the meta-data attributes are read from the same reader. Unknown or failed attributes are omitted.</p>
+	 * @see javax.management.DynamicMBean#getAttributes(java.lang.String[])
+	 */
+	@Override
+	public AttributeList getAttributes(final String[] attributes) {
+		final AttributeList list = new AttributeList(attributes.length);
+		final MetaDataReader r = reader;
+		for(String attribute: attributes) {
+			final MetaDataAttribute a = MetaDataAttribute.forName(attribute);
+			if(a==null) continue;
+			try {
+				list.add(new Attribute(attribute, a.get(this, r)));
+			} catch (Exception ex) {/* No Op */}
+		}
+		return list;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.DynamicMBean#setAttribute(javax.management.Attribute)
+	 */
+	@Override
+	public void setAttribute(final Attribute attribute) throws AttributeNotFoundException {
+		throw new AttributeNotFoundException("No writable attribute [" + attribute.getName() + "]");
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.DynamicMBean#setAttributes(javax.management.AttributeList)
+	 */
+	@Override
+	public AttributeList setAttributes(final AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.DynamicMBean#invoke(java.lang.String, java.lang.Object[], java.lang.String[])
+	 */
+	@Override
+	public Object invoke(final String actionName, final Object[] params, final String[] signature) throws MBeanException, ReflectionException {
+		if("toJSON".equals(actionName) && (params==null || params.length==0)) {
+			return toJSON();
+		}
+		throw new ReflectionException(new NoSuchMethodException(actionName), "No such operation [" + actionName + "]");
+	}
+
+	/**
+	 * Builds the MBeanInfo from the management interface, adding the emitted notifications
+	 * @return the MBeanInfo
+	 */
+	private MBeanInfo mbeanInfo() {
+		try {
+			final MBeanInfo info = new StandardMBean(this, AWSJVMMetaDataServiceMBean.class).getMBeanInfo();
+			return new MBeanInfo(getClass().getName(), "JMX MBean service to expose the JVM's AWS EC2 meta data",
+				info.getAttributes(), info.getConstructors(), info.getOperations(), NOTIFICATION_INFOS);
+		} catch (NotCompliantMBeanException ex) {
+			throw new RuntimeException("Failed to introspect the management interface", ex);
+		}
+	}
+
 }
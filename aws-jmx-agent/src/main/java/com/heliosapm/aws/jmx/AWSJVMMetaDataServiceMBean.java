@@ -12,6 +12,12 @@
 // see <http://www.gnu.org/licenses/>.
 package com.heliosapm.aws.jmx;
 
+import java.util.Map;
+
+import javax.management.openmbean.CompositeData;
+
+import com.heliosapm.aws.metadata.NetworkInterfaceInfo;
+
 /**
  * <p>Title: AWSJVMMetaDataServiceMBean</p>
  * <p>Description: JMX MBean interface for {@link AWSJVMMetaDataService} instances</p> 
@@ -26,6 +32,10 @@ public interface AWSJVMMetaDataServiceMBean {
 	public static final String DEFAULT_OBJECT_NAME = "com.heliosapm.aws.jmx:service=AWSJVMMetaDataService";	
 	/** The system property key to override the default object name */
 	public static final String SYSPROP_OBJECT_NAME_KEY = "com.heliosapm.aws.jmx.metaobjectname";
+	/** The system property key to override the volatile meta-data poll period in ms. A period of zero or less disables polling. */
+	public static final String SYSPROP_POLL_PERIOD_KEY = "com.heliosapm.aws.jmx.metapollperiod";
+	/** The default volatile meta-data poll period in ms. */
+	public static final int DEFAULT_POLL_PERIOD = 60000;
 	
 	
 	/**
@@ -41,6 +51,20 @@ public interface AWSJVMMetaDataServiceMBean {
 	 */
 	public String getRegion();
 	
+	/**
+	 * Returns the availability zone this JVM is running in
+	 * @return the availability zone this JVM is running in
+	 * @see com.heliosapm.aws.metadata.MetaDataReader#getAvailabilityZone()
+	 */
+	public String getAvailabilityZone();
+	
+	/**
+	 * Returns the account id this JVM is running under
+	 * @return the account id this JVM is running under
+	 * @see com.heliosapm.aws.metadata.MetaDataReader#getAccountId()
+	 */
+	public String getAccountId();
+	
 	/**
 	 * Returns the domain this JVM is running in
 	 * @return the domain this JVM is running in
@@ -132,6 +156,13 @@ public interface AWSJVMMetaDataServiceMBean {
 	 * @return
 	 */
 	public String[] getPublicKeys();
+	
+	/**
+	 * Returns the instance's network interfaces
+	 * @return the network interfaces ordered by device number
+	 * @see com.heliosapm.aws.metadata.MetaDataReader#getNetworkInterfaces()
+	 */
+	public NetworkInterfaceInfo[] getNetworkInterfaces();
 
 	/**
 	 * @return
@@ -217,4 +248,18 @@ public interface AWSJVMMetaDataServiceMBean {
 	 */
 	public long getElapsed();
 
+	/**
+	 * Returns the elapsed time of each meta-data lookup in ms. keyed by the lookup key
+	 * @return the per-key lookup timings
+	 * @see com.heliosapm.aws.metadata.MetaDataReader#getKeyTimings()
+	 */
+	public Map<String, Long> getKeyTimings();
+
+	/**
+	 * Returns all the meta-data attributes except the key timings in one composite, so collectors
+	 * can read the full meta-data in a single round trip
+	 * @return the meta-data snapshot
+	 */
+	public CompositeData getSnapshot();
+
 }
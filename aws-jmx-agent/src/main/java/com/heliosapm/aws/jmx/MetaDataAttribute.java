@@ -0,0 +1,417 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.aws.jmx;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.openmbean.ArrayType;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+
+import com.heliosapm.aws.metadata.MetaDataReader;
+import com.heliosapm.aws.metadata.NetworkInterfaceInfo;
+
+/**
+ * <p>Title: MetaDataAttribute</p>
+ * <p>Description: Functional enumeration of the {@link AWSJVMMetaDataService} attributes, so attributes are read
+ * by direct dispatch rather than per-attribute reflection, and all read from the same reader in a bulk read.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.aws.jmx.MetaDataAttribute</code></p>
+ */
+
+enum MetaDataAttribute {
+	/** The Region attribute */
+	REGION("Region", SimpleType.STRING){
+		@Override
+		Object get(final AWSJVMMetaDataService s, final MetaDataReader r) {
+			return s.getRegion();
+		}
+	},
+	/** The AvailabilityZone attribute */
+	AVAILABILITY_ZONE("AvailabilityZone", SimpleType.STRING){
+		@Override
+		Object get(final AWSJVMMetaDataService s, final MetaDataReader r) {
+			return r.getAvailabilityZone();
+		}
+	},
+	/** The AccountId attribute */
+	ACCOUNT_ID("AccountId", SimpleType.STRING){
+		@Override
+		Object get(final AWSJVMMetaDataService s, final MetaDataReader r) {
+			return r.getAccountId();
+		}
+	},
+	/** The Domain attribute */
+	DOMAIN("Domain", SimpleType.STRING){
+		@Override
+		Object get(final AWSJVMMetaDataService s, final MetaDataReader r) {
+			return s.getDomain();
+		}
+	},
+	/** The AvailableEndpoints attribute */
+	AVAILABLE_ENDPOINTS("AvailableEndpoints", Types.STRING_ARRAY){
+		@Override
+		Object get(final AWSJVMMetaDataService s, final MetaDataReader r) {
+			return s.getAvailableEndpoints();
+		}
+	},
+	/** The Partition attribute */
+	PARTITION("Partition", SimpleType.STRING){
+		@Override
+		Object get(final AWSJVMMetaDataService s, final MetaDataReader r) {
+			return s.getPartition();
+		}
+	},
+	/** The MetaEndpoint attribute */
+	META_ENDPOINT("MetaEndpoint", SimpleType.STRING){
+		@Override
+		Object get(final AWSJVMMetaDataService s, final MetaDataReader r) {
+			return r.getMetaEndpoint();
+		}
+	},
+	/** The AmiId attribute */
+	AMI_ID("AmiId", SimpleType.STRING){
+		@Override
+		Object get(final AWSJVMMetaDataService s, final MetaDataReader r) {
+			return r.getAmiId();
+		}
+	},
+	/** The AmiLaunchIndex attribute */
+	AMI_LAUNCH_INDEX("AmiLaunchIndex", SimpleType.STRING){
+		@Override
+		Object get(final AWSJVMMetaDataService s, final MetaDataReader r) {
+			return r.getAmiLaunchIndex();
+		}
+	},
+	/** The AmiManifestPath attribute */
+	AMI_MANIFEST_PATH("AmiManifestPath", SimpleType.STRING){
+		@Override
+		Object get(final AWSJVMMetaDataService s, final MetaDataReader r) {
+			return r.getAmiManifestPath();
+		}
+	},
+	/** The AmiBlockDevice attribute */
+	AMI_BLOCK_DEVICE("AmiBlockDevice", SimpleType.STRING){
+		@Override
+		Object get(final AWSJVMMetaDataService s, final MetaDataReader r) {
+			return r.getAmiBlockDevice();
+		}
+	},
+	/** The RootBlockDevice attribute */
+	ROOT_BLOCK_DEVICE("RootBlockDevice", SimpleType.STRING){
+		@Override
+		Object get(final AWSJVMMetaDataService s, final MetaDataReader r) {
+			return r.getRootBlockDevice();
+		}
+	},
+	/** The HostName attribute */
+	HOST_NAME("HostName", SimpleType.STRING){
+		@Override
+		Object get(final AWSJVMMetaDataService s, final MetaDataReader r) {
+			return r.getHostName();
+		}
+	},
+	/** The LocalHostName attribute */
+	LOCAL_HOST_NAME("LocalHostName", SimpleType.STRING){
+		@Override
+		Object get(final AWSJVMMetaDataService s, final MetaDataReader r) {
+			return r.getLocalHostName();
+		}
+	},
+	/** The PublicHostName attribute */
+	PUBLIC_HOST_NAME("PublicHostName", SimpleType.STRING){
+		@Override
+		Object get(final AWSJVMMetaDataService s, final MetaDataReader r) {
+			return r.getPublicHostName();
+		}
+	},
+	/** The LocalV4Ip attribute */
+	LOCAL_V4_IP("LocalV4Ip", SimpleType.STRING){
+		@Override
+		Object get(final AWSJVMMetaDataService s, final MetaDataReader r) {
+			return r.getLocalV4Ip();
+		}
+	},
+	/** The PublicV4Ip attribute */
+	PUBLIC_V4_IP("PublicV4Ip", SimpleType.STRING){
+		@Override
+		Object get(final AWSJVMMetaDataService s, final MetaDataReader r) {
+			return r.getPublicV4Ip();
+		}
+	},
+	/** The PublicKeys attribute */
+	PUBLIC_KEYS("PublicKeys", Types.STRING_ARRAY){
+		@Override
+		Object get(final AWSJVMMetaDataService s, final MetaDataReader r) {
+			return r.getPublicKeys();
+		}
+	},
+	/** The NetworkInterfaces attribute */
+	NETWORK_INTERFACES("NetworkInterfaces", Types.NETWORK_INTERFACE_ARRAY){
+		@Override
+		Object get(final AWSJVMMetaDataService s, final MetaDataReader r) {
+			return r.getNetworkInterfaces();
+		}
+		@Override
+		Object open(final Object value) throws OpenDataException {
+			final NetworkInterfaceInfo[] nics = (NetworkInterfaceInfo[])value;
+			if(nics==null) return null;
+			final CompositeData[] data = new CompositeData[nics.length];
+			for(int i = 0; i < nics.length; i++) {
+				final NetworkInterfaceInfo nic = nics[i];
+				data[i] = new CompositeDataSupport(Types.NETWORK_INTERFACE, Types.NETWORK_INTERFACE_ITEMS, new Object[]{
+					nic.getMac(), nic.getDeviceNumber(), nic.getInterfaceId(), nic.getLocalIpv4s(), nic.getPublicIpv4s(), nic.getIpv6s(),
+					nic.getLocalHostName(), nic.getSubnetId(), nic.getSubnetIpv4Cidr(), nic.getVpcId(), nic.getVpcIpv4Cidr()
+				});
+			}
+			return data;
+		}
+	},
+	/** The MacAddress attribute */
+	MAC_ADDRESS("MacAddress", SimpleType.STRING){
+		@Override
+		Object get(final AWSJVMMetaDataService s, final MetaDataReader r) {
+			return r.getMacAddress();
+		}
+	},
+	/** The InstanceId attribute */
+	INSTANCE_ID("InstanceId", SimpleType.STRING){
+		@Override
+		Object get(final AWSJVMMetaDataService s, final MetaDataReader r) {
+			return r.getInstanceId();
+		}
+	},
+	/** The InstanceAction attribute */
+	INSTANCE_ACTION("InstanceAction", SimpleType.STRING){
+		@Override
+		Object get(final AWSJVMMetaDataService s, final MetaDataReader r) {
+			return r.getInstanceAction();
+		}
+	},
+	/** The InstanceType attribute */
+	INSTANCE_TYPE("InstanceType", SimpleType.STRING){
+		@Override
+		Object get(final AWSJVMMetaDataService s, final MetaDataReader r) {
+			return r.getInstanceType();
+		}
+	},
+	/** The IamInfoLastUpdate attribute */
+	IAM_INFO_LAST_UPDATE("IamInfoLastUpdate", SimpleType.STRING){
+		@Override
+		Object get(final AWSJVMMetaDataService s, final MetaDataReader r) {
+			return r.getIamInfoLastUpdate();
+		}
+	},
+	/** The IamInfoInstanceProfileArn attribute */
+	IAM_INFO_INSTANCE_PROFILE_ARN("IamInfoInstanceProfileArn", SimpleType.STRING){
+		@Override
+		Object get(final AWSJVMMetaDataService s, final MetaDataReader r) {
+			return r.getIamInfoInstanceProfileArn();
+		}
+	},
+	/** The IamInfoInstanceProfileId attribute */
+	IAM_INFO_INSTANCE_PROFILE_ID("IamInfoInstanceProfileId", SimpleType.STRING){
+		@Override
+		Object get(final AWSJVMMetaDataService s, final MetaDataReader r) {
+			return r.getIamInfoInstanceProfileId();
+		}
+	},
+	/** The IamInfoStatus attribute */
+	IAM_INFO_STATUS("IamInfoStatus", SimpleType.STRING){
+		@Override
+		Object get(final AWSJVMMetaDataService s, final MetaDataReader r) {
+			return r.getIamInfoStatus();
+		}
+	},
+	/** The IamCredentialsId attribute */
+	IAM_CREDENTIALS_ID("IamCredentialsId", SimpleType.STRING){
+		@Override
+		Object get(final AWSJVMMetaDataService s, final MetaDataReader r) {
+			return r.getIamCredentialsId();
+		}
+	},
+	/** The IamCredsLastUpdate attribute */
+	IAM_CREDS_LAST_UPDATE("IamCredsLastUpdate", SimpleType.STRING){
+		@Override
+		Object get(final AWSJVMMetaDataService s, final MetaDataReader r) {
+			return r.getIamCredsLastUpdate();
+		}
+	},
+	/** The IamCredsExpiration attribute */
+	IAM_CREDS_EXPIRATION("IamCredsExpiration", SimpleType.STRING){
+		@Override
+		Object get(final AWSJVMMetaDataService s, final MetaDataReader r) {
+			return r.getIamCredsExpiration();
+		}
+	},
+	/** The IamCredsType attribute */
+	IAM_CREDS_TYPE("IamCredsType", SimpleType.STRING){
+		@Override
+		Object get(final AWSJVMMetaDataService s, final MetaDataReader r) {
+			return r.getIamCredsType();
+		}
+	},
+	/** The IamCredsStatus attribute */
+	IAM_CREDS_STATUS("IamCredsStatus", SimpleType.STRING){
+		@Override
+		Object get(final AWSJVMMetaDataService s, final MetaDataReader r) {
+			return r.getIamCredsStatus();
+		}
+	},
+	/** The Elapsed attribute */
+	ELAPSED("Elapsed", SimpleType.LONG){
+		@Override
+		Object get(final AWSJVMMetaDataService s, final MetaDataReader r) {
+			return r.getElapsed();
+		}
+	},
+	/** The KeyTimings attribute */
+	KEY_TIMINGS("KeyTimings", null){
+		@Override
+		Object get(final AWSJVMMetaDataService s, final MetaDataReader r) {
+			return r.getKeyTimings();
+		}
+	},
+	/** The Snapshot attribute */
+	SNAPSHOT("Snapshot", null){
+		@Override
+		Object get(final AWSJVMMetaDataService s, final MetaDataReader r) {
+			return s.getSnapshot();
+		}
+	};
+
+	private MetaDataAttribute(final String attributeName, final OpenType<?> openType) {
+		this.attributeName = attributeName;
+		this.openType = openType;
+	}
+
+	/** The JMX attribute name */
+	final String attributeName;
+	/** The open type of the attribute in the snapshot, or null if it is not included in the snapshot */
+	final OpenType<?> openType;
+
+	/** The attributes keyed by attribute name */
+	private static final Map<String, MetaDataAttribute> BY_NAME;
+	/** The snapshot composite type */
+	static final CompositeType SNAPSHOT_TYPE;
+	/** The attributes included in the snapshot */
+	private static final MetaDataAttribute[] SNAPSHOT_ATTRIBUTES;
+	/** The snapshot item names */
+	private static final String[] SNAPSHOT_ITEMS;
+
+	static {
+		final MetaDataAttribute[] values = values();
+		final Map<String, MetaDataAttribute> byName = new HashMap<String, MetaDataAttribute>(values.length * 2);
+		final List<MetaDataAttribute> included = new ArrayList<MetaDataAttribute>(values.length);
+		for(MetaDataAttribute a: values) {
+			byName.put(a.attributeName, a);
+			if(a.openType!=null) included.add(a);
+		}
+		BY_NAME = byName;
+		SNAPSHOT_ATTRIBUTES = included.toArray(new MetaDataAttribute[included.size()]);
+		SNAPSHOT_ITEMS = new String[SNAPSHOT_ATTRIBUTES.length];
+		final OpenType<?>[] types = new OpenType<?>[SNAPSHOT_ATTRIBUTES.length];
+		for(int i = 0; i < SNAPSHOT_ATTRIBUTES.length; i++) {
+			SNAPSHOT_ITEMS[i] = SNAPSHOT_ATTRIBUTES[i].attributeName;
+			types[i] = SNAPSHOT_ATTRIBUTES[i].openType;
+		}
+		try {
+			SNAPSHOT_TYPE = new CompositeType("AWSJVMMetaData", "The AWS EC2 meta-data of this JVM", SNAPSHOT_ITEMS, SNAPSHOT_ITEMS, types);
+		} catch (OpenDataException ex) {
+			throw new RuntimeException("Failed to create the meta-data snapshot type", ex);
+		}
+	}
+
+	/**
+	 * Reads this attribute
+	 * @param s The service
+	 * @param r The reader to read meta-data from
+	 * @return the attribute value
+	 */
+	abstract Object get(final AWSJVMMetaDataService s, final MetaDataReader r);
+
+	/**
+	 * Converts a value of this attribute to its snapshot open type
+	 * @param value The value
+	 * @return the open value
+	 * @throws OpenDataException thrown if the value cannot be converted
+	 */
+	Object open(final Object value) throws OpenDataException {
+		return value;
+	}
+
+	/**
+	 * Decodes an attribute name
+	 * @param attributeName The attribute name
+	 * @return the attribute or null if there is no such attribute
+	 */
+	static MetaDataAttribute forName(final String attributeName) {
+		return attributeName==null ? null : BY_NAME.get(attributeName);
+	}
+
+	/**
+	 * Creates a snapshot of all the open typed attributes
+	 * @param s The service
+	 * @param r The reader to read meta-data from
+	 * @return the snapshot
+	 */
+	static CompositeData snapshot(final AWSJVMMetaDataService s, final MetaDataReader r) {
+		final Object[] items = new Object[SNAPSHOT_ATTRIBUTES.length];
+		try {
+			for(int i = 0; i < SNAPSHOT_ATTRIBUTES.length; i++) {
+				items[i] = SNAPSHOT_ATTRIBUTES[i].open(SNAPSHOT_ATTRIBUTES[i].get(s, r));
+			}
+			return new CompositeDataSupport(SNAPSHOT_TYPE, SNAPSHOT_ITEMS, items);
+		} catch (OpenDataException ex) {
+			throw new RuntimeException("Failed to create the meta-data snapshot", ex);
+		}
+	}
+
+	/**
+	 * <p>Title: Types</p>
+	 * <p>Description: The non-simple open types of the snapshot items</p>
+	 */
+	private static class Types {
+		/** The string array open type */
+		static final ArrayType<String[]> STRING_ARRAY;
+		/** The network interface item names */
+		static final String[] NETWORK_INTERFACE_ITEMS = {
+			"mac", "deviceNumber", "interfaceId", "localIpv4s", "publicIpv4s", "ipv6s",
+			"localHostName", "subnetId", "subnetIpv4Cidr", "vpcId", "vpcIpv4Cidr"
+		};
+		/** The network interface composite type */
+		static final CompositeType NETWORK_INTERFACE;
+		/** The network interface array open type */
+		static final ArrayType<CompositeData[]> NETWORK_INTERFACE_ARRAY;
+
+		static {
+			try {
+				STRING_ARRAY = ArrayType.getArrayType(SimpleType.STRING);
+				NETWORK_INTERFACE = new CompositeType("NetworkInterface", "An instance network interface", NETWORK_INTERFACE_ITEMS, NETWORK_INTERFACE_ITEMS,
+					new OpenType<?>[]{SimpleType.STRING, SimpleType.INTEGER, SimpleType.STRING, STRING_ARRAY, STRING_ARRAY, STRING_ARRAY,
+					SimpleType.STRING, SimpleType.STRING, SimpleType.STRING, SimpleType.STRING, SimpleType.STRING});
+				NETWORK_INTERFACE_ARRAY = ArrayType.getArrayType(NETWORK_INTERFACE);
+			} catch (OpenDataException ex) {
+				throw new RuntimeException("Failed to create the meta-data open types", ex);
+			}
+		}
+	}
+}
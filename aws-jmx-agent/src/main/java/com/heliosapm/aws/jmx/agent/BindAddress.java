@@ -12,6 +12,7 @@
 // see <http://www.gnu.org/licenses/>.
 package com.heliosapm.aws.jmx.agent;
 
+import com.heliosapm.aws.metadata.NetworkInterfaceInfo;
 import com.heliosapm.utils.config.ConfigurationHelper;
 
 /**
@@ -67,6 +68,34 @@ public enum BindAddress implements BindAddressProvider {
 			return "service:jmx:jmxmp://" + getBindAddress()  + ":" + jmxmpPort;
 		}		
 	},
+	/** The primary private v4 address of a selected network interface, by default the lowest numbered secondary interface */
+	ENI{
+		@Override
+		public String getBindAddress() {
+			final NetworkInterfaceInfo nic = NetworkInterfaceInfo.select(META_SERVICE.getNetworkInterfaces(),
+				ConfigurationHelper.getSystemThenEnvProperty(SYSPROP_JMXMP_ENI, null));
+			final String address = nic==null ? null : nic.primaryIpv4();
+			return address==null ? META_SERVICE.getLocalV4Ip() : address;
+		}
+		@Override
+		public String getJMXServiceURL(final int jmxmpPort) {			
+			return "service:jmx:sshjmxmp://" + getBindAddress()  + ":" + jmxmpPort;
+		}
+	},
+	/** The first v6 address of the primary network interface */
+	LOCALIPV6{
+		@Override
+		public String getBindAddress() {
+			final NetworkInterfaceInfo nic = NetworkInterfaceInfo.select(META_SERVICE.getNetworkInterfaces(), "0");
+			final String address = nic==null ? null : nic.primaryIpv6();
+			return address==null ? META_SERVICE.getLocalV4Ip() : address;
+		}
+		@Override
+		public String getJMXServiceURL(final int jmxmpPort) {
+			final String address = getBindAddress();
+			return "service:jmx:sshjmxmp://" + (address!=null && address.indexOf(':')!=-1 ? "[" + address + "]" : address)  + ":" + jmxmpPort;
+		}
+	},
 	/** The default which is <b><code>127.0.0.1</code></b> */
 	DEFAULT{
 		@Override
@@ -83,6 +112,10 @@ public enum BindAddress implements BindAddressProvider {
 	/** The system property key to override the default jmxmp bind interface */
 	public static final String SYSPROP_JMXMP_BIND = "com.heliosapm.aws.jmx.iface";
 	
+	/** The system property key to select the network interface bound by {@link #ENI},
+	 * by interface id, mac address, device number or subnet id */
+	public static final String SYSPROP_JMXMP_ENI = "com.heliosapm.aws.jmx.eni";
+	
 	/** The default jmxmp bind interface */
 	public static final String DEFAULT_JMXMP_BIND = "127.0.0.1";
 
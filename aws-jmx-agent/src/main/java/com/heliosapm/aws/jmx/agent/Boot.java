@@ -12,7 +12,18 @@
 // see <http://www.gnu.org/licenses/>.
 package com.heliosapm.aws.jmx.agent;
 
+import java.io.IOException;
+import java.io.StringWriter;
 import java.lang.management.ManagementFactory;
+import java.lang.management.RuntimeMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.management.remote.JMXServiceURL;
@@ -20,10 +31,18 @@ import javax.management.remote.jmxmp.JMXMPConnectorServer;
 
 import com.amazonaws.log.CommonsLogFactory;
 import com.amazonaws.log.InternalLogFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.heliosapm.aws.jmx.AWSJVMMetaDataService;
+import com.heliosapm.aws.json.JSONException;
 import com.heliosapm.aws.json.JSONUtil;
+import com.heliosapm.aws.metadata.InstanceEventWatcher;
+import com.heliosapm.aws.metrics.MetricService;
 import com.heliosapm.aws.sqs.SQSManager;
+import com.heliosapm.aws.threads.SharedThreadPoolService;
 import com.heliosapm.utils.config.ConfigurationHelper;
 import com.heliosapm.utils.jmx.JMXHelper;
 
@@ -40,32 +59,82 @@ public class Boot {
 	public static final String SYSPROP_JMXMP_PORT = "com.heliosapm.aws.jmx.port";
 	/** The default jmxmp listening port */
 	public static final int DEFAULT_JMXMP_PORT = 0;
+	/** The system property key to override the default overall deadline in ms. for the agent services to initialize */
+	public static final String SYSPROP_INIT_DEADLINE = "com.heliosapm.aws.jmx.initdeadline";
+	/** The default overall deadline in ms. for the agent services to initialize */
+	public static final int DEFAULT_INIT_DEADLINE = 30000;
 	
 	
 	
 	private static JMXMPConnectorServer server;
 	private static JMXServiceURL serviceUrl;
 	private static final AtomicBoolean initialized = new AtomicBoolean(false);
+	/** Set once the down signal has been sent so an interruption notice and the shutdown hook don't both send it */
+	private static final AtomicBoolean downSignalSent = new AtomicBoolean(false);
+	/** The initial capacity of the JVMUp payload buffer, tracking the last rendered payload */
+	private static volatile int upSignalSize = 4096;
 	private static String publicJmxServiceUrl = null;
 	
 	public static void init() {
 		if(initialized.compareAndSet(false, true)) {
 			try {
 				InternalLogFactory.configureFactory(CommonsLogFactory.getFactory());
-				AWSJVMMetaDataService.getInstance();
-				SQSManager.getInstance();
-				final int jmxmpPort = ConfigurationHelper.getIntSystemThenEnvProperty(SYSPROP_JMXMP_PORT, DEFAULT_JMXMP_PORT);
-				final BindAddress ba = BindAddress.bindAddress(); 
-				final String bindAddress = ba.getBindAddress();
-				server = JMXHelper.fireUpJMXMPServer(bindAddress, jmxmpPort);
-				serviceUrl = server.getAddress();
-				publicJmxServiceUrl = ba.getJMXServiceURL(server.getAddress().getPort());
+				final int deadline = ConfigurationHelper.getIntSystemThenEnvProperty(SYSPROP_INIT_DEADLINE, DEFAULT_INIT_DEADLINE);
+				// the services initialize concurrently, SQS and the JMXMP server once the meta-data is ready
+				final ListenableFuture<AWSJVMMetaDataService> metaReady = AWSJVMMetaDataService.ready();
+				final ListenableFuture<JMXMPConnectorServer> serverReady = Futures.transform(metaReady, new Function<AWSJVMMetaDataService, JMXMPConnectorServer>() {
+					@Override
+					public JMXMPConnectorServer apply(final AWSJVMMetaDataService metaService) {
+						final int jmxmpPort = ConfigurationHelper.getIntSystemThenEnvProperty(SYSPROP_JMXMP_PORT, DEFAULT_JMXMP_PORT);
+						final BindAddress ba = BindAddress.bindAddress(); 
+						final String bindAddress = ba.getBindAddress();
+						server = JMXHelper.fireUpJMXMPServer(bindAddress, jmxmpPort);
+						serviceUrl = server.getAddress();
+						publicJmxServiceUrl = ba.getJMXServiceURL(server.getAddress().getPort());
+						return server;
+					}
+				}, SharedThreadPoolService.getInstance().newExecutor());
+				final Map<String, ListenableFuture<?>> services = new LinkedHashMap<String, ListenableFuture<?>>();
+				services.put("AWSJVMMetaDataService", metaReady);
+				services.put("SQSManager", SQSManager.ready());
+				services.put("MetricService", MetricService.ready());
+				services.put("JMXMPConnectorServer", serverReady);
+				try {
+					Futures.allAsList(services.values()).get(deadline, TimeUnit.MILLISECONDS);
+				} catch (TimeoutException tex) {
+					final List<String> pending = new ArrayList<String>();
+					for(Map.Entry<String, ListenableFuture<?>> entry: services.entrySet()) {
+						if(!entry.getValue().isDone()) pending.add(entry.getKey());
+					}
+					final TimeoutException timeout = new TimeoutException("Agent services " + pending + " not ready within [" + deadline + "] ms.");
+					timeout.initCause(tex);
+					throw timeout;
+				} catch (ExecutionException eex) {
+					throw new RuntimeException("Agent services failed to initialize", eex.getCause());
+				}
+				try {
+					MetricService.getInstance().startCloudWatchReporter(AWSJVMMetaDataService.getInstance());
+				} catch (Exception ex) {
+					System.err.println("Failed to start the CloudWatch reporter:" + ex);
+				}
+				try {
+					MetricService.getInstance().startEmfReporter(AWSJVMMetaDataService.getInstance());
+				} catch (Exception ex) {
+					System.err.println("Failed to start the EMF reporter:" + ex);
+				}
 				Runtime.getRuntime().addShutdownHook(new Thread(){
 					public void run() {
-						sendDownSignal();
+						sendDownSignal(null);
 					}
 				});
 				sendUpSignal();
+				InstanceEventWatcher.start(AWSJVMMetaDataService.getInstance().getMetaEndpoint(), new InstanceEventWatcher.TerminationListener() {
+					@Override
+					public void onTermination(final String reason) {
+						sendDownSignal(reason);
+						MetricService.getInstance().flush();
+					}
+				});
 			} catch (Exception ex) {
 				ex.printStackTrace(System.err);
 				initialized.set(false);
@@ -75,24 +144,64 @@ public class Boot {
 	
 	
 	private static void sendUpSignal() {
-		final ObjectNode rootNode = JSONUtil.parseToObject(AWSJVMMetaDataService.getInstance().toJSON(), ObjectNode.class);
-		rootNode.put("eventType", "JVMUp");
-		rootNode.put("jmxmpPort", serviceUrl.getPort());
-		rootNode.put("jmxmpBind", serviceUrl.getHost());
-		rootNode.put("pid", ManagementFactory.getRuntimeMXBean().getName().split("@")[0]);
-		rootNode.set("sysprops", JSONUtil.serializeToNode(System.getProperties()));
-		rootNode.put("jvmstart", ManagementFactory.getRuntimeMXBean().getStartTime());
-		rootNode.put("jvmuptime", ManagementFactory.getRuntimeMXBean().getUptime());
-		rootNode.put("jmxagentid", JMXHelper.getAgentId());
-		rootNode.put("publicjmxserviceurl", publicJmxServiceUrl);
-		rootNode.set("keypairs", JSONUtil.serializeToNode(AWSJVMMetaDataService.getInstance().getPublicKeys()));
-		rootNode.put("region", AWSJVMMetaDataService.getInstance().getRegion());
-		SQSManager.getInstance().sendMessage(JSONUtil.serializeToString(rootNode));
+		SQSManager.getInstance().sendMessage(upSignal(serviceUrl, publicJmxServiceUrl));
+	}
+	
+	/**
+	 * Renders the JVMUp signal payload, streaming the cached meta-data JSON and the JVM fields without building a tree
+	 * @param serviceUrl The JMXMP connector server's address
+	 * @param publicJmxServiceUrl The JMX service URL published to the hub
+	 * @return the JSON payload
+	 */
+	public static String upSignal(final JMXServiceURL serviceUrl, final String publicJmxServiceUrl) {
+		final AWSJVMMetaDataService service = AWSJVMMetaDataService.getInstance();
+		final RuntimeMXBean runtime = ManagementFactory.getRuntimeMXBean();
+		// sized from the last rendering so the buffer neither grows nor idles at twice the payload
+		final StringWriter writer = new StringWriter(upSignalSize);
+		try {
+			final JsonGenerator gen = JSONUtil.jsonFactory().createGenerator(writer);
+			gen.writeStartObject();
+			// the service's region honours a region override, so it replaces the reader's
+			service.writeJSONFields(gen, "region");
+			gen.writeStringField("eventType", "JVMUp");
+			gen.writeNumberField("jmxmpPort", serviceUrl.getPort());
+			gen.writeStringField("jmxmpBind", serviceUrl.getHost());
+			gen.writeStringField("pid", runtime.getName().split("@")[0]);
+			gen.writeObjectFieldStart("sysprops");
+			final Properties props = System.getProperties();
+			synchronized(props) {
+				for(Map.Entry<Object, Object> entry: props.entrySet()) {
+					gen.writeStringField(String.valueOf(entry.getKey()), String.valueOf(entry.getValue()));
+				}
+			}
+			gen.writeEndObject();
+			gen.writeNumberField("jvmstart", runtime.getStartTime());
+			gen.writeNumberField("jvmuptime", runtime.getUptime());
+			gen.writeStringField("jmxagentid", JMXHelper.getAgentId());
+			gen.writeStringField("publicjmxserviceurl", publicJmxServiceUrl);
+			gen.writeArrayFieldStart("keypairs");
+			for(String key: service.getPublicKeys()) gen.writeString(key);
+			gen.writeEndArray();
+			gen.writeStringField("region", service.getRegion());
+			gen.writeEndObject();
+			gen.close();
+		} catch (IOException iex) {
+			throw new JSONException("Failed to render the JVMUp signal", iex);
+		}
+		final String payload = writer.toString();
+		upSignalSize = payload.length() + 256;
+		return payload;
 	}
 	
-	private static void sendDownSignal() {
+	/**
+	 * Sends the JVMDown signal, once
+	 * @param reason The interruption notice that triggered the signal ahead of shutdown, or null on shutdown
+	 */
+	private static void sendDownSignal(final String reason) {
+		if(!downSignalSent.compareAndSet(false, true)) return;
 		final ObjectNode rootNode = JSONUtil.newObjectNode();
 		rootNode.put("eventType", "JVMDown");
+		if(reason!=null) rootNode.put("reason", reason);
 		rootNode.put("jmxmpPort", serviceUrl.getPort());
 		rootNode.put("jmxmpBind", serviceUrl.getHost());
 		rootNode.put("pid", ManagementFactory.getRuntimeMXBean().getName().split("@")[0]);		
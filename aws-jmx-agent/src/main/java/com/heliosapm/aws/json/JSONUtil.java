@@ -173,7 +173,7 @@ public class JSONUtil {
 		if(json.isEmpty()) throw new IllegalArgumentException("The passed string was empty");		
 		if (type == null) throw new IllegalArgumentException("Missing class");
 		try {
-			return (T)objectMapper.readValue(json, type);
+			return objectMapper.readValue(json, type);
 		} catch (Exception ex) {
 			throw new JSONException("Failed to parse string to object", ex);
 		}
@@ -0,0 +1,197 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.aws.metadata;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.heliosapm.utils.config.ConfigurationHelper;
+
+/**
+ * <p>Title: FetchMode</p>
+ * <p>Description: Functional enumeration of the supported meta-data fetch strategies</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.aws.metadata.FetchMode</code></p>
+ */
+
+public enum FetchMode implements MetaDataFetcher {
+	/** Looks up each key in turn on the calling thread */
+	SEQUENTIAL{
+		@Override
+		public Map<String, String> fetch(final MetaDataReader reader, final Collection<String> keys, final long keyTimeout, final long deadline, final Map<String, Long> timings) {
+			final Map<String, String> values = new HashMap<String, String>();
+			for(String key: keys) {
+				if(MetaDataReader.IAM_CREDS_ID.equals(key)) {
+					fetchCredentials(reader, values, timings, (int)keyTimeout);
+				} else {
+					values.put(key, reader.timedLookup(key, !MetaDataReader.isOptional(key), timings, (int)keyTimeout));
+				}
+			}
+			return values;
+		}
+	},
+	/**
+	 * Issues all independent lookups concurrently on a dedicated, bounded fan-out pool. Lookups that find
+	 * the pool saturated run on the calling thread instead, with their timeout cut to what remains of the
+	 * deadline, so a fetch never waits on a queue behind other fetches and cannot starve the shared thread
+	 * pool it may itself be running on.
+	 */
+	PARALLEL{
+		@Override
+		public Map<String, String> fetch(final MetaDataReader reader, final Collection<String> keys, final long keyTimeout, final long deadline, final Map<String, Long> timings) {
+			final ExecutorService executor = FanOut.EXECUTOR;
+			final Map<String, String> values = new ConcurrentHashMap<String, String>();
+			final Map<String, Future<?>> futures = new LinkedHashMap<String, Future<?>>();
+			final List<String> overflow = new ArrayList<String>();
+			final long start = System.currentTimeMillis();
+			for(final String key: keys) {
+				try {
+					if(MetaDataReader.IAM_CREDS_ID.equals(key)) {
+						// the credentials document lookup depends on the credentials id so they are chained in one task
+						futures.put(key, executor.submit(new Runnable(){
+							@Override
+							public void run() {
+								fetchCredentials(reader, values, timings, (int)keyTimeout);
+							}
+						}));
+					} else {
+						final boolean required = !MetaDataReader.isOptional(key);
+						futures.put(key, executor.submit(new Runnable(){
+							@Override
+							public void run() {
+								final String value = reader.timedLookup(key, required, timings, (int)keyTimeout);
+								if(value!=null) values.put(key, value);
+							}
+						}));
+					}
+				} catch (RejectedExecutionException rex) {
+					overflow.add(key);
+				}
+			}
+			final long expiry = start + deadline;
+			for(String key: overflow) {
+				final boolean required = !MetaDataReader.isOptional(key);
+				final long remaining = expiry - System.currentTimeMillis();
+				if(remaining < 1) {
+					if(!timings.containsKey(key)) timings.put(key, System.currentTimeMillis() - start);
+					if(required) throw new RuntimeException("Timed out resolving meta-data key [" + key + "] after [" + deadline + "] ms.");
+					continue;
+				}
+				final int timeout = (int)Math.min(keyTimeout, remaining);
+				if(MetaDataReader.IAM_CREDS_ID.equals(key)) {
+					fetchCredentials(reader, values, timings, timeout);
+				} else {
+					final String value = reader.timedLookup(key, required, timings, timeout);
+					if(value!=null) values.put(key, value);
+				}
+			}
+			for(Map.Entry<String, Future<?>> entry: futures.entrySet()) {
+				final String key = entry.getKey();
+				final boolean required = !MetaDataReader.isOptional(key);
+				// the chained credentials task gets a key timeout for each of its lookups
+				final long keyExpiry = start + (MetaDataReader.IAM_CREDS_ID.equals(key) ? keyTimeout * 2 : keyTimeout);
+				final long wait = Math.max(0L, Math.min(keyExpiry, expiry) - System.currentTimeMillis());
+				try {
+					entry.getValue().get(wait, TimeUnit.MILLISECONDS);
+				} catch (TimeoutException tex) {
+					entry.getValue().cancel(true);
+					if(!timings.containsKey(key)) timings.put(key, System.currentTimeMillis() - start);
+					if(required) throw new RuntimeException("Timed out resolving meta-data key [" + key + "] after [" + wait + "] ms.");
+				} catch (ExecutionException eex) {
+					if(required) {
+						final Throwable cause = eex.getCause();
+						if(cause instanceof RuntimeException) throw (RuntimeException)cause;
+						throw new RuntimeException("Failed to resolve meta-data key [" + key + "]", cause);
+					}
+				} catch (InterruptedException iex) {
+					Thread.currentThread().interrupt();
+					throw new RuntimeException("Interrupted while resolving meta-data key [" + key + "]", iex);
+				}
+			}
+			return new HashMap<String, String>(values);
+		}
+	};
+
+	/** The system property key to override the default fetch mode */
+	public static final String FETCH_MODE_KEY = "com.heliosapm.aws.metadata.fetchmode";
+	/** The default fetch mode */
+	public static final FetchMode DEFAULT_FETCH_MODE = SEQUENTIAL;
+	/** The system property key to override the maximum number of concurrent parallel lookups */
+	public static final String FANOUT_KEY = "com.heliosapm.aws.metadata.fanout";
+	/** The default maximum number of concurrent parallel lookups */
+	public static final int DEFAULT_FANOUT = 8;
+
+	/**
+	 * Returns the configured fetch mode
+	 * @return the configured fetch mode, or the default if not configured or invalid
+	 */
+	public static FetchMode fetchMode() {
+		final String mode = ConfigurationHelper.getSystemThenEnvProperty(FETCH_MODE_KEY, DEFAULT_FETCH_MODE.name());
+		try {
+			return valueOf(mode.toUpperCase().trim());
+		} catch (Exception ex) {
+			return DEFAULT_FETCH_MODE;
+		}
+	}
+
+	/**
+	 * Looks up the IAM credentials id and then the credentials document it identifies
+	 * @param reader The reader to issue the lookups through
+	 * @param values The map to write the values to
+	 * @param timings The map to write the lookup timings to
+	 * @param timeout The timeout of each lookup in ms.
+	 */
+	private static void fetchCredentials(final MetaDataReader reader, final Map<String, String> values, final Map<String, Long> timings, final int timeout) {
+		final String credentialsId = reader.timedLookup(MetaDataReader.IAM_CREDS_ID, true, timings, timeout);
+		if(credentialsId==null) return;
+		values.put(MetaDataReader.IAM_CREDS_ID, credentialsId);
+		final String credentials = reader.timedLookup(String.format(MetaDataReader.IAM_CREDENTIAL_JSON, credentialsId), true, timings, timeout);
+		if(credentials!=null) values.put(MetaDataReader.IAM_CREDENTIAL_JSON, credentials);
+	}
+
+	/**
+	 * <p>Title: FanOut</p>
+	 * <p>Description: Lazy holder of the parallel lookup pool. The pool has no queue and idle threads time out,
+	 * and a lookup submitted while all threads are busy is rejected, to be run by the fetch with a timeout
+	 * bounded by its deadline.</p>
+	 */
+	private static class FanOut {
+		/** The parallel lookup pool */
+		static final ExecutorService EXECUTOR = new ThreadPoolExecutor(0, Math.max(1, ConfigurationHelper.getIntSystemThenEnvProperty(FANOUT_KEY, DEFAULT_FANOUT)),
+			60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+				final AtomicInteger serial = new AtomicInteger(0);
+				@Override
+				public Thread newThread(final Runnable r) {
+					final Thread t = new Thread(r, "MetaDataFetch#" + serial.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			}, new ThreadPoolExecutor.AbortPolicy());
+	}
+}
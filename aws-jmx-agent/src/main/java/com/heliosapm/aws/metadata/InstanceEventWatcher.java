@@ -0,0 +1,241 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.aws.metadata;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.heliosapm.aws.json.JSONUtil;
+import com.heliosapm.aws.threads.SharedThreadPoolService;
+import com.heliosapm.utils.config.ConfigurationHelper;
+
+/**
+ * <p>Title: InstanceEventWatcher</p>
+ * <p>Description: Polls the spot instance action and the scheduled maintenance events and notifies a
+ * {@link TerminationListener} once when the instance is about to be interrupted, so the JVM can announce
+ * its departure before it is reclaimed rather than relying on the shutdown hook running.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.aws.metadata.InstanceEventWatcher</code></p>
+ */
+
+public class InstanceEventWatcher {
+	/** The system property key to override the poll period in ms. A period of zero or less disables the watcher. */
+	public static final String POLL_PERIOD_KEY = "com.heliosapm.aws.metadata.eventpoll";
+	/** The default poll period in ms. */
+	public static final int DEFAULT_POLL_PERIOD = 2000;
+	/** The spot instance action path. Returns a 404 until the instance is marked for interruption. */
+	public static final String SPOT_ACTION_PATH = "/latest/meta-data/spot/instance-action";
+	/** The scheduled maintenance events path */
+	public static final String SCHEDULED_EVENTS_PATH = "/latest/meta-data/events/maintenance/scheduled";
+	/** The scheduled event codes that take the instance away */
+	public static final String[] TERMINAL_EVENT_CODES = {"instance-stop", "instance-retirement", "instance-terminate"};
+	/** The scheduled event state of events that have not completed or been canceled */
+	public static final String ACTIVE_STATE = "active";
+	/** The scheduled event date format */
+	public static final String EVENT_DATE_FORMAT = "d MMM yyyy HH:mm:ss z";
+
+	/** Type reference for the scheduled events document */
+	private static final TypeReference<List<Map<String, String>>> TR_EVENTS = new TypeReference<List<Map<String, String>>>() {};
+
+	/** The meta-data client */
+	private final MetaDataClient client;
+	/** The listener to notify */
+	private final TerminationListener listener;
+	/** Set once the listener has been notified */
+	private final AtomicBoolean fired = new AtomicBoolean(false);
+	/** Guards against overlapping polls */
+	private final AtomicBoolean polling = new AtomicBoolean(false);
+	/** Set while a poll is waiting for the unreachable endpoint to become reachable */
+	private final AtomicBoolean awaitingReachable = new AtomicBoolean(false);
+	/** The scheduled poll handle */
+	private volatile ScheduledFuture<?> handle = null;
+
+	/**
+	 * <p>Title: TerminationListener</p>
+	 * <p>Description: Notified when the instance is about to be interrupted</p>
+	 */
+	public static interface TerminationListener {
+		/**
+		 * Called once when an interruption notice is found
+		 * @param reason The source and content of the notice
+		 */
+		public void onTermination(final String reason);
+	}
+
+	/**
+	 * Starts a watcher if the poll period is enabled
+	 * @param metaEndpoint The meta-data endpoint
+	 * @param listener The listener to notify
+	 * @return the started watcher, or null if disabled
+	 */
+	public static InstanceEventWatcher start(final String metaEndpoint, final TerminationListener listener) {
+		final int period = ConfigurationHelper.getIntSystemThenEnvProperty(POLL_PERIOD_KEY, DEFAULT_POLL_PERIOD);
+		if(period <= 0) return null;
+		final InstanceEventWatcher watcher = new InstanceEventWatcher(metaEndpoint, listener);
+		watcher.schedule(period);
+		return watcher;
+	}
+
+	/**
+	 * Creates a new InstanceEventWatcher
+	 * @param metaEndpoint The meta-data endpoint
+	 * @param listener The listener to notify
+	 */
+	private InstanceEventWatcher(final String metaEndpoint, final TerminationListener listener) {
+		if(listener==null) throw new IllegalArgumentException("The passed listener was null");
+		client = MetaDataClient.getInstance(metaEndpoint);
+		this.listener = listener;
+	}
+
+	private void schedule(final long period) {
+		final ExecutorService executor = SharedThreadPoolService.getInstance().newExecutor();
+		final Runnable poll = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					poll();
+				} finally {
+					polling.set(false);
+				}
+			}
+		};
+		handle = SharedThreadPoolService.getInstance().getScheduler().scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				if(polling.compareAndSet(false, true)) {
+					try {
+						executor.execute(poll);
+					} catch (Exception ex) {
+						polling.set(false);
+					}
+				}
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops the watcher
+	 */
+	public void stop() {
+		final ScheduledFuture<?> h = handle;
+		if(h!=null) h.cancel(false);
+	}
+
+	/**
+	 * Checks the spot instance action and the scheduled events. If the endpoint is unreachable,
+	 * the check is repeated as soon as a background re-probe finds it reachable.
+	 */
+	private void poll() {
+		if(fired.get()) return;
+		if(!client.isReachable()) {
+			if(awaitingReachable.compareAndSet(false, true)) {
+				client.onReachable(new Runnable() {
+					@Override
+					public void run() {
+						awaitingReachable.set(false);
+						if(polling.compareAndSet(false, true)) {
+							try {
+								poll();
+							} finally {
+								polling.set(false);
+							}
+						}
+					}
+				});
+			}
+			return;
+		}
+		final int timeout = ConfigurationHelper.getIntSystemThenEnvProperty(MetaDataReader.KEY_TIMEOUT_KEY, MetaDataReader.DEFAULT_KEY_TIMEOUT);
+		final String spotAction = getOrNull(SPOT_ACTION_PATH, timeout);
+		if(spotAction!=null && !spotAction.trim().isEmpty()) {
+			fire("spot/instance-action: " + spotAction.trim());
+			return;
+		}
+		final String events = getOrNull(SCHEDULED_EVENTS_PATH, timeout);
+		if(events!=null && !events.trim().isEmpty()) {
+			final String terminal = terminalEvent(events);
+			if(terminal!=null) {
+				fire("events/maintenance/scheduled: " + terminal);
+			}
+		}
+	}
+
+	private void fire(final String reason) {
+		if(fired.compareAndSet(false, true)) {
+			stop();
+			try {
+				listener.onTermination(reason);
+			} catch (Exception ex) {
+				System.err.println("Termination listener failed:" + ex);
+			}
+		}
+	}
+
+	private String getOrNull(final String path, final int timeout) {
+		try {
+			return client.get(path, timeout);
+		} catch (Exception ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * Finds an active scheduled event that takes the instance away and is due
+	 * @param json The scheduled events document
+	 * @return a description of the event or null if there is none
+	 */
+	static String terminalEvent(final String json) {
+		final List<Map<String, String>> events;
+		try {
+			events = JSONUtil.parseToObject(json, TR_EVENTS);
+		} catch (Exception ex) {
+			return null;
+		}
+		final long now = System.currentTimeMillis();
+		for(Map<String, String> event: events) {
+			if(!ACTIVE_STATE.equalsIgnoreCase(event.get("State"))) continue;
+			final String code = event.get("Code");
+			boolean terminal = false;
+			for(String c: TERMINAL_EVENT_CODES) {
+				if(c.equalsIgnoreCase(code)) {
+					terminal = true;
+					break;
+				}
+			}
+			if(!terminal) continue;
+			final Date notBefore = parseDate(event.get("NotBefore"));
+			if(notBefore!=null && notBefore.getTime() <= now) {
+				return code + " " + event.get("EventId") + " not before " + event.get("NotBefore");
+			}
+		}
+		return null;
+	}
+
+	private static Date parseDate(final String date) {
+		if(date==null) return null;
+		try {
+			return new SimpleDateFormat(EVENT_DATE_FORMAT, Locale.US).parse(date.trim());
+		} catch (Exception ex) {
+			return null;
+		}
+	}
+}
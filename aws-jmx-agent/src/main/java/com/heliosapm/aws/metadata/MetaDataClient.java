@@ -0,0 +1,619 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.aws.metadata;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
+import com.heliosapm.aws.metrics.MetricService;
+import com.heliosapm.aws.threads.SharedThreadPoolService;
+import com.heliosapm.utils.config.ConfigurationHelper;
+
+/**
+ * <p>Title: MetaDataClient</p>
+ * <p>Description: Minimal HTTP/1.1 client for the meta-data endpoint which acquires and caches an IMDSv2 session token
+ * and keeps its connections alive between lookups. Falls back to IMDSv1 (no token) if the endpoint will not issue one.
+ * The first failed connect marks the endpoint unreachable (e.g. when not running in EC2), after which all requests fail
+ * immediately with an {@link UnreachableException} until a background re-probe finds the endpoint reachable.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.aws.metadata.MetaDataClient</code></p>
+ */
+
+public class MetaDataClient {
+	/** Client instances keyed by the endpoint */
+	private static final Map<String, MetaDataClient> clients = new ConcurrentHashMap<String, MetaDataClient>();
+
+	/** The system property key to override the IMDSv2 token TTL in seconds */
+	public static final String TOKEN_TTL_KEY = "com.heliosapm.aws.metadata.tokenttl";
+	/** The default IMDSv2 token TTL in seconds */
+	public static final int DEFAULT_TOKEN_TTL = 21600;
+	/** The system property key to override the maximum number of idle connections kept */
+	public static final String MAX_IDLE_KEY = "com.heliosapm.aws.metadata.maxidle";
+	/** The default maximum number of idle connections kept */
+	public static final int DEFAULT_MAX_IDLE = 4;
+	/** The IMDSv2 token path */
+	public static final String TOKEN_PATH = "/latest/api/token";
+	/** The IMDSv2 token TTL request header */
+	public static final String TOKEN_TTL_HEADER = "X-aws-ec2-metadata-token-ttl-seconds";
+	/** The IMDSv2 token header */
+	public static final String TOKEN_HEADER = "X-aws-ec2-metadata-token";
+	/** Idle connections older than this in ms. are discarded rather than reused */
+	public static final long MAX_IDLE_TIME = 5000L;
+	/** The minimum time in ms. between token acquisition attempts once the endpoint refused to issue one */
+	public static final long TOKEN_RETRY_PERIOD = 60000L;
+	/** The system property key to override the initial re-probe delay in ms. for an unreachable endpoint */
+	public static final String REPROBE_KEY = "com.heliosapm.aws.metadata.reprobe";
+	/** The default initial re-probe delay in ms. */
+	public static final int DEFAULT_REPROBE = 5000;
+	/** The maximum re-probe delay in ms. The delay doubles after each failed probe up to this value. */
+	public static final long MAX_REPROBE = 300000L;
+
+	/** The endpoint host */
+	private final String host;
+	/** The endpoint port */
+	private final int port;
+	/** The endpoint host header */
+	private final String hostHeader;
+	/** The token TTL in seconds */
+	private final int tokenTtl;
+	/** The maximum number of idle connections */
+	private final int maxIdle;
+	/** The idle connections */
+	private final ConcurrentLinkedDeque<Connection> idle = new ConcurrentLinkedDeque<Connection>();
+	/** The number of idle connections */
+	private final AtomicInteger idleCount = new AtomicInteger(0);
+	/** The current token */
+	private volatile String token = null;
+	/** The time the current token should be renewed at */
+	private volatile long tokenRenewAt = 0L;
+	/** The time before which no token acquisition is attempted */
+	private volatile long tokenRetryAt = 0L;
+	/** Indicates if the endpoint is reachable. Cleared on the first failed connect. */
+	private volatile boolean reachable = true;
+	/** Indicates if a re-probe is scheduled */
+	private boolean probing = false;
+	/** Callbacks to run when an unreachable endpoint becomes reachable */
+	private final List<Runnable> reachableListeners = new CopyOnWriteArrayList<Runnable>();
+
+	/** The client metrics recorded until the metric service is ready, which are not reported */
+	private static final Metrics DETACHED = new Metrics(null);
+	/** The registered client metrics, null until the metric service is ready */
+	private volatile Metrics metrics = null;
+
+	/**
+	 * Returns the client for the passed endpoint
+	 * @param endpoint The endpoint as <b><code>host[:port]</code></b>
+	 * @return the client
+	 */
+	public static MetaDataClient getInstance(final String endpoint) {
+		if(endpoint==null || endpoint.trim().isEmpty()) throw new IllegalArgumentException("The passed endpoint was null or empty");
+		final String key = endpoint.trim();
+		MetaDataClient client = clients.get(key);
+		if(client==null) {
+			synchronized(clients) {
+				client = clients.get(key);
+				if(client==null) {
+					client = new MetaDataClient(key);
+					clients.put(key, client);
+				}
+			}
+		}
+		return client;
+	}
+
+	/**
+	 * Creates a new MetaDataClient
+	 * @param endpoint The endpoint as <b><code>host[:port]</code></b>
+	 */
+	private MetaDataClient(final String endpoint) {
+		final int index = endpoint.lastIndexOf(':');
+		if(index==-1) {
+			host = endpoint;
+			port = 80;
+		} else {
+			host = endpoint.substring(0, index);
+			port = Integer.parseInt(endpoint.substring(index+1).trim());
+		}
+		hostHeader = endpoint;
+		tokenTtl = ConfigurationHelper.getIntSystemThenEnvProperty(TOKEN_TTL_KEY, DEFAULT_TOKEN_TTL);
+		maxIdle = ConfigurationHelper.getIntSystemThenEnvProperty(MAX_IDLE_KEY, DEFAULT_MAX_IDLE);
+	}
+
+	/**
+	 * Returns the client metrics. The meta-data is read while the metric service is still initializing,
+	 * so the client never waits for it and records to detached metrics until it is ready.
+	 * @return the client metrics
+	 */
+	private Metrics metrics() {
+		Metrics m = metrics;
+		if(m==null) {
+			final MetricService metricService = MetricService.getIfReady();
+			if(metricService==null) return DETACHED;
+			m = new Metrics(metricService);
+			metrics = m;
+		}
+		return m;
+	}
+
+	/**
+	 * Retrieves the text content of the passed meta-data path
+	 * @param path The path to retrieve
+	 * @param timeout The connect and read timeout in ms.
+	 * @return the text content, or null if the path does not exist
+	 * @throws IOException thrown on any connection error or a response other than 200 or 404.
+	 * Only connection errors and 5xx responses are counted as errors.
+	 */
+	public String get(final String path, final int timeout) throws IOException {
+		final Metrics m = metrics();
+		if(!reachable) {
+			m.shortCircuits.inc();
+			throw new UnreachableException(hostHeader, null);
+		}
+		final Timer.Context ctx = m.latency.time();
+		try {
+			Response response;
+			try {
+				final String t = token(timeout);
+				response = execute("GET", path, t==null ? null : TOKEN_HEADER, t, timeout);
+				if(response.status==401 && t!=null) {
+					// token expired or revoked
+					synchronized(this) {
+						if(token==t) tokenRenewAt = 0L;
+					}
+					final String renewed = token(timeout);
+					response = execute("GET", path, renewed==null ? null : TOKEN_HEADER, renewed, timeout);
+				}
+			} catch (IOException iex) {
+				m.errors.mark();
+				throw iex;
+			}
+			if(response.status==200) return response.body;
+			if(response.status==404) return null;
+			if(response.status >= 500) m.errors.mark();
+			throw new IOException("HTTP status [" + response.status + "] for [" + path + "]");
+		} finally {
+			ctx.stop();
+		}
+	}
+
+	/**
+	 * Returns the current token, acquiring a new one if there is none or it is due for renewal
+	 * @param timeout The connect and read timeout in ms.
+	 * @return the token or null if the endpoint does not issue tokens
+	 * @throws UnreachableException thrown if the endpoint cannot be connected to
+	 */
+	private String token(final int timeout) throws UnreachableException {
+		final long now = System.currentTimeMillis();
+		if(token!=null && now < tokenRenewAt) return token;
+		if(now < tokenRetryAt) return null;
+		synchronized(this) {
+			if(token!=null && System.currentTimeMillis() < tokenRenewAt) return token;
+			try {
+				final Response response = execute("PUT", TOKEN_PATH, TOKEN_TTL_HEADER, Integer.toString(tokenTtl), timeout);
+				if(response.status==200 && !response.body.trim().isEmpty()) {
+					token = response.body.trim();
+					// renew at 90% of the TTL so a token never expires in flight
+					tokenRenewAt = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(tokenTtl) * 9 / 10;
+					metrics().tokens.inc();
+					return token;
+				}
+			} catch (UnreachableException uex) {
+				throw uex;
+			} catch (IOException iex) {
+				/* No Op */
+			}
+			token = null;
+			tokenRetryAt = System.currentTimeMillis() + TOKEN_RETRY_PERIOD;
+			return null;
+		}
+	}
+
+	/**
+	 * Executes a request, retrying once on a new connection if a reused connection turns out to be stale
+	 * @param method The HTTP method
+	 * @param path The request path
+	 * @param headerName The optional additional header name
+	 * @param headerValue The optional additional header value
+	 * @param timeout The connect and read timeout in ms.
+	 * @return the response
+	 * @throws IOException thrown on any connection error
+	 */
+	private Response execute(final String method, final String path, final String headerName, final String headerValue, final int timeout) throws IOException {
+		final StringBuilder b = new StringBuilder(128)
+			.append(method).append(' ').append(path).append(" HTTP/1.1\r\n")
+			.append("Host: ").append(hostHeader).append("\r\n")
+			.append("Accept: */*\r\n")
+			.append("Connection: keep-alive\r\n");
+		if(headerName!=null) {
+			b.append(headerName).append(": ").append(headerValue).append("\r\n");
+		}
+		if("PUT".equals(method)) {
+			b.append("Content-Length: 0\r\n");
+		}
+		final byte[] request = b.append("\r\n").toString().getBytes(MetaDataReader.UTF8);
+		Connection conn = borrow();
+		if(conn!=null) {
+			try {
+				final Response response = conn.execute(request, timeout);
+				metrics().reused.inc();
+				release(conn, response);
+				return response;
+			} catch (IOException iex) {
+				conn.close();
+			}
+		}
+		conn = new Connection(timeout);
+		metrics().opened.inc();
+		try {
+			final Response response = conn.execute(request, timeout);
+			release(conn, response);
+			return response;
+		} catch (IOException iex) {
+			conn.close();
+			throw iex;
+		}
+	}
+
+	/**
+	 * Borrows an idle connection
+	 * @return an idle connection or null if there are none
+	 */
+	private Connection borrow() {
+		Connection conn;
+		while((conn = idle.pollFirst())!=null) {
+			idleCount.decrementAndGet();
+			if(System.currentTimeMillis() - conn.lastUsed < MAX_IDLE_TIME) return conn;
+			conn.close();
+		}
+		return null;
+	}
+
+	/**
+	 * Returns a connection to the idle pool, or closes it if it cannot be reused or the pool is full
+	 * @param conn The connection
+	 * @param response The last response read from the connection
+	 */
+	private void release(final Connection conn, final Response response) {
+		if(response.keepAlive && idleCount.incrementAndGet() <= maxIdle) {
+			conn.lastUsed = System.currentTimeMillis();
+			idle.offerFirst(conn);
+		} else {
+			if(response.keepAlive) idleCount.decrementAndGet();
+			conn.close();
+		}
+	}
+
+	/**
+	 * Indicates if the endpoint is reachable
+	 * @return false if a connect to the endpoint failed and it has not been successfully re-probed since
+	 */
+	public boolean isReachable() {
+		return reachable;
+	}
+	
+	/**
+	 * Registers a callback to be run on the shared thread pool once this unreachable endpoint becomes reachable,
+	 * starting the background re-probe if it is not already running. If the endpoint is already reachable, the callback is run immediately.
+	 * @param callback The callback to run
+	 */
+	public void onReachable(final Runnable callback) {
+		if(callback==null) throw new IllegalArgumentException("The passed callback was null");
+		synchronized(this) {
+			if(reachable) {
+				SharedThreadPoolService.getInstance().newExecutor().execute(callback);
+				return;
+			}
+			reachableListeners.add(callback);
+			if(!probing) {
+				probing = true;
+				scheduleProbe(ConfigurationHelper.getIntSystemThenEnvProperty(REPROBE_KEY, DEFAULT_REPROBE));
+			}
+		}
+	}
+	
+	/**
+	 * Schedules a re-probe of the endpoint
+	 * @param delay The delay in ms.
+	 */
+	private void scheduleProbe(final long delay) {
+		SharedThreadPoolService.getInstance().getScheduler().schedule(new Runnable() {
+			@Override
+			public void run() {
+				final Socket socket = new Socket();
+				try {
+					socket.connect(new InetSocketAddress(host, port), ConfigurationHelper.getIntSystemThenEnvProperty(MetaDataReader.KEY_TIMEOUT_KEY, MetaDataReader.DEFAULT_KEY_TIMEOUT));
+				} catch (IOException iex) {
+					scheduleProbe(Math.min(delay * 2, MAX_REPROBE));
+					return;
+				} finally {
+					try { socket.close(); } catch (Exception x) {/* No Op */}
+				}
+				reachable();
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Marks the endpoint reachable and runs the registered callbacks
+	 */
+	private void reachable() {
+		synchronized(this) {
+			reachable = true;
+			probing = false;
+			tokenRetryAt = 0L;
+		}
+		final Executor executor = SharedThreadPoolService.getInstance().newExecutor();
+		for(final Runnable callback: reachableListeners) {
+			reachableListeners.remove(callback);
+			executor.execute(callback);
+		}
+	}
+	
+	/**
+	 * Marks the endpoint unreachable after a failed connect and starts the background re-probe if it is not already running
+	 * @param cause The connect failure
+	 * @return the exception to throw
+	 */
+	UnreachableException unreachable(final IOException cause) {
+		synchronized(this) {
+			reachable = false;
+			if(!probing) {
+				probing = true;
+				scheduleProbe(ConfigurationHelper.getIntSystemThenEnvProperty(REPROBE_KEY, DEFAULT_REPROBE));
+			}
+		}
+		return cause instanceof UnreachableException ? (UnreachableException)cause : new UnreachableException(hostHeader, cause);
+	}
+	
+	/**
+	 * Determines if the passed throwable was caused by the endpoint being unreachable
+	 * @param t The throwable to test
+	 * @return true if an {@link UnreachableException} is in the cause chain
+	 */
+	public static boolean isUnreachable(final Throwable t) {
+		for(Throwable cause = t; cause!=null; cause = cause.getCause()) {
+			if(cause instanceof UnreachableException) return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Closes all idle connections and discards the current token
+	 */
+	public void close() {
+		Connection conn;
+		while((conn = idle.pollFirst())!=null) {
+			idleCount.decrementAndGet();
+			conn.close();
+		}
+		token = null;
+		tokenRenewAt = 0L;
+	}
+
+	/**
+	 * <p>Title: UnreachableException</p>
+	 * <p>Description: Thrown when the meta-data endpoint cannot be connected to, or has been marked unreachable</p>
+	 */
+	public static class UnreachableException extends IOException {
+		/**  */
+		private static final long serialVersionUID = -3317640917428934472L;
+
+		/**
+		 * Creates a new UnreachableException
+		 * @param endpoint The unreachable endpoint
+		 * @param cause The connect failure, or null if the endpoint was already marked unreachable
+		 */
+		public UnreachableException(final String endpoint, final IOException cause) {
+			super("Meta-data endpoint [" + endpoint + "] is unreachable", cause);
+		}
+	}
+
+	/**
+	 * <p>Title: Metrics</p>
+	 * <p>Description: The client metrics, registered with the metric service or detached</p>
+	 */
+	private static class Metrics {
+		/** The request latency timer */
+		final Timer latency;
+		/** The counter of opened connections */
+		final Counter opened;
+		/** The counter of requests served on a reused connection */
+		final Counter reused;
+		/** The counter of acquired tokens */
+		final Counter tokens;
+		/** The meter of failed connections and 5xx responses */
+		final Meter errors;
+		/** The counter of requests short-circuited while the endpoint is unreachable */
+		final Counter shortCircuits;
+
+		/**
+		 * Creates the client metrics
+		 * @param metricService The metric service to register them with, or null for detached metrics
+		 */
+		Metrics(final MetricService metricService) {
+			if(metricService==null) {
+				latency = new Timer();
+				opened = new Counter();
+				reused = new Counter();
+				tokens = new Counter();
+				errors = new Meter();
+				shortCircuits = new Counter();
+			} else {
+				latency = metricService.timer("metadata.client.latency");
+				opened = metricService.counter("metadata.client.connections.opened");
+				reused = metricService.counter("metadata.client.connections.reused");
+				tokens = metricService.counter("metadata.client.tokens");
+				errors = metricService.meter("metadata.client.errors");
+				shortCircuits = metricService.counter("metadata.client.shortcircuits");
+			}
+		}
+	}
+
+	/**
+	 * <p>Title: Response</p>
+	 * <p>Description: A read HTTP response</p>
+	 */
+	private static class Response {
+		/** The HTTP status code */
+		final int status;
+		/** The response body */
+		final String body;
+		/** true if the connection can be reused */
+		final boolean keepAlive;
+
+		Response(final int status, final String body, final boolean keepAlive) {
+			this.status = status;
+			this.body = body;
+			this.keepAlive = keepAlive;
+		}
+	}
+
+	/**
+	 * <p>Title: Connection</p>
+	 * <p>Description: A persistent connection to the meta-data endpoint</p>
+	 */
+	private class Connection {
+		/** The socket */
+		final Socket socket;
+		/** The socket input stream */
+		final InputStream in;
+		/** The socket output stream */
+		final OutputStream out;
+		/** The time this connection was last released */
+		long lastUsed = System.currentTimeMillis();
+
+		Connection(final int timeout) throws IOException {
+			socket = new Socket();
+			try {
+				socket.setTcpNoDelay(true);
+				socket.setKeepAlive(true);
+				try {
+					socket.connect(new InetSocketAddress(host, port), timeout);
+				} catch (IOException iex) {
+					throw unreachable(iex);
+				}
+				in = new BufferedInputStream(socket.getInputStream(), 4096);
+				out = socket.getOutputStream();
+			} catch (IOException iex) {
+				close();
+				throw iex;
+			}
+		}
+
+		/**
+		 * Writes the request and reads the response
+		 * @param request The request bytes
+		 * @param timeout The read timeout in ms.
+		 * @return the response
+		 * @throws IOException thrown on any I/O error
+		 */
+		Response execute(final byte[] request, final int timeout) throws IOException {
+			socket.setSoTimeout(timeout);
+			out.write(request);
+			out.flush();
+			final String statusLine = readLine();
+			final int firstSpace = statusLine.indexOf(' ');
+			if(firstSpace==-1) throw new IOException("Invalid status line [" + statusLine + "]");
+			final int secondSpace = statusLine.indexOf(' ', firstSpace+1);
+			final int status = Integer.parseInt(statusLine.substring(firstSpace+1, secondSpace==-1 ? statusLine.length() : secondSpace).trim());
+			boolean keepAlive = statusLine.startsWith("HTTP/1.1");
+			boolean chunked = false;
+			int contentLength = -1;
+			String line;
+			while(!(line = readLine()).isEmpty()) {
+				final int colon = line.indexOf(':');
+				if(colon==-1) continue;
+				final String name = line.substring(0, colon).trim();
+				final String value = line.substring(colon+1).trim();
+				if("Content-Length".equalsIgnoreCase(name)) {
+					contentLength = Integer.parseInt(value);
+				} else if("Transfer-Encoding".equalsIgnoreCase(name)) {
+					chunked = value.toLowerCase().contains("chunked");
+				} else if("Connection".equalsIgnoreCase(name)) {
+					if("close".equalsIgnoreCase(value)) keepAlive = false;
+					else if("keep-alive".equalsIgnoreCase(value)) keepAlive = true;
+				}
+			}
+			final ByteArrayOutputStream body = new ByteArrayOutputStream(contentLength > 0 ? contentLength : 256);
+			if(chunked) {
+				while(true) {
+					final String size = readLine();
+					final int semi = size.indexOf(';');
+					final int chunkSize = Integer.parseInt((semi==-1 ? size : size.substring(0, semi)).trim(), 16);
+					if(chunkSize==0) {
+						while(!readLine().isEmpty()) {/* trailers */}
+						break;
+					}
+					readFully(body, chunkSize);
+					readLine();
+				}
+			} else if(contentLength >= 0) {
+				readFully(body, contentLength);
+			} else {
+				// no length, so the body is delimited by the connection closing
+				keepAlive = false;
+				final byte[] buff = new byte[1024];
+				int read;
+				while((read = in.read(buff))!=-1) body.write(buff, 0, read);
+			}
+			return new Response(status, new String(body.toByteArray(), MetaDataReader.UTF8), keepAlive);
+		}
+
+		private void readFully(final ByteArrayOutputStream body, final int length) throws IOException {
+			final byte[] buff = new byte[Math.min(length, 4096)];
+			int remaining = length;
+			while(remaining > 0) {
+				final int read = in.read(buff, 0, Math.min(remaining, buff.length));
+				if(read==-1) throw new EOFException("Connection closed with [" + remaining + "] bytes outstanding");
+				body.write(buff, 0, read);
+				remaining -= read;
+			}
+		}
+
+		private String readLine() throws IOException {
+			final StringBuilder b = new StringBuilder(64);
+			int c;
+			while((c = in.read())!=-1) {
+				if(c=='\n') {
+					final int len = b.length();
+					if(len > 0 && b.charAt(len-1)=='\r') b.setLength(len-1);
+					return b.toString();
+				}
+				b.append((char)c);
+			}
+			throw new EOFException("Connection closed by endpoint");
+		}
+
+		void close() {
+			try { socket.close(); } catch (Exception x) {/* No Op */}
+		}
+	}
+}
@@ -0,0 +1,37 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.aws.metadata;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * <p>Title: MetaDataFetcher</p>
+ * <p>Description: Defines a strategy for retrieving the raw meta-data values for a {@link MetaDataReader}</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.aws.metadata.MetaDataFetcher</code></p>
+ */
+
+public interface MetaDataFetcher {
+	/**
+	 * Retrieves the raw meta-data values
+	 * @param reader The reader to issue the lookups through
+	 * @param keys The lookup keys to retrieve. {@link MetaDataReader#IAM_CREDS_ID} implies the credentials document as well.
+	 * @param keyTimeout The per-key timeout in ms.
+	 * @param deadline The overall deadline in ms.
+	 * @param timings A map the elapsed time of each lookup in ms. is written to, keyed by the lookup key
+	 * @return a map of the raw meta-data values keyed by the lookup key. Keys that could not be resolved are absent or null.
+	 */
+	public Map<String, String> fetch(final MetaDataReader reader, final Collection<String> keys, final long keyTimeout, final long deadline, final Map<String, Long> timings);
+}
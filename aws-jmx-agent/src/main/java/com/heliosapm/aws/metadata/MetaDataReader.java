@@ -13,18 +13,37 @@
 package com.heliosapm.aws.metadata;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.URL;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.JsonDeserializer;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.heliosapm.aws.json.JSONException;
 import com.heliosapm.aws.json.JSONUtil;
 import com.heliosapm.utils.config.ConfigurationHelper;
 import com.heliosapm.utils.lang.StringHelper;
@@ -36,8 +55,6 @@ import com.heliosapm.utils.url.URLHelper;
  * <p>Company: Helios Development Group LLC</p>
  * @author Whitehead (nwhitehead AT heliosdev DOT org)
  * <p><code>com.heliosapm.aws.metadata.MetaDataReader</code></p>
- * TODO: Support for ip6
- * TODO: Support for multiple network interfaces
  */
 @JsonDeserialize(using=MetaDataReader.Deser.class)
 public class MetaDataReader {
@@ -51,10 +68,56 @@ public class MetaDataReader {
 	// ==================================================================================
 	/** The base HTTP URL to retrieve meta data from */
 	public static final String META_URL = "http://%s/latest/meta-data/%s/";
+	/** The base HTTP URL to retrieve dynamic data from */
+	public static final String DYNAMIC_URL = "http://%s/latest/dynamic/%s";
 	/** The default IP of the meta-data endpoint */
 	public static final String DEFAULT_PUB = "169.254.169.254";
 	/** The system property key to override the IP of the meta-data endpoint */
 	public static final String PUB_CONFIG_KEY = "com.heliosapm.aws.metadata.endpoint";
+	/** The system property key to override the per-key lookup timeout in ms. */
+	public static final String KEY_TIMEOUT_KEY = "com.heliosapm.aws.metadata.keytimeout";
+	/** The default per-key lookup timeout in ms. */
+	public static final int DEFAULT_KEY_TIMEOUT = 1000;
+	/** The system property key to override the overall meta-data fetch deadline in ms. */
+	public static final String DEADLINE_KEY = "com.heliosapm.aws.metadata.deadline";
+	/** The default overall meta-data fetch deadline in ms. */
+	public static final int DEFAULT_DEADLINE = 5000;
+	/**
+	 * The system property key to enable or disable the identity document bootstrap. The identity document
+	 * supplies the instance id, instance type, AMI id, private ip, region, availability zone and account id
+	 * in one lookup, so an eager reader boots with the document and the 3 IAM lookups.
+	 */
+	public static final String BOOTSTRAP_KEY = "com.heliosapm.aws.metadata.bootstrap";
+	/** The default identity document bootstrap enablement */
+	public static final String DEFAULT_BOOTSTRAP = "true";
+	/** The system property key to enable or disable the pooled IMDSv2 {@link MetaDataClient} for lookups */
+	public static final String POOLED_CLIENT_KEY = "com.heliosapm.aws.metadata.pooledclient";
+	/** The default pooled client enablement */
+	public static final String DEFAULT_POOLED_CLIENT = "true";
+	/** The system property key to enable lazy mode, where the IAM documents are also resolved on first access */
+	public static final String LAZY_KEY = "com.heliosapm.aws.metadata.lazy";
+	/** The default lazy mode enablement */
+	public static final String DEFAULT_LAZY = "false";
+	
+	// ==================================================================================
+	//	Instance identity document
+	// ==================================================================================
+	/** The instance identity document dynamic lookup key */
+	public static final String IDENTITY_DOCUMENT = "instance-identity/document";
+	/** The identity document JSON key for the instance id */
+	public static final String JSON_KEY_ID_INSTANCE_ID = "instanceId";
+	/** The identity document JSON key for the instance type */
+	public static final String JSON_KEY_ID_INSTANCE_TYPE = "instanceType";
+	/** The identity document JSON key for the amazon machine image id */
+	public static final String JSON_KEY_ID_IMAGE_ID = "imageId";
+	/** The identity document JSON key for the private ip address */
+	public static final String JSON_KEY_ID_PRIVATE_IP = "privateIp";
+	/** The identity document JSON key for the region */
+	public static final String JSON_KEY_ID_REGION = "region";
+	/** The identity document JSON key for the availability zone */
+	public static final String JSON_KEY_ID_AZ = "availabilityZone";
+	/** The identity document JSON key for the account id */
+	public static final String JSON_KEY_ID_ACCOUNT_ID = "accountId";
 	
 	// ==================================================================================
 	//	Amazon Machine Image Data
@@ -99,6 +162,17 @@ public class MetaDataReader {
 	public static final String INSTANCE_ACTION = "instance-action";
 	/** The instance type for this instance lookup key */
 	public static final String INSTANCE_TYPE = "instance-type";
+	/** The public keys lookup key */
+	public static final String PUBLIC_KEYS = "public-keys";
+	// ==================================================================================
+	//	Network interfaces
+	// ==================================================================================
+	/** The network interface mac address listing lookup key */
+	public static final String NETWORK_MACS = "network/interfaces/macs";
+	/** The per network interface lookup key, to be formatted with the mac address and a {@link NetworkInterfaceInfo#FIELDS field} */
+	public static final String NETWORK_MAC_KEY = "network/interfaces/macs/%s/%s";
+	/** The timing key for the parallel per network interface lookups */
+	public static final String NETWORK_INTERFACES_TIMING = "network/interfaces/macs/*";
 	// ==================================================================================
 	//	IAM information
 	// ==================================================================================
@@ -133,97 +207,167 @@ public class MetaDataReader {
 	/** The JSON key for the credentialing status code lookup key */
 	public static final String JSON_KEY_IAM_CREDS_CODE = "Code";
 	
+	/** The single value keys, none of which are required to resolve */
+	static final String[] SIMPLE_KEYS = {
+		AMI_ID, AMI_LAUNCH_INDEX, AMI_MANIFEST_PATH, BLOCK_DEV_AMI, BLOCK_DEV_ROOT,
+		HOST_NAME, LOCAL_HOST_NAME, PUBLIC_HOST_NAME, LOCAL_V4_IP, PUBLIC_V4_IP, MAC_ADDR,
+		INSTANCE_ID, INSTANCE_ACTION, PUBLIC_KEYS, INSTANCE_TYPE
+	};
+	
+	/** The keys fetched up front by an eager reader. {@link #IAM_CREDS_ID} implies the credentials document. */
+	static final Set<String> EAGER_KEYS = Collections.unmodifiableSet(new LinkedHashSet<String>(Arrays.asList(IAM_INFO_JSON, IAM_CREDS_ID)));
+	
+	/** The optional keys */
+	private static final Set<String> OPTIONAL_KEYS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(SIMPLE_KEYS)));
 	
+	/** Type reference for the key timings map */
+	private static final TypeReference<TreeMap<String, Long>> TR_KEY_TIMINGS = new TypeReference<TreeMap<String, Long>>() {};
 	
+	/** The JSON field names of the single value keys, paired with the lookup key */
+	private static final String[][] JSON_FIELD_KEYS = {
+		{"amiId", AMI_ID}, {"amiLaunchIndex", AMI_LAUNCH_INDEX}, {"amiManifestPath", AMI_MANIFEST_PATH},
+		{"amiBlockDevice", BLOCK_DEV_AMI}, {"rootBlockDevice", BLOCK_DEV_ROOT}, {"hostName", HOST_NAME},
+		{"localHostName", LOCAL_HOST_NAME}, {"publicHostName", PUBLIC_HOST_NAME}, {"localV4Ip", LOCAL_V4_IP},
+		{"publicV4Ip", PUBLIC_V4_IP}, {"macAddress", MAC_ADDR}, {"instanceId", INSTANCE_ID},
+		{"instanceAction", INSTANCE_ACTION}, {"instanceType", INSTANCE_TYPE}, {"iamCredentialsId", IAM_CREDS_ID}
+	};
+	/** The JSON field names of the IAM document values, paired with the document lookup key and the document field */
+	private static final String[][] JSON_FIELD_DOCS = {
+		{"iamInfoLastUpdate", IAM_INFO_JSON, JSON_KEY_IAM_LAST_UPDATED},
+		{"iamInfoInstanceProfileArn", IAM_INFO_JSON, JSON_KEY_IAM_PROFILE_ARN},
+		{"iamInfoInstanceProfileId", IAM_INFO_JSON, JSON_KEY_IAM_PROFILE_ID},
+		{"iamInfoStatus", IAM_INFO_JSON, JSON_KEY_IAM_CODE},
+		{"iamCredsLastUpdate", IAM_CREDENTIAL_JSON, JSON_KEY_IAM_CREDS_LAST_UPDATED},
+		{"iamCredsExpiration", IAM_CREDENTIAL_JSON, JSON_KEY_IAM_CREDS_EXPIRE},
+		{"iamCredsType", IAM_CREDENTIAL_JSON, JSON_KEY_IAM_CREDS_TYPE},
+		{"iamCredsStatus", IAM_CREDENTIAL_JSON, JSON_KEY_IAM_CREDS_CODE}
+	};
+	/** Memoized marker for a lazily resolved key that has no value */
+	private static final String NONE = new String("<none>");
 	
 	/** The configured or default meta-data endpoint ip */
 	private final String metaEndpoint;
-	/** The amazon machine image id */
-	private final String amiId;
-	/** The amazon machine image launch index */
-	private final String amiLaunchIndex;
-	/** The amazon machine image manifest path */
-	private final String amiManifestPath;
-	/** The ami block device mapping */
-	private final String amiBlockDevice;
-	/** The root block device mapping */
-	private final String rootBlockDevice;
-	/** The host name */
-	private final String hostName;
-	/** The local host name */
-	private final String localHostName;
-	/** The private host name */
-	private final String publicHostName;
-	/** The local v4 ip address */
-	private final String localV4Ip;
-	/** The private v4 ip address */
-	private final String publicV4Ip;
-	/** The nic mac address */
-	private final String macAddress;
-	/** The instance id for this instance */
-	private final String instanceId;
-	/** The instance action for this instance */
-	private final String instanceAction;
-	/** The instance type for this instance */
-	private final String instanceType;
-	/** The IAM info last update timestamp */
-	private final String iamInfoLastUpdate;
-	/** The IAM info instance profile ARN */
-	private final String iamInfoInstanceProfileArn;
-	/** The IAM info instance profile id */
-	private final String iamInfoInstanceProfileId;
-	/** The IAM info status code */
-	private final String iamInfoStatus;
-	/** The IAM credentials id */
-	private final String iamCredentialsId;
-	/** The IAM credentials last update timestamp */
-	private final String iamCredsLastUpdate;
-	/** The IAM credentials expiration timestamp */
-	private final String iamCredsExpiration;
-	/** The IAM credential type */
-	private final String iamCredsType;
-	/** The IAM credentialing status code */
-	private final String iamCredsStatus;
+	/** The region this instance is running in */
+	private final String region;
+	/** The availability zone this instance is running in */
+	private final String availabilityZone;
+	/** The account id this instance is running under */
+	private final String accountId;
+	/** Indicates if the IAM documents are resolved on first access rather than in the constructor */
+	private final boolean lazy;
+	/** The single meta-data values keyed by the lookup key */
+	private final Map<String, String> values;
+	/** The retained fields of the IAM JSON documents keyed by the document lookup key */
+	private final Map<String, Map<String, String>> docs;
+	/** Per-key resolution locks, null if the reader was built from its JSON form and resolves nothing */
+	private final ConcurrentHashMap<String, Object> locks;
+	/** The timings map lookups on first access are recorded in */
+	private final Map<String, Long> lazyTimings;
 	/** The elapsed time to populate this reader */
 	private final long elapsed;
-	/** The public key names */
-	private final String[] publicKeys;
+	/** The elapsed time of each lookup in ms. keyed by the lookup key */
+	private final Map<String, Long> keyTimings;
+	/** The public key names, memoized on first access */
+	private volatile String[] publicKeys;
+	/** The network interfaces ordered by device number, memoized on first access */
+	private volatile NetworkInterfaceInfo[] networkInterfaces;
+	/** The rendered UTF-8 JSON form, cached on first render of an eager reader */
+	private volatile byte[] jsonBytes;
+	/** The rendered JSON string, cached on first render of an eager reader */
+	private volatile String json;
+	/** The rendered JSON tree, cached on first render of an eager reader */
+	private volatile ObjectNode jsonNode;
 	
 	/**
-	 * Creates a new MetaDataReader
+	 * Creates a new MetaDataReader using the configured fetch mode, or a lazy reader if lazy mode is configured
 	 */
 	public MetaDataReader() {
+		this(FetchMode.fetchMode(), Boolean.parseBoolean(ConfigurationHelper.getSystemThenEnvProperty(LAZY_KEY, DEFAULT_LAZY).trim()));
+	}
+	
+	/**
+	 * Creates a new eager MetaDataReader
+	 * @param fetcher The fetch strategy used to retrieve the meta-data values
+	 */
+	public MetaDataReader(final MetaDataFetcher fetcher) {
+		this(fetcher, false);
+	}
+	
+	/**
+	 * Creates a new MetaDataReader. The keys the identity document does not supply and the network interfaces
+	 * are resolved on first access.
+	 * @param fetcher The fetch strategy used to retrieve the IAM documents. Ignored if lazy.
+	 * @param lazy true to only read the identity document up front and resolve every other key on first access,
+	 * false to also resolve the IAM documents in the constructor
+	 */
+	public MetaDataReader(final MetaDataFetcher fetcher, final boolean lazy) {
 		final long start = System.currentTimeMillis();
+		this.lazy = lazy;
 		metaEndpoint = ConfigurationHelper.getSystemThenEnvProperty(PUB_CONFIG_KEY, DEFAULT_PUB);
-		amiId = lookupOrNull(AMI_ID);
-		amiLaunchIndex = lookupOrNull(AMI_LAUNCH_INDEX);
-		amiManifestPath = lookupOrNull(AMI_MANIFEST_PATH);
-		amiBlockDevice = lookupOrNull(BLOCK_DEV_AMI);
-		rootBlockDevice = lookupOrNull(BLOCK_DEV_ROOT);
-		hostName = lookupOrNull(HOST_NAME);
-		localHostName = lookupOrNull(LOCAL_HOST_NAME);
-		publicHostName = lookupOrNull(PUBLIC_HOST_NAME);
-		localV4Ip = lookupOrNull(LOCAL_V4_IP);
-		publicV4Ip = lookupOrNull(PUBLIC_V4_IP);
-		macAddress = lookupOrNull(MAC_ADDR);
-		instanceId = lookupOrNull(INSTANCE_ID);
-		instanceAction = lookupOrNull(INSTANCE_ACTION);
-		publicKeys = pubKeys();
-		instanceType = lookupOrNull(INSTANCE_TYPE);
-		final Map<String, String> iamInfo = getJSONValuesForKey(IAM_INFO_JSON);
-		iamInfoLastUpdate = iamInfo.get(JSON_KEY_IAM_LAST_UPDATED);
-		iamInfoInstanceProfileArn = iamInfo.get(JSON_KEY_IAM_PROFILE_ARN);
-		iamInfoInstanceProfileId = iamInfo.get(JSON_KEY_IAM_PROFILE_ID);
-		iamInfoStatus = iamInfo.get(JSON_KEY_IAM_CODE);
-		iamCredentialsId = lookup(IAM_CREDS_ID);
-		final Map<String, String> iamCreds = getJSONValuesForKey(String.format(IAM_CREDENTIAL_JSON, iamCredentialsId));
-		iamCredsLastUpdate = iamCreds.get(JSON_KEY_IAM_CREDS_LAST_UPDATED);
-		iamCredsExpiration = iamCreds.get(JSON_KEY_IAM_CREDS_EXPIRE);
-		iamCredsType = iamCreds.get(JSON_KEY_IAM_CREDS_TYPE);
-		iamCredsStatus = iamCreds.get(JSON_KEY_IAM_CREDS_CODE);
+		final int keyTimeout = ConfigurationHelper.getIntSystemThenEnvProperty(KEY_TIMEOUT_KEY, DEFAULT_KEY_TIMEOUT);
+		final int deadline = ConfigurationHelper.getIntSystemThenEnvProperty(DEADLINE_KEY, DEFAULT_DEADLINE);
+		final boolean bootstrap = Boolean.parseBoolean(ConfigurationHelper.getSystemThenEnvProperty(BOOTSTRAP_KEY, DEFAULT_BOOTSTRAP).trim());
+		final Map<String, Long> timings = new ConcurrentSkipListMap<String, Long>();
+		final Map<String, String> fetched = new HashMap<String, String>();
+		final Map<String, Object> identity = bootstrap ? identityDocument(timings) : Collections.<String, Object>emptyMap();
+		if(bootstrap) {
+			bootstrap(identity, fetched);
+		}
+		region = identityValue(identity, JSON_KEY_ID_REGION);
+		availabilityZone = identityValue(identity, JSON_KEY_ID_AZ);
+		accountId = identityValue(identity, JSON_KEY_ID_ACCOUNT_ID);
+		values = new ConcurrentHashMap<String, String>();
+		docs = new ConcurrentHashMap<String, Map<String, String>>();
+		locks = new ConcurrentHashMap<String, Object>();
+		lazyTimings = timings;
+		keyTimings = Collections.unmodifiableMap(timings);
+		if(!lazy) {
+			fetched.putAll(fetcher.fetch(this, EAGER_KEYS, keyTimeout, deadline, timings));
+			docs.put(IAM_INFO_JSON, docFields(parseJSONValues(fetched.remove(IAM_INFO_JSON)), IAM_INFO_JSON));
+			docs.put(IAM_CREDENTIAL_JSON, docFields(parseJSONValues(fetched.remove(IAM_CREDENTIAL_JSON)), IAM_CREDENTIAL_JSON));
+			if(!fetched.containsKey(IAM_CREDS_ID)) fetched.put(IAM_CREDS_ID, null);
+		}
+		for(Map.Entry<String, String> entry: fetched.entrySet()) {
+			values.put(entry.getKey(), entry.getValue()==null ? NONE : entry.getValue());
+		}
 		elapsed = System.currentTimeMillis() - start;
 	}
 	
+	/**
+	 * Creates a copy of the passed reader with updated volatile values
+	 * @param source The reader to copy
+	 * @param instanceAction The updated instance action
+	 * @param credentials The updated retained fields of the IAM credentials document, or null to keep the source's
+	 * @param timings The timings of the lookups made for the update
+	 */
+	private MetaDataReader(final MetaDataReader source, final String instanceAction, final Map<String, String> credentials, final Map<String, Long> timings) {
+		lazy = source.lazy;
+		metaEndpoint = source.metaEndpoint;
+		region = source.region;
+		availabilityZone = source.availabilityZone;
+		accountId = source.accountId;
+		elapsed = source.elapsed;
+		publicKeys = source.publicKeys;
+		networkInterfaces = source.networkInterfaces;
+		final Map<String, Long> allTimings = new ConcurrentSkipListMap<String, Long>(source.keyTimings);
+		allTimings.putAll(timings);
+		if(source.locks!=null) {
+			values = new ConcurrentHashMap<String, String>(source.values);
+			docs = new ConcurrentHashMap<String, Map<String, String>>(source.docs);
+			locks = new ConcurrentHashMap<String, Object>();
+			lazyTimings = allTimings;
+			keyTimings = Collections.unmodifiableMap(allTimings);
+		} else {
+			values = new HashMap<String, String>(source.values);
+			docs = new HashMap<String, Map<String, String>>(source.docs);
+			locks = null;
+			lazyTimings = null;
+			keyTimings = Collections.unmodifiableMap(new TreeMap<String, Long>(allTimings));
+		}
+		if(instanceAction!=null) values.put(INSTANCE_ACTION, instanceAction);
+		if(credentials!=null) docs.put(IAM_CREDENTIAL_JSON, credentials);
+	}
+	
 //	{
 //		  "metaEndpoint": "localhost:8394",
 //		  "amiId": "ami-0b33d91d",
@@ -265,47 +409,97 @@ public class MetaDataReader {
 	 * @param node the JsonNode
 	 */
 	public MetaDataReader(final JsonNode node) {
-		final long start = System.currentTimeMillis();
-	    metaEndpoint = node.has("metaEndpoint") ? node.get("metaEndpoint").textValue() : null;
-		amiId = node.has("amiId") ? node.get("amiId").textValue() : null;
-		amiLaunchIndex = node.has("amiLaunchIndex") ? node.get("amiLaunchIndex").textValue() : null;
-		amiManifestPath = node.has("amiManifestPath") ? node.get("amiManifestPath").textValue() : null;
-		amiBlockDevice = node.has("amiBlockDevice") ? node.get("amiBlockDevice").textValue() : null;
-		rootBlockDevice = node.has("rootBlockDevice") ? node.get("rootBlockDevice").textValue() : null;
-		hostName = node.has("hostName") ? node.get("hostName").textValue() : null;
-		localHostName = node.has("localHostName") ? node.get("localHostName").textValue() : null;
-		publicHostName = node.has("publicHostName") ? node.get("publicHostName").textValue() : null;
-		localV4Ip = node.has("localV4Ip") ? node.get("localV4Ip").textValue() : null;
-		publicV4Ip = node.has("publicV4Ip") ? node.get("publicV4Ip").textValue() : null;
-		macAddress = node.has("macAddress") ? node.get("macAddress").textValue() : null;
-		instanceId = node.has("instanceId") ? node.get("instanceId").textValue() : null;
-		instanceAction = node.has("instanceAction") ? node.get("instanceAction").textValue() : null;
-		instanceType = node.has("instanceType") ? node.get("instanceType").textValue() : null;
-		iamInfoLastUpdate = node.has("iamInfoLastUpdate") ? node.get("iamInfoLastUpdate").textValue() : null;
-		iamInfoInstanceProfileArn = node.has("iamInfoInstanceProfileArn") ? node.get("iamInfoInstanceProfileArn").textValue() : null;
-		iamInfoInstanceProfileId = node.has("iamInfoInstanceProfileId") ? node.get("iamInfoInstanceProfileId").textValue() : null;
-		iamInfoStatus = node.has("iamInfoStatus") ? node.get("iamInfoStatus").textValue() : null;
-		iamCredentialsId = node.has("iamCredentialsId") ? node.get("iamCredentialsId").textValue() : null;
-		iamCredsLastUpdate = node.has("iamCredsLastUpdate") ? node.get("iamCredsLastUpdate").textValue() : null;
-		iamCredsExpiration = node.has("iamCredsExpiration") ? node.get("iamCredsExpiration").textValue() : null;
-		iamCredsType = node.has("iamCredsType") ? node.get("iamCredsType").textValue() : null;
-		iamCredsStatus = node.has("iamCredsStatus") ? node.get("iamCredsStatus").textValue() : null;
-		publicKeys = node.has("publicKeys") ? JSONUtil.parseToObject(node.get("publicKeys"), String[].class) : new String[0];
-	    elapsed = System.currentTimeMillis() - start;		
+		this(System.currentTimeMillis(), textFields(node),
+			node.has("publicKeys") ? JSONUtil.parseToObject(node.get("publicKeys"), String[].class) : null,
+			node.has("networkInterfaces") ? JSONUtil.parseToObject(node.get("networkInterfaces"), NetworkInterfaceInfo[].class) : null,
+			node.has("keyTimings") ? JSONUtil.parseToObject(node.get("keyTimings"), TR_KEY_TIMINGS) : null
+		);
+	}
+	
+	/**
+	 * Creates a new MetaDataReader from the values of its JSON form
+	 * @param start The time the JSON form started to be read
+	 * @param fields The text values keyed by the JSON field name
+	 * @param publicKeys The public key names
+	 * @param networkInterfaces The network interfaces
+	 * @param keyTimings The lookup timings
+	 */
+	private MetaDataReader(final long start, final Map<String, String> fields, final String[] publicKeys, final NetworkInterfaceInfo[] networkInterfaces, final Map<String, Long> keyTimings) {
+		lazy = false;
+		locks = null;
+		lazyTimings = null;
+		metaEndpoint = fields.get("metaEndpoint");
+		region = fields.get("region");
+		availabilityZone = fields.get("availabilityZone");
+		accountId = fields.get("accountId");
+		values = new HashMap<String, String>();
+		for(String[] fieldKey: JSON_FIELD_KEYS) {
+			if(fields.containsKey(fieldKey[0])) values.put(fieldKey[1], fields.get(fieldKey[0]));
+		}
+		docs = new HashMap<String, Map<String, String>>();
+		docs.put(IAM_INFO_JSON, new HashMap<String, String>());
+		docs.put(IAM_CREDENTIAL_JSON, new HashMap<String, String>());
+		for(String[] fieldDoc: JSON_FIELD_DOCS) {
+			if(fields.containsKey(fieldDoc[0])) docs.get(fieldDoc[1]).put(fieldDoc[2], fields.get(fieldDoc[0]));
+		}
+		this.publicKeys = publicKeys==null ? new String[0] : publicKeys;
+		this.networkInterfaces = networkInterfaces==null ? new NetworkInterfaceInfo[0] : networkInterfaces;
+		this.keyTimings = keyTimings==null ? Collections.<String, Long>emptyMap() : Collections.unmodifiableMap(keyTimings);
+		elapsed = System.currentTimeMillis() - start;
 	}
 	
+	/**
+	 * Extracts the text values of the passed node
+	 * @param node The node
+	 * @return the text values keyed by the field name
+	 */
+	private static Map<String, String> textFields(final JsonNode node) {
+		final Map<String, String> fields = new HashMap<String, String>();
+		for(Iterator<Map.Entry<String, JsonNode>> iter = node.fields(); iter.hasNext();) {
+			final Map.Entry<String, JsonNode> entry = iter.next();
+			if(entry.getValue().isTextual()) fields.put(entry.getKey(), entry.getValue().textValue());
+		}
+		return fields;
+	}
+	
+	/**
+	 * <p>Title: Deser</p>
+	 * <p>Description: Token streaming deserializer, reading the JSON form without building an intermediate tree</p>
+	 */
 	public static class Deser extends JsonDeserializer<MetaDataReader> {
 		@Override
 		public MetaDataReader deserialize(final JsonParser p, final DeserializationContext ctxt) throws IOException, JsonProcessingException {
-			System.out.println("Deserializing....");
-			final Map<String, String> map = new HashMap<String, String>();
-			String fieldName = null;
-			while((fieldName = p.nextFieldName()) != null) {
-				
-				map.put(fieldName, p.nextTextValue());
-				p.clearCurrentToken();
-			}			
-			return new MetaDataReader(JSONUtil.serializeToNode(map));
+			final long start = System.currentTimeMillis();
+			final Map<String, String> fields = new HashMap<String, String>();
+			String[] publicKeys = null;
+			NetworkInterfaceInfo[] networkInterfaces = null;
+			Map<String, Long> keyTimings = null;
+			JsonToken token = p.getCurrentToken();
+			if(token==JsonToken.START_OBJECT) token = p.nextToken();
+			for(; token==JsonToken.FIELD_NAME; token = p.nextToken()) {
+				final String name = p.getCurrentName();
+				final JsonToken value = p.nextToken();
+				if(value==JsonToken.VALUE_NULL) continue;
+				if(value==JsonToken.VALUE_STRING) {
+					fields.put(name, p.getText());
+				} else if("publicKeys".equals(name) && value==JsonToken.START_ARRAY) {
+					final List<String> keys = new ArrayList<String>();
+					while(p.nextToken()!=JsonToken.END_ARRAY) keys.add(p.getText());
+					publicKeys = keys.toArray(new String[keys.size()]);
+				} else if("keyTimings".equals(name) && value==JsonToken.START_OBJECT) {
+					keyTimings = new TreeMap<String, Long>();
+					while(p.nextToken()==JsonToken.FIELD_NAME) {
+						final String key = p.getCurrentName();
+						p.nextToken();
+						keyTimings.put(key, p.getValueAsLong());
+					}
+				} else if("networkInterfaces".equals(name) && value==JsonToken.START_ARRAY) {
+					networkInterfaces = p.readValueAs(NetworkInterfaceInfo[].class);
+				} else {
+					p.skipChildren();
+				}
+			}
+			return new MetaDataReader(start, fields, publicKeys, networkInterfaces, keyTimings);
 		}
 	}
 	
@@ -325,8 +519,51 @@ public class MetaDataReader {
 		
 	}
 	
-	protected String[] pubKeys() {
-		final String keys = lookupOrNull("public-keys");
+	/**
+	 * Retrieves the instance identity document
+	 * @param timings The map to record the elapsed time in
+	 * @return the identity document values, or an empty map if it could not be retrieved
+	 */
+	protected Map<String, Object> identityDocument(final Map<String, Long> timings) {
+		final long start = System.currentTimeMillis();
+		try {
+			final String json = lookupURL(String.format(DYNAMIC_URL, metaEndpoint, IDENTITY_DOCUMENT));
+			return JSONUtil.parseToObject(json, JSONUtil.TR_STR_OBJ_HASH_MAP);
+		} catch (Exception ex) {
+			return Collections.emptyMap();
+		} finally {
+			timings.put(IDENTITY_DOCUMENT, System.currentTimeMillis() - start);
+		}
+	}
+	
+	/**
+	 * Populates the values available from the identity document
+	 * @param identity The identity document values
+	 * @param values The map to write the bootstrapped values to
+	 */
+	protected void bootstrap(final Map<String, Object> identity, final Map<String, String> values) {
+		bootstrapValue(identity, JSON_KEY_ID_INSTANCE_ID, INSTANCE_ID, values);
+		bootstrapValue(identity, JSON_KEY_ID_INSTANCE_TYPE, INSTANCE_TYPE, values);
+		bootstrapValue(identity, JSON_KEY_ID_IMAGE_ID, AMI_ID, values);
+		bootstrapValue(identity, JSON_KEY_ID_PRIVATE_IP, LOCAL_V4_IP, values);
+	}
+	
+	private static void bootstrapValue(final Map<String, Object> identity, final String jsonKey, final String key, final Map<String, String> values) {
+		final String value = identityValue(identity, jsonKey);
+		if(value!=null) values.put(key, value);
+	}
+	
+	private static String identityValue(final Map<String, Object> identity, final String jsonKey) {
+		final Object value = identity.get(jsonKey);
+		return value==null ? null : value.toString();
+	}
+	
+	/**
+	 * Extracts the public key names from the raw public keys listing
+	 * @param keys The raw public keys listing
+	 * @return the public key names
+	 */
+	protected static String[] pubKeys(final String keys) {
 		if(keys==null) return new String[0];
 		final String[] lines = StringHelper.splitString(keys, '\n');
 		final Set<String> names = new HashSet<String>();
@@ -339,6 +576,166 @@ public class MetaDataReader {
 		return names.toArray(new String[names.size()]);
 	}
 	
+	/**
+	 * Indicates if the passed lookup key is optional, meaning a failure to resolve it yields a null
+	 * @param key The lookup key
+	 * @return true if optional, false if required
+	 */
+	static boolean isOptional(final String key) {
+		return OPTIONAL_KEYS.contains(key) || key.startsWith(NETWORK_MACS);
+	}
+	
+	/**
+	 * Lists the network interfaces and reads each interface's values in parallel
+	 * @param keyTimeout The per-key timeout in ms.
+	 * @param deadline The deadline for the per-interface lookups in ms.
+	 * @param timings The map to record the elapsed time in
+	 * @return the network interfaces ordered by device number
+	 */
+	protected NetworkInterfaceInfo[] networkInterfaces(final long keyTimeout, final long deadline, final Map<String, Long> timings) {
+		final String[] macs = NetworkInterfaceInfo.lines(timedLookup(NETWORK_MACS, false, timings));
+		if(macs.length==0) return new NetworkInterfaceInfo[0];
+		final long start = System.currentTimeMillis();
+		final Set<String> keys = new LinkedHashSet<String>();
+		for(String mac: macs) {
+			for(String field: NetworkInterfaceInfo.FIELDS) {
+				keys.add(String.format(NETWORK_MAC_KEY, mac, field));
+			}
+		}
+		final Map<String, String> nicValues;
+		try {
+			// the per-interface timings would swamp the key timings so only the total is recorded
+			nicValues = FetchMode.PARALLEL.fetch(this, keys, keyTimeout, deadline, new ConcurrentHashMap<String, Long>());
+		} finally {
+			timings.put(NETWORK_INTERFACES_TIMING, System.currentTimeMillis() - start);
+		}
+		final NetworkInterfaceInfo[] nics = new NetworkInterfaceInfo[macs.length];
+		for(int i = 0; i < macs.length; i++) {
+			final Map<String, String> fields = new HashMap<String, String>();
+			for(String field: NetworkInterfaceInfo.FIELDS) {
+				fields.put(field, nicValues.get(String.format(NETWORK_MAC_KEY, macs[i], field)));
+			}
+			nics[i] = NetworkInterfaceInfo.fromValues(macs[i], fields);
+		}
+		Arrays.sort(nics, new Comparator<NetworkInterfaceInfo>() {
+			@Override
+			public int compare(final NetworkInterfaceInfo n1, final NetworkInterfaceInfo n2) {
+				return n1.getDeviceNumber() < n2.getDeviceNumber() ? -1 : (n1.getDeviceNumber()==n2.getDeviceNumber() ? 0 : 1);
+			}
+		});
+		return nics;
+	}
+	
+	/**
+	 * Looks up the passed key and records the elapsed time of the lookup
+	 * @param key The lookup key
+	 * @param required true to throw if the key cannot be resolved, false to return null.
+	 * Required keys also resolve to null if the endpoint is unreachable, so a reader can still be built outside EC2.
+	 * @param timings The map to record the elapsed time in
+	 * @return the looked up value
+	 */
+	String timedLookup(final String key, final boolean required, final Map<String, Long> timings) {
+		return timedLookup(key, required, timings, ConfigurationHelper.getIntSystemThenEnvProperty(KEY_TIMEOUT_KEY, DEFAULT_KEY_TIMEOUT));
+	}
+	
+	/**
+	 * Looks up the passed key with the passed timeout and records the elapsed time of the lookup
+	 * @param key The lookup key
+	 * @param required true to throw if the key cannot be resolved, false to return null.
+	 * Required keys also resolve to null if the endpoint is unreachable, so a reader can still be built outside EC2.
+	 * @param timings The map to record the elapsed time in
+	 * @param timeout The connect and read timeout of the pooled client in ms.
+	 * @return the looked up value
+	 */
+	String timedLookup(final String key, final boolean required, final Map<String, Long> timings, final int timeout) {
+		final long start = System.currentTimeMillis();
+		try {
+			return lookup(key, timeout);
+		} catch (RuntimeException rex) {
+			if(!required || MetaDataClient.isUnreachable(rex)) return null;
+			throw rex;
+		} finally {
+			timings.put(key, System.currentTimeMillis() - start);
+		}
+	}
+	
+	/**
+	 * Returns the value of the passed single value key, resolving and memoizing it on first access
+	 * @param key The lookup key
+	 * @return the value or null if it does not exist
+	 */
+	private String value(final String key) {
+		final String v = values.get(key);
+		if(v!=null || locks==null) return v==NONE ? null : v;
+		synchronized(lockFor(key)) {
+			String resolved = values.get(key);
+			if(resolved==null) {
+				resolved = timedLookup(key, false, lazyTimings);
+				if(resolved==null) resolved = NONE;
+				values.put(key, resolved);
+			}
+			return resolved==NONE ? null : resolved;
+		}
+	}
+	
+	/**
+	 * Returns the retained fields of the passed IAM JSON document, resolving and memoizing it on first access
+	 * @param docKey The document lookup key, {@link #IAM_INFO_JSON} or {@link #IAM_CREDENTIAL_JSON}
+	 * @return the retained document fields, empty if the document does not exist
+	 */
+	private Map<String, String> doc(final String docKey) {
+		final Map<String, String> d = docs.get(docKey);
+		if(d!=null) return d;
+		if(locks==null) return Collections.emptyMap();
+		synchronized(lockFor(docKey)) {
+			Map<String, String> resolved = docs.get(docKey);
+			if(resolved==null) {
+				String json = null;
+				if(IAM_CREDENTIAL_JSON.equals(docKey)) {
+					final String credentialsId = value(IAM_CREDS_ID);
+					if(credentialsId!=null) json = timedLookup(String.format(IAM_CREDENTIAL_JSON, credentialsId), false, lazyTimings);
+				} else {
+					json = timedLookup(docKey, false, lazyTimings);
+				}
+				try {
+					resolved = docFields(parseJSONValues(json), docKey);
+				} catch (Exception ex) {
+					resolved = Collections.emptyMap();
+				}
+				docs.put(docKey, resolved);
+			}
+			return resolved;
+		}
+	}
+	
+	/**
+	 * Returns the first access resolution lock for the passed key
+	 * @param key The lookup key
+	 * @return the lock
+	 */
+	private Object lockFor(final String key) {
+		final Object lock = new Object();
+		final Object existing = locks.putIfAbsent(key, lock);
+		return existing==null ? lock : existing;
+	}
+	
+	/**
+	 * Retains only the fields exposed by this reader from a parsed IAM document, so the credentials
+	 * themselves are never held onto
+	 * @param doc The parsed document
+	 * @param docKey The document lookup key
+	 * @return the retained fields
+	 */
+	private static Map<String, String> docFields(final Map<String, String> doc, final String docKey) {
+		final Map<String, String> fields = new HashMap<String, String>();
+		for(String[] fieldDoc: JSON_FIELD_DOCS) {
+			if(fieldDoc[1].equals(docKey) && doc.get(fieldDoc[2])!=null) {
+				fields.put(fieldDoc[2], doc.get(fieldDoc[2]));
+			}
+		}
+		return fields;
+	}
+	
 	protected String lookupOrNull(final String key) {
 		try {
 			return lookup(key);
@@ -348,17 +745,91 @@ public class MetaDataReader {
 	}
 	
 	protected String lookup(final String key) {
-		final String url = String.format(META_URL, metaEndpoint, key);
+		return lookupURL(String.format(META_URL, metaEndpoint, key));
+	}
+	
+	/**
+	 * Looks up the passed key with the passed timeout
+	 * @param key The lookup key
+	 * @param timeout The connect and read timeout of the pooled client in ms.
+	 * @return the looked up value
+	 */
+	protected String lookup(final String key, final int timeout) {
+		return lookupURL(String.format(META_URL, metaEndpoint, key), timeout);
+	}
+	
+	/**
+	 * Retrieves the text content of the passed meta-data endpoint URL
+	 * @param url The URL to read
+	 * @return the text content, or null if the pooled client found that the URL does not exist
+	 */
+	protected String lookupURL(final String url) {
+		return lookupURL(url, ConfigurationHelper.getIntSystemThenEnvProperty(KEY_TIMEOUT_KEY, DEFAULT_KEY_TIMEOUT));
+	}
+	
+	/**
+	 * Retrieves the text content of the passed meta-data endpoint URL
+	 * @param url The URL to read
+	 * @param timeout The connect and read timeout of the pooled client in ms.
+	 * @return the text content, or null if the pooled client found that the URL does not exist
+	 */
+	protected String lookupURL(final String url, final int timeout) {
 		try {
-			return URLHelper.getTextFromURL(url);
+			final URL u = new URL(url);
+			final MetaDataClient client = MetaDataClient.getInstance(u.getAuthority());
+			if(Boolean.parseBoolean(ConfigurationHelper.getSystemThenEnvProperty(POOLED_CLIENT_KEY, DEFAULT_POOLED_CLIENT).trim())) {
+				return client.get(u.getFile(), timeout);
+			}
+			if(!client.isReachable()) throw new MetaDataClient.UnreachableException(u.getAuthority(), null);
+			try {
+				return URLHelper.getTextFromURL(url);
+			} catch (RuntimeException rex) {
+				for(Throwable cause = rex; cause!=null; cause = cause.getCause()) {
+					if(cause instanceof ConnectException || cause instanceof NoRouteToHostException) {
+						throw client.unreachable((IOException)cause);
+					}
+				}
+				throw rex;
+			}
 		} catch (Exception ex) {
 			throw new RuntimeException("Failed to resolve value for URL [" + url + "]", ex);
 		}
 	}
 	
+	/**
+	 * Re-reads the volatile meta-data, the instance action and the IAM credentials document, into a new reader.
+	 * Values that cannot be re-read keep their current value.
+	 * @return a new reader with the current volatile values
+	 */
+	public MetaDataReader refresh() {
+		final Map<String, Long> timings = new HashMap<String, Long>();
+		final String instanceAction = timedLookup(INSTANCE_ACTION, false, timings);
+		Map<String, String> credentials = null;
+		final String credentialsId = getIamCredentialsId();
+		if(credentialsId!=null) {
+			final String json = timedLookup(String.format(IAM_CREDENTIAL_JSON, credentialsId), false, timings);
+			if(json!=null) {
+				try {
+					credentials = docFields(parseJSONValues(json), IAM_CREDENTIAL_JSON);
+				} catch (Exception ex) {/* No Op */}
+			}
+		}
+		return new MetaDataReader(this, instanceAction, credentials, timings);
+	}
+	
 	public Map<String, String> getJSONValuesForKey(final String key) {
+		return parseJSONValues(lookup(key));
+	}
+	
+	/**
+	 * Parses a JSON meta-data document into a map of values
+	 * @param json The JSON document. If null, an empty map is returned.
+	 * @return the parsed map
+	 */
+	protected static Map<String, String> parseJSONValues(final String json) {
+		if(json==null) return Collections.emptyMap();
 		return JSONUtil.parseToObject(
-				lookup(key),
+				json,
 				JSONUtil.TR_STR_STR_HASH_MAP
 		);
 	}
@@ -366,21 +837,23 @@ public class MetaDataReader {
 	@Override
 	public String toString() {
 		StringBuilder builder = new StringBuilder();
-		builder.append("MetaDataReader [\n\tmetaEndpoint=").append(metaEndpoint).append("\n\tamiId=").append(amiId)
-				.append("\n\tamiLaunchIndex=").append(amiLaunchIndex).append("\n\tamiManifestPath=").append(amiManifestPath)
-				.append("\n\tamiBlockDevice=").append(amiBlockDevice).append("\n\trootBlockDevice=").append(rootBlockDevice)
-				.append("\n\thostName=").append(hostName).append("\n\tlocalHostName=").append(localHostName)
-				.append("\n\tpublicHostName=").append(publicHostName).append("\n\tlocalV4Ip=").append(localV4Ip)
-				.append("\n\tpublicV4Ip=").append(publicV4Ip).append("\n\tmacAddress=").append(macAddress)
-				.append("\n\tinstanceId=").append(instanceId).append("\n\tinstanceAction=").append(instanceAction)
-				.append("\n\tinstanceType=").append(instanceType).append("\n\tiamInfoLastUpdate=").append(iamInfoLastUpdate)
-				.append("\n\tiamInfoInstanceProfileArn=").append(iamInfoInstanceProfileArn)
-				.append("\n\tiamInfoInstanceProfileId=").append(iamInfoInstanceProfileId).append("\n\tiamInfoStatus=")
-				.append(iamInfoStatus)
-				.append("\n\tiamCredentialsId=").append(iamCredentialsId)
-				.append("\n\tiamCredsLastUpdate=").append(iamCredsLastUpdate)
-				.append("\n\tiamCredsExpiration=").append(iamCredsExpiration).append("\n\tiamCredsType=")
-				.append(iamCredsType).append("\n\tiamCredsStatus=").append(iamCredsStatus)
+		builder.append("MetaDataReader [\n\tmetaEndpoint=").append(metaEndpoint).append("\n\tamiId=").append(getAmiId())
+				.append("\n\tamiLaunchIndex=").append(getAmiLaunchIndex()).append("\n\tamiManifestPath=").append(getAmiManifestPath())
+				.append("\n\tamiBlockDevice=").append(getAmiBlockDevice()).append("\n\trootBlockDevice=").append(getRootBlockDevice())
+				.append("\n\thostName=").append(getHostName()).append("\n\tlocalHostName=").append(getLocalHostName())
+				.append("\n\tpublicHostName=").append(getPublicHostName()).append("\n\tlocalV4Ip=").append(getLocalV4Ip())
+				.append("\n\tpublicV4Ip=").append(getPublicV4Ip()).append("\n\tmacAddress=").append(getMacAddress())
+				.append("\n\tinstanceId=").append(getInstanceId()).append("\n\tinstanceAction=").append(getInstanceAction())
+				.append("\n\tinstanceType=").append(getInstanceType()).append("\n\tregion=").append(region)
+				.append("\n\tavailabilityZone=").append(availabilityZone).append("\n\taccountId=").append(accountId).append("\n\tiamInfoLastUpdate=").append(getIamInfoLastUpdate())
+				.append("\n\tiamInfoInstanceProfileArn=").append(getIamInfoInstanceProfileArn())
+				.append("\n\tiamInfoInstanceProfileId=").append(getIamInfoInstanceProfileId()).append("\n\tiamInfoStatus=")
+				.append(getIamInfoStatus())
+				.append("\n\tiamCredentialsId=").append(getIamCredentialsId())
+				.append("\n\tiamCredsLastUpdate=").append(getIamCredsLastUpdate())
+				.append("\n\tiamCredsExpiration=").append(getIamCredsExpiration()).append("\n\tiamCredsType=")
+				.append(getIamCredsType()).append("\n\tiamCredsStatus=").append(getIamCredsStatus())
+				.append("\n\tnetworkInterfaces=").append(Arrays.toString(getNetworkInterfaces()))
 				.append("\n]\nCreated in ").append(elapsed).append(" ms.");
 		return builder.toString();
 	}
@@ -389,16 +862,99 @@ public class MetaDataReader {
 	 * Renders this meta-data as JSON
 	 * @return a JSON string
 	 */
-	public String toJSON() {		
-		return JSONUtil.serializeToString(this);
+	public String toJSON() {
+		if(lazy) return JSONUtil.serializeToString(this);
+		String s = json;
+		if(s==null) {
+			s = new String(toJSONBytes(false), UTF8);
+			json = s;
+		}
+		return s;
+	}
+	
+	/**
+	 * Renders this meta-data as UTF-8 encoded JSON
+	 * @return a copy of the UTF-8 JSON bytes
+	 */
+	public byte[] toJSONBytes() {
+		return toJSONBytes(true);
 	}
 	
 	/**
-	 * Encodes this meta-data to a JsonNode
+	 * Writes this meta-data as UTF-8 encoded JSON to the passed stream
+	 * @param os The stream to write to
+	 * @throws IOException thrown on any error writing to the stream
+	 */
+	public void writeJSON(final OutputStream os) throws IOException {
+		if(os==null) throw new IllegalArgumentException("The passed output stream was null");
+		os.write(toJSONBytes(false));
+	}
+	
+	/**
+	 * Encodes this meta-data to a JsonNode. The node of an eager reader is cached and shared, so it must not be
+	 * modified; use {@link #writeJSONFields(JsonGenerator, String...)} to extend the JSON form.
 	 * @return the JsonNode
 	 */
 	public JsonNode toJsonNode() {
-		return JSONUtil.serializeToNode(this);
+		if(lazy) return JSONUtil.serializeToNode(this);
+		ObjectNode node = jsonNode;
+		if(node==null) {
+			try {
+				node = (ObjectNode)JSONUtil.objectMapper().readTree(toJSONBytes(false));
+			} catch (IOException iex) {
+				throw new JSONException("Failed to parse rendered meta-data", iex);
+			}
+			jsonNode = node;
+		}
+		return node;
+	}
+	
+	/**
+	 * Streams the fields of the rendered JSON form to the passed generator, which must be writing an object,
+	 * so callers can add their own fields without building a tree
+	 * @param gen The generator to write to
+	 * @param exclude The names of fields not to write
+	 * @throws IOException thrown on any error writing to the generator
+	 */
+	public void writeJSONFields(final JsonGenerator gen, final String... exclude) throws IOException {
+		if(gen==null) throw new IllegalArgumentException("The passed generator was null");
+		final JsonParser p = JSONUtil.jsonFactory().createParser(toJSONBytes(false));
+		try {
+			if(p.nextToken()!=JsonToken.START_OBJECT) return;
+			fields:
+			while(p.nextToken()==JsonToken.FIELD_NAME) {
+				for(String name: exclude) {
+					if(name.equals(p.getCurrentName())) {
+						p.nextToken();
+						p.skipChildren();
+						continue fields;
+					}
+				}
+				gen.copyCurrentStructure(p);
+			}
+		} finally {
+			p.close();
+		}
+	}
+	
+	/**
+	 * Returns the rendered UTF-8 JSON form, rendering it once for eager readers.
+	 * Lazy readers are rendered on each call since the render resolves the remaining keys.
+	 * @param copy true to return a copy the caller may modify, false to return the cached array
+	 * @return the UTF-8 JSON bytes
+	 */
+	private byte[] toJSONBytes(final boolean copy) {
+		byte[] bytes = lazy ? null : jsonBytes;
+		if(bytes==null) {
+			try {
+				bytes = JSONUtil.objectMapper().writeValueAsBytes(this);
+			} catch (JsonProcessingException jex) {
+				throw new JSONException(jex);
+			}
+			if(lazy) return bytes;
+			jsonBytes = bytes;
+		}
+		return copy ? bytes.clone() : bytes;
 	}
 
 	/**
@@ -414,7 +970,7 @@ public class MetaDataReader {
 	 * @return the amazon machine image id
 	 */
 	public String getAmiId() {
-		return amiId;
+		return value(AMI_ID);
 	}
 
 	/**
@@ -422,7 +978,7 @@ public class MetaDataReader {
 	 * @return the launch index
 	 */
 	public String getAmiLaunchIndex() {
-		return amiLaunchIndex;
+		return value(AMI_LAUNCH_INDEX);
 	}
 
 	/**
@@ -430,7 +986,7 @@ public class MetaDataReader {
 	 * @return the AMI manifest path
 	 */
 	public String getAmiManifestPath() {
-		return amiManifestPath;
+		return value(AMI_MANIFEST_PATH);
 	}
 
 	/**
@@ -438,7 +994,7 @@ public class MetaDataReader {
 	 * @return the AMI block device mapping
 	 */
 	public String getAmiBlockDevice() {
-		return amiBlockDevice;
+		return value(BLOCK_DEV_AMI);
 	}
 
 	/**
@@ -446,7 +1002,7 @@ public class MetaDataReader {
 	 * @return the root block device mapping
 	 */
 	public String getRootBlockDevice() {
-		return rootBlockDevice;
+		return value(BLOCK_DEV_ROOT);
 	}
 
 	/**
@@ -454,7 +1010,7 @@ public class MetaDataReader {
 	 * @return the host name
 	 */
 	public String getHostName() {
-		return hostName;
+		return value(HOST_NAME);
 	}
 
 	/**
@@ -462,7 +1018,7 @@ public class MetaDataReader {
 	 * @return the host local name
 	 */
 	public String getLocalHostName() {
-		return localHostName;
+		return value(LOCAL_HOST_NAME);
 	}
 
 	/**
@@ -470,7 +1026,7 @@ public class MetaDataReader {
 	 * @return the host public name
 	 */
 	public String getPublicHostName() {
-		return publicHostName;
+		return value(PUBLIC_HOST_NAME);
 	}
 
 	/**
@@ -478,7 +1034,7 @@ public class MetaDataReader {
 	 * @return the localV4Ip
 	 */
 	public String getLocalV4Ip() {
-		return localV4Ip;
+		return value(LOCAL_V4_IP);
 	}
 
 	/**
@@ -486,7 +1042,7 @@ public class MetaDataReader {
 	 * @return the public V4 IP address
 	 */
 	public String getPublicV4Ip() {
-		return publicV4Ip;
+		return value(PUBLIC_V4_IP);
 	}
 	
 	/**
@@ -494,7 +1050,34 @@ public class MetaDataReader {
 	 * @return the public keys
 	 */
 	public String[] getPublicKeys() {
-		return publicKeys;
+		String[] keys = publicKeys;
+		if(keys==null) {
+			keys = pubKeys(value(PUBLIC_KEYS));
+			publicKeys = keys;
+		}
+		return keys;
+	}
+
+	/**
+	 * Returns the network interfaces
+	 * @return the network interfaces ordered by device number
+	 */
+	public NetworkInterfaceInfo[] getNetworkInterfaces() {
+		NetworkInterfaceInfo[] nics = networkInterfaces;
+		if(nics==null) {
+			synchronized(lockFor(NETWORK_MACS)) {
+				nics = networkInterfaces;
+				if(nics==null) {
+					nics = networkInterfaces(
+						ConfigurationHelper.getIntSystemThenEnvProperty(KEY_TIMEOUT_KEY, DEFAULT_KEY_TIMEOUT),
+						ConfigurationHelper.getIntSystemThenEnvProperty(DEADLINE_KEY, DEFAULT_DEADLINE),
+						lazyTimings
+					);
+					networkInterfaces = nics;
+				}
+			}
+		}
+		return nics;
 	}
 
 	/**
@@ -502,7 +1085,7 @@ public class MetaDataReader {
 	 * @return the mac address
 	 */
 	public String getMacAddress() {
-		return macAddress;
+		return value(MAC_ADDR);
 	}
 
 	/**
@@ -510,7 +1093,7 @@ public class MetaDataReader {
 	 * @return the instance Id
 	 */
 	public String getInstanceId() {
-		return instanceId;
+		return value(INSTANCE_ID);
 	}
 
 	/**
@@ -518,7 +1101,7 @@ public class MetaDataReader {
 	 * @return the instance action
 	 */
 	public String getInstanceAction() {
-		return instanceAction;
+		return value(INSTANCE_ACTION);
 	}
 
 	/**
@@ -526,7 +1109,31 @@ public class MetaDataReader {
 	 * @return the EC2 instance type
 	 */
 	public String getInstanceType() {
-		return instanceType;
+		return value(INSTANCE_TYPE);
+	}
+
+	/**
+	 * Returns the region this instance is running in
+	 * @return the region, or null if the identity document was not read
+	 */
+	public String getRegion() {
+		return region;
+	}
+
+	/**
+	 * Returns the availability zone this instance is running in
+	 * @return the availability zone, or null if the identity document was not read
+	 */
+	public String getAvailabilityZone() {
+		return availabilityZone;
+	}
+
+	/**
+	 * Returns the account id this instance is running under
+	 * @return the account id, or null if the identity document was not read
+	 */
+	public String getAccountId() {
+		return accountId;
 	}
 
 	/**
@@ -534,7 +1141,7 @@ public class MetaDataReader {
 	 * @return the IAM info last update timestamp
 	 */
 	public String getIamInfoLastUpdate() {
-		return iamInfoLastUpdate;
+		return doc(IAM_INFO_JSON).get(JSON_KEY_IAM_LAST_UPDATED);
 	}
 
 	/**
@@ -542,7 +1149,7 @@ public class MetaDataReader {
 	 * @return the IAM info instance profile ARN
 	 */
 	public String getIamInfoInstanceProfileArn() {
-		return iamInfoInstanceProfileArn;
+		return doc(IAM_INFO_JSON).get(JSON_KEY_IAM_PROFILE_ARN);
 	}
 
 	/**
@@ -550,7 +1157,7 @@ public class MetaDataReader {
 	 * @return the IAM info instance profile id
 	 */
 	public String getIamInfoInstanceProfileId() {
-		return iamInfoInstanceProfileId;
+		return doc(IAM_INFO_JSON).get(JSON_KEY_IAM_PROFILE_ID);
 	}
 
 	/**
@@ -558,7 +1165,7 @@ public class MetaDataReader {
 	 * @return the IAM info status code
 	 */
 	public String getIamInfoStatus() {
-		return iamInfoStatus;
+		return doc(IAM_INFO_JSON).get(JSON_KEY_IAM_CODE);
 	}
 
 	/**
@@ -566,7 +1173,7 @@ public class MetaDataReader {
 	 * @return the IAM credentials id
 	 */
 	public String getIamCredentialsId() {
-		return iamCredentialsId;
+		return value(IAM_CREDS_ID);
 	}
 
 	/**
@@ -574,7 +1181,7 @@ public class MetaDataReader {
 	 * @return the IAM credentials last update timestamp
 	 */
 	public String getIamCredsLastUpdate() {
-		return iamCredsLastUpdate;
+		return doc(IAM_CREDENTIAL_JSON).get(JSON_KEY_IAM_CREDS_LAST_UPDATED);
 	}
 
 	/**
@@ -582,7 +1189,7 @@ public class MetaDataReader {
 	 * @return the IAM credentials expiration timestamp
 	 */
 	public String getIamCredsExpiration() {
-		return iamCredsExpiration;
+		return doc(IAM_CREDENTIAL_JSON).get(JSON_KEY_IAM_CREDS_EXPIRE);
 	}
 
 	/**
@@ -590,7 +1197,7 @@ public class MetaDataReader {
 	 * @return the IAM credentials type
 	 */
 	public String getIamCredsType() {
-		return iamCredsType;
+		return doc(IAM_CREDENTIAL_JSON).get(JSON_KEY_IAM_CREDS_TYPE);
 	}
 
 	/**
@@ -598,7 +1205,15 @@ public class MetaDataReader {
 	 * @return the IAM credentialing status code
 	 */
 	public String getIamCredsStatus() {
-		return iamCredsStatus;
+		return doc(IAM_CREDENTIAL_JSON).get(JSON_KEY_IAM_CREDS_CODE);
+	}
+
+	/**
+	 * Indicates if this reader resolves the IAM documents on first access
+	 * @return true if lazy, false if the IAM documents were resolved on construction
+	 */
+	boolean isLazy() {
+		return lazy;
 	}
 
 	/**
@@ -608,5 +1223,13 @@ public class MetaDataReader {
 	public long getElapsed() {
 		return elapsed;
 	}
+	
+	/**
+	 * Returns the elapsed time of each meta-data lookup in ms. keyed by the lookup key
+	 * @return the per-key lookup timings
+	 */
+	public Map<String, Long> getKeyTimings() {
+		return keyTimings;
+	}
 
 }
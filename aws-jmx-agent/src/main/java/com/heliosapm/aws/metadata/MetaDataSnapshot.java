@@ -0,0 +1,279 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.aws.metadata;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.heliosapm.aws.json.JSONUtil;
+import com.heliosapm.utils.config.ConfigurationHelper;
+
+/**
+ * <p>Title: MetaDataSnapshot</p>
+ * <p>Description: Optional on-disk snapshot of the instance meta-data shared by all the JVMs on an instance.
+ * The snapshot is the {@link MetaDataReader#toJSON()} form plus the boot time of the host it was taken on,
+ * so a snapshot survives JVM restarts but not instance stop/starts. Only the volatile keys are re-read
+ * when a valid snapshot is found.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.aws.metadata.MetaDataSnapshot</code></p>
+ */
+
+public class MetaDataSnapshot {
+	/** The system property key to specify the snapshot file. If not defined, no snapshot is used. */
+	public static final String SNAPSHOT_FILE_KEY = "com.heliosapm.aws.metadata.snapshot";
+	/** The JSON key of the host boot time in the snapshot */
+	public static final String JSON_KEY_BOOT_TIME = "snapshotBootTime";
+	/** The timing key for loading the snapshot */
+	public static final String SNAPSHOT_TIMING_KEY = "snapshot";
+	/** The file the host boot time is read from */
+	public static final String PROC_STAT = "/proc/stat";
+	/** The file the nitro hypervisor publishes the instance id in */
+	public static final String ASSET_TAG = "/sys/devices/virtual/dmi/id/board_asset_tag";
+	/** The snapshot fields refreshed from the IAM credentials document, keyed by the document key */
+	private static final String[][] VOLATILE_CREDS_FIELDS = {
+		{MetaDataReader.JSON_KEY_IAM_CREDS_LAST_UPDATED, "iamCredsLastUpdate"},
+		{MetaDataReader.JSON_KEY_IAM_CREDS_EXPIRE, "iamCredsExpiration"},
+		{MetaDataReader.JSON_KEY_IAM_CREDS_TYPE, "iamCredsType"},
+		{MetaDataReader.JSON_KEY_IAM_CREDS_CODE, "iamCredsStatus"}
+	};
+	/** The poll interval in ms. while waiting on another JVM holding the snapshot lock */
+	private static final long LOCK_POLL = 50L;
+	/** In-JVM guard since file locks are held on behalf of the whole JVM */
+	private static final Object jvmLock = new Object();
+
+	/**
+	 * Returns a MetaDataReader, from the snapshot if one is configured and valid, otherwise from
+	 * the meta-data endpoint, in which case the snapshot is written if configured.
+	 * @return a MetaDataReader
+	 */
+	public static MetaDataReader reader() {
+		final String fileName = ConfigurationHelper.getSystemThenEnvProperty(SNAPSHOT_FILE_KEY, "").trim();
+		final long bootTime = bootTime();
+		if(fileName.isEmpty() || bootTime==-1L) return new MetaDataReader();
+		final Path path = new File(fileName).getAbsoluteFile().toPath();
+		final int deadline = ConfigurationHelper.getIntSystemThenEnvProperty(MetaDataReader.DEADLINE_KEY, MetaDataReader.DEFAULT_DEADLINE);
+		synchronized(jvmLock) {
+			FileChannel lockChannel = null;
+			FileLock lock = null;
+			try {
+				lockChannel = FileChannel.open(path.resolveSibling(path.getFileName() + ".lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+				lock = lock(lockChannel, deadline);
+			} catch (Exception ex) {
+				/* No Op. Proceed unlocked */
+			}
+			try {
+				final long start = System.currentTimeMillis();
+				final ObjectNode snapshot = read(path, bootTime);
+				if(snapshot!=null) {
+					final long loadTime = System.currentTimeMillis() - start;
+					final String before = volatileState(snapshot);
+					final MetaDataReader reader = refresh(snapshot, loadTime);
+					if(!before.equals(volatileState(snapshot))) {
+						write(path, reader, bootTime);
+					}
+					return reader;
+				}
+				final MetaDataReader reader = new MetaDataReader();
+				// writing resolves the keys deferred to first access, which lazy mode is configured to avoid, so only eager readers seed the snapshot
+				if(!reader.isLazy() && reader.getInstanceId()!=null) {
+					write(path, reader, bootTime);
+				}
+				return reader;
+			} finally {
+				if(lock!=null) try { lock.release(); } catch (Exception x) {/* No Op */}
+				if(lockChannel!=null) try { lockChannel.close(); } catch (Exception x) {/* No Op */}
+			}
+		}
+	}
+
+	/**
+	 * Acquires the inter-process snapshot lock
+	 * @param channel The lock file channel
+	 * @param timeout The maximum time to wait in ms.
+	 * @return the lock or null if it could not be acquired in time
+	 * @throws Exception on any error other than the lock being held
+	 */
+	private static FileLock lock(final FileChannel channel, final long timeout) throws Exception {
+		final long expiry = System.currentTimeMillis() + timeout;
+		while(true) {
+			final FileLock lock = channel.tryLock();
+			if(lock!=null) return lock;
+			if(System.currentTimeMillis() >= expiry) return null;
+			Thread.sleep(LOCK_POLL);
+		}
+	}
+
+	/**
+	 * Reads the snapshot file through a read-only mapping
+	 * @param path The snapshot file
+	 * @param bootTime The current host boot time
+	 * @return the snapshot or null if it does not exist, cannot be read or belongs to another boot or instance
+	 */
+	private static ObjectNode read(final Path path, final long bootTime) {
+		if(!Files.isReadable(path)) return null;
+		try {
+			final JsonNode node;
+			final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+			try {
+				final MappedByteBuffer mbb = channel.map(MapMode.READ_ONLY, 0, channel.size());
+				node = JSONUtil.parseToNode(MetaDataReader.UTF8.decode(mbb));
+			} finally {
+				channel.close();
+			}
+			if(!(node instanceof ObjectNode)) return null;
+			if(!node.has(JSON_KEY_BOOT_TIME) || node.get(JSON_KEY_BOOT_TIME).asLong(-1L)!=bootTime) return null;
+			final JsonNode instanceId = node.get("instanceId");
+			if(instanceId==null || instanceId.textValue()==null) return null;
+			final String assetTag = assetTag();
+			if(assetTag!=null && !assetTag.equals(instanceId.textValue())) return null;
+			return (ObjectNode)node;
+		} catch (Exception ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * Re-reads the volatile keys into the passed snapshot and creates a reader from it. Keys that cannot be
+	 * re-read keep their stored value.
+	 * @param snapshot The snapshot
+	 * @param loadTime The time taken to load the snapshot in ms.
+	 * @return the refreshed reader
+	 */
+	private static MetaDataReader refresh(final ObjectNode snapshot, final long loadTime) {
+		snapshot.remove(JSON_KEY_BOOT_TIME);
+		snapshot.put("metaEndpoint", ConfigurationHelper.getSystemThenEnvProperty(MetaDataReader.PUB_CONFIG_KEY, MetaDataReader.DEFAULT_PUB));
+		final MetaDataReader stale = new MetaDataReader(snapshot);
+		final Map<String, Long> timings = new TreeMap<String, Long>();
+		timings.put(SNAPSHOT_TIMING_KEY, loadTime);
+		final long start = System.currentTimeMillis();
+		try {
+			// null only on a 404, which clears the stored action
+			snapshot.put("instanceAction", stale.lookup(MetaDataReader.INSTANCE_ACTION));
+		} catch (Exception ex) {
+			/* No Op. The stored action is kept */
+		} finally {
+			timings.put(MetaDataReader.INSTANCE_ACTION, System.currentTimeMillis() - start);
+		}
+		final String credentialsId = stale.getIamCredentialsId();
+		if(credentialsId!=null) {
+			final Map<String, String> creds = MetaDataReader.parseJSONValues(
+				stale.timedLookup(String.format(MetaDataReader.IAM_CREDENTIAL_JSON, credentialsId), false, timings)
+			);
+			if(!creds.isEmpty()) {
+				for(String[] field: VOLATILE_CREDS_FIELDS) {
+					snapshot.put(field[1], creds.get(field[0]));
+				}
+			}
+		}
+		snapshot.set("keyTimings", JSONUtil.serializeToNode(timings));
+		return new MetaDataReader(snapshot);
+	}
+
+	/**
+	 * Renders the volatile fields of the passed snapshot for change detection
+	 * @param snapshot The snapshot
+	 * @return the rendered volatile fields
+	 */
+	private static String volatileState(final ObjectNode snapshot) {
+		final StringBuilder b = new StringBuilder().append(snapshot.path("instanceAction").textValue());
+		for(String[] field: VOLATILE_CREDS_FIELDS) {
+			b.append('|').append(snapshot.path(field[1]).textValue());
+		}
+		return b.toString();
+	}
+
+	/**
+	 * Atomically writes the passed reader to the snapshot file
+	 * @param path The snapshot file
+	 * @param reader The reader to write
+	 * @param bootTime The current host boot time
+	 */
+	private static void write(final Path path, final MetaDataReader reader, final long bootTime) {
+		Path tmp = null;
+		try {
+			final ByteArrayOutputStream baos = new ByteArrayOutputStream(8192);
+			final JsonGenerator gen = JSONUtil.jsonFactory().createGenerator(baos, JsonEncoding.UTF8);
+			gen.writeStartObject();
+			reader.writeJSONFields(gen);
+			gen.writeNumberField(JSON_KEY_BOOT_TIME, bootTime);
+			gen.writeEndObject();
+			gen.close();
+			final byte[] bytes = baos.toByteArray();
+			tmp = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+			final FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE);
+			try {
+				final ByteBuffer buff = ByteBuffer.wrap(bytes);
+				while(buff.hasRemaining()) channel.write(buff);
+				channel.force(true);
+			} finally {
+				channel.close();
+			}
+			try {
+				Files.setPosixFilePermissions(tmp, PosixFilePermissions.fromString("rw-r--r--"));
+			} catch (Exception x) {/* No Op */}
+			Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			tmp = null;
+		} catch (Exception ex) {
+			System.err.println("Failed to write meta-data snapshot [" + path + "]:" + ex);
+		} finally {
+			if(tmp!=null) try { Files.deleteIfExists(tmp); } catch (Exception x) {/* No Op */}
+		}
+	}
+
+	/**
+	 * Returns the host boot time in seconds since the epoch
+	 * @return the boot time or -1 if it cannot be determined
+	 */
+	static long bootTime() {
+		try {
+			for(String line: Files.readAllLines(new File(PROC_STAT).toPath(), MetaDataReader.UTF8)) {
+				if(line.startsWith("btime ")) {
+					return Long.parseLong(line.substring(6).trim());
+				}
+			}
+		} catch (Exception ex) {/* No Op */}
+		return -1L;
+	}
+
+	/**
+	 * Returns the instance id published by the nitro hypervisor
+	 * @return the instance id or null if not available
+	 */
+	private static String assetTag() {
+		try {
+			final String tag = new String(Files.readAllBytes(new File(ASSET_TAG).toPath()), MetaDataReader.UTF8).trim();
+			return tag.startsWith("i-") ? tag : null;
+		} catch (Exception ex) {
+			return null;
+		}
+	}
+
+	private MetaDataSnapshot() {}
+}
@@ -0,0 +1,301 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.aws.metadata;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.heliosapm.utils.lang.StringHelper;
+
+/**
+ * <p>Title: NetworkInterfaceInfo</p>
+ * <p>Description: Immutable description of one of the instance's network interfaces, read from
+ * <b><code>network/interfaces/macs/&lt;mac&gt;/</code></b></p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.aws.metadata.NetworkInterfaceInfo</code></p>
+ */
+
+public class NetworkInterfaceInfo implements Serializable {
+	/**  */
+	private static final long serialVersionUID = 4302616021849358812L;
+
+	/** The device number lookup field */
+	public static final String DEVICE_NUMBER = "device-number";
+	/** The interface id lookup field */
+	public static final String INTERFACE_ID = "interface-id";
+	/** The private v4 addresses lookup field */
+	public static final String LOCAL_IPV4S = "local-ipv4s";
+	/** The public v4 addresses lookup field */
+	public static final String PUBLIC_IPV4S = "public-ipv4s";
+	/** The v6 addresses lookup field */
+	public static final String IPV6S = "ipv6s";
+	/** The local host name lookup field */
+	public static final String LOCAL_HOSTNAME = "local-hostname";
+	/** The subnet id lookup field */
+	public static final String SUBNET_ID = "subnet-id";
+	/** The subnet v4 CIDR lookup field */
+	public static final String SUBNET_IPV4_CIDR = "subnet-ipv4-cidr-block";
+	/** The VPC id lookup field */
+	public static final String VPC_ID = "vpc-id";
+	/** The VPC v4 CIDR lookup field */
+	public static final String VPC_IPV4_CIDR = "vpc-ipv4-cidr-block";
+	/** All the lookup fields read for each interface */
+	public static final String[] FIELDS = {
+		DEVICE_NUMBER, INTERFACE_ID, LOCAL_IPV4S, PUBLIC_IPV4S, IPV6S, LOCAL_HOSTNAME,
+		SUBNET_ID, SUBNET_IPV4_CIDR, VPC_ID, VPC_IPV4_CIDR
+	};
+
+	/** The mac address */
+	private final String mac;
+	/** The device number, 0 being the primary interface, or -1 if unknown */
+	private final int deviceNumber;
+	/** The elastic network interface id */
+	private final String interfaceId;
+	/** The private v4 addresses, primary first */
+	private final String[] localIpv4s;
+	/** The public v4 addresses */
+	private final String[] publicIpv4s;
+	/** The v6 addresses */
+	private final String[] ipv6s;
+	/** The local host name */
+	private final String localHostName;
+	/** The subnet id */
+	private final String subnetId;
+	/** The subnet v4 CIDR block */
+	private final String subnetIpv4Cidr;
+	/** The VPC id */
+	private final String vpcId;
+	/** The VPC v4 CIDR block */
+	private final String vpcIpv4Cidr;
+
+	/**
+	 * Creates a new NetworkInterfaceInfo
+	 * @param mac The mac address
+	 * @param deviceNumber The device number
+	 * @param interfaceId The elastic network interface id
+	 * @param localIpv4s The private v4 addresses
+	 * @param publicIpv4s The public v4 addresses
+	 * @param ipv6s The v6 addresses
+	 * @param localHostName The local host name
+	 * @param subnetId The subnet id
+	 * @param subnetIpv4Cidr The subnet v4 CIDR block
+	 * @param vpcId The VPC id
+	 * @param vpcIpv4Cidr The VPC v4 CIDR block
+	 */
+	@JsonCreator
+	public NetworkInterfaceInfo(
+			@JsonProperty("mac") final String mac,
+			@JsonProperty("deviceNumber") final int deviceNumber,
+			@JsonProperty("interfaceId") final String interfaceId,
+			@JsonProperty("localIpv4s") final String[] localIpv4s,
+			@JsonProperty("publicIpv4s") final String[] publicIpv4s,
+			@JsonProperty("ipv6s") final String[] ipv6s,
+			@JsonProperty("localHostName") final String localHostName,
+			@JsonProperty("subnetId") final String subnetId,
+			@JsonProperty("subnetIpv4Cidr") final String subnetIpv4Cidr,
+			@JsonProperty("vpcId") final String vpcId,
+			@JsonProperty("vpcIpv4Cidr") final String vpcIpv4Cidr) {
+		this.mac = mac;
+		this.deviceNumber = deviceNumber;
+		this.interfaceId = interfaceId;
+		this.localIpv4s = localIpv4s==null ? new String[0] : localIpv4s;
+		this.publicIpv4s = publicIpv4s==null ? new String[0] : publicIpv4s;
+		this.ipv6s = ipv6s==null ? new String[0] : ipv6s;
+		this.localHostName = localHostName;
+		this.subnetId = subnetId;
+		this.subnetIpv4Cidr = subnetIpv4Cidr;
+		this.vpcId = vpcId;
+		this.vpcIpv4Cidr = vpcIpv4Cidr;
+	}
+
+	/**
+	 * Creates a new NetworkInterfaceInfo from the raw per-interface lookup values
+	 * @param mac The mac address
+	 * @param values The raw values keyed by the lookup field
+	 * @return the interface info
+	 */
+	static NetworkInterfaceInfo fromValues(final String mac, final Map<String, String> values) {
+		int deviceNumber = -1;
+		try {
+			deviceNumber = Integer.parseInt(values.get(DEVICE_NUMBER).trim());
+		} catch (Exception ex) {/* No Op */}
+		return new NetworkInterfaceInfo(mac, deviceNumber, values.get(INTERFACE_ID),
+			lines(values.get(LOCAL_IPV4S)), lines(values.get(PUBLIC_IPV4S)), lines(values.get(IPV6S)),
+			values.get(LOCAL_HOSTNAME), values.get(SUBNET_ID), values.get(SUBNET_IPV4_CIDR),
+			values.get(VPC_ID), values.get(VPC_IPV4_CIDR));
+	}
+
+	/**
+	 * Splits a multi-value lookup into its lines
+	 * @param value The raw value
+	 * @return the non-empty lines
+	 */
+	static String[] lines(final String value) {
+		if(value==null) return new String[0];
+		final List<String> lines = new ArrayList<String>();
+		for(String line: StringHelper.splitString(value, '\n')) {
+			final String s = line.trim();
+			if(!s.isEmpty()) lines.add(s.endsWith("/") ? s.substring(0, s.length()-1) : s);
+		}
+		return lines.toArray(new String[lines.size()]);
+	}
+
+	/**
+	 * Selects an interface
+	 * @param interfaces The interfaces to select from
+	 * @param selector The interface id, mac, device number or subnet id of the interface to select.
+	 * If null or empty, the secondary interface with the lowest device number is selected, or the primary if there is none.
+	 * @return the selected interface or null if there is no match
+	 */
+	public static NetworkInterfaceInfo select(final NetworkInterfaceInfo[] interfaces, final String selector) {
+		if(interfaces==null || interfaces.length==0) return null;
+		if(selector!=null && !selector.trim().isEmpty()) {
+			final String s = selector.trim();
+			for(NetworkInterfaceInfo nic: interfaces) {
+				if(s.equalsIgnoreCase(nic.interfaceId) || s.equalsIgnoreCase(nic.mac)
+						|| s.equals(Integer.toString(nic.deviceNumber)) || s.equalsIgnoreCase(nic.subnetId)) {
+					return nic;
+				}
+			}
+			return null;
+		}
+		NetworkInterfaceInfo primary = null;
+		NetworkInterfaceInfo secondary = null;
+		for(NetworkInterfaceInfo nic: interfaces) {
+			if(nic.deviceNumber==0) {
+				primary = nic;
+			} else if(nic.deviceNumber > 0 && (secondary==null || nic.deviceNumber < secondary.deviceNumber)) {
+				secondary = nic;
+			}
+		}
+		return secondary!=null ? secondary : primary;
+	}
+
+	/**
+	 * Returns the primary private v4 address
+	 * @return the primary private v4 address or null if there is none
+	 */
+	public String primaryIpv4() {
+		return localIpv4s.length==0 ? null : localIpv4s[0];
+	}
+
+	/**
+	 * Returns the first v6 address
+	 * @return the first v6 address or null if there is none
+	 */
+	public String primaryIpv6() {
+		return ipv6s.length==0 ? null : ipv6s[0];
+	}
+
+	/**
+	 * Returns the mac address
+	 * @return the mac address
+	 */
+	public String getMac() {
+		return mac;
+	}
+
+	/**
+	 * Returns the device number, 0 being the primary interface
+	 * @return the device number, or -1 if unknown
+	 */
+	public int getDeviceNumber() {
+		return deviceNumber;
+	}
+
+	/**
+	 * Returns the elastic network interface id
+	 * @return the interface id
+	 */
+	public String getInterfaceId() {
+		return interfaceId;
+	}
+
+	/**
+	 * Returns the private v4 addresses, primary first
+	 * @return the private v4 addresses
+	 */
+	public String[] getLocalIpv4s() {
+		return localIpv4s.clone();
+	}
+
+	/**
+	 * Returns the public v4 addresses
+	 * @return the public v4 addresses
+	 */
+	public String[] getPublicIpv4s() {
+		return publicIpv4s.clone();
+	}
+
+	/**
+	 * Returns the v6 addresses
+	 * @return the v6 addresses
+	 */
+	public String[] getIpv6s() {
+		return ipv6s.clone();
+	}
+
+	/**
+	 * Returns the local host name
+	 * @return the local host name
+	 */
+	public String getLocalHostName() {
+		return localHostName;
+	}
+
+	/**
+	 * Returns the subnet id
+	 * @return the subnet id
+	 */
+	public String getSubnetId() {
+		return subnetId;
+	}
+
+	/**
+	 * Returns the subnet v4 CIDR block
+	 * @return the subnet v4 CIDR block
+	 */
+	public String getSubnetIpv4Cidr() {
+		return subnetIpv4Cidr;
+	}
+
+	/**
+	 * Returns the VPC id
+	 * @return the VPC id
+	 */
+	public String getVpcId() {
+		return vpcId;
+	}
+
+	/**
+	 * Returns the VPC v4 CIDR block
+	 * @return the VPC v4 CIDR block
+	 */
+	public String getVpcIpv4Cidr() {
+		return vpcIpv4Cidr;
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuilder("NetworkInterfaceInfo [mac=").append(mac).append(", deviceNumber=").append(deviceNumber)
+			.append(", interfaceId=").append(interfaceId).append(", localIpv4s=").append(Arrays.toString(localIpv4s))
+			.append(", publicIpv4s=").append(Arrays.toString(publicIpv4s)).append(", ipv6s=").append(Arrays.toString(ipv6s))
+			.append(", subnetId=").append(subnetId).append(", vpcId=").append(vpcId).append("]").toString();
+	}
+}
@@ -0,0 +1,376 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.aws.metrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.cloudwatch.AmazonCloudWatchAsync;
+import com.amazonaws.services.cloudwatch.model.Dimension;
+import com.amazonaws.services.cloudwatch.model.MetricDatum;
+import com.amazonaws.services.cloudwatch.model.PutMetricDataRequest;
+import com.amazonaws.services.cloudwatch.model.PutMetricDataResult;
+import com.amazonaws.services.cloudwatch.model.StandardUnit;
+import com.amazonaws.services.cloudwatch.model.StatisticSet;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Sampling;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+
+/**
+ * <p>Title: CloudWatchReporter</p>
+ * <p>Description: Reports the metric registry to CloudWatch, packing the datums into full
+ * <b><code>PutMetricData</code></b> batches so the number of API calls per interval is proportional
+ * to the number of batches rather than the number of metrics. Timers and histograms are pre-aggregated
+ * into a {@link Distribution} of each interval, so the payload does not grow with the event rate. Reports
+ * are run on the shared thread pool and the batches are submitted through the async client, with the
+ * outcome of each batch passed to the supplied handler.</p>
+ * <p>A timer or histogram backed by an {@link HdrReservoir} is sent as one datum of up to
+ * {@link Distribution#MAX_VALUES} values and their counts, from which CloudWatch computes percentiles. Any other
+ * reservoir is sent as one statistic set: the default exponentially decaying reservoir's snapshot is a sample
+ * biased to roughly the last five minutes rather than the interval, so its values would misstate the
+ * interval's percentiles.</p>
+ * <p>Counters and meters are sent as the change since the last report and are skipped when unchanged, as are
+ * gauges whose value is within the dead-band of the last sent value and idle timers and histograms, so the
+ * API volume scales with activity rather than with the size of the registry. Every refresh interval a full
+ * report sends every metric.</p>
+ * <p>A metric registered under a {@link MetricId} key is sent under the identity's name, with its dimensions
+ * following the reporter's and replacing any of the same name. The combined dimensions are built once per {@link DimensionSet}.</p>
+ * <p>When a {@link MetricSpool} is supplied, batches are sent through it so failed batches are kept and replayed.</p>
+ * <p>The client runs on the shared thread pool, so it is never shut down.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.aws.metrics.CloudWatchReporter</code></p>
+ */
+
+public class CloudWatchReporter extends SharedScheduledReporter {
+	/** The maximum number of datums in one <b><code>PutMetricData</code></b> request */
+	public static final int MAX_BATCH_SIZE = 20;
+
+	/** The CloudWatch client */
+	private final AmazonCloudWatchAsync client;
+	/** The handler notified of each batch's outcome */
+	private final AsyncHandler<PutMetricDataRequest, PutMetricDataResult> handler;
+	/** The metric namespace */
+	private final String namespace;
+	/** The dimensions applied to every datum */
+	private final List<Dimension> dimensions;
+	/** The dimensions applied to every datum followed by a metric's own, keyed by the metric's interned set */
+	private final ConcurrentHashMap<DimensionSet, List<Dimension>> mergedDimensions = new ConcurrentHashMap<DimensionSet, List<Dimension>>();
+	/** The number of datums per batch */
+	private final int batchSize;
+	/** The maximum number of distinct values per timer or histogram distribution, or zero to send statistic sets only */
+	private final int maxValues;
+	/** The spool failed batches are written to, or null if batches are not spooled */
+	private final MetricSpool spool;
+	/** The relative change within which a gauge is considered unchanged */
+	private final double deadBand;
+	/** Every this many reports is a full refresh that sends every metric */
+	private final int refreshInterval;
+	/** The last sent gauge values, keyed by name */
+	private final ConcurrentHashMap<String, Double> lastGauges = new ConcurrentHashMap<String, Double>();
+	/** The number of reports run */
+	private final AtomicLong reports = new AtomicLong(0L);
+	/** The number of metrics suppressed as unchanged */
+	private final AtomicLong suppressed = new AtomicLong(0L);
+
+	/**
+	 * Creates a new CloudWatchReporter
+	 * @param registry The registry to report
+	 * @param client The CloudWatch client
+	 * @param handler The handler notified of each batch's outcome
+	 * @param namespace The metric namespace
+	 * @param dimensions The dimensions applied to every datum
+	 * @param batchSize The number of datums per batch, capped at {@link #MAX_BATCH_SIZE}
+	 * @param maxValues The maximum number of distinct values per timer or histogram distribution, capped at
+	 * {@link Distribution#MAX_VALUES}, or zero to send one statistic set per interval
+	 * @param deadBand The relative change within which a gauge is not resent, e.g. <b><code>0.01</code></b> for 1%
+	 * @param refreshInterval Every this many reports sends every metric. One or less disables suppression.
+	 * @param spool The spool batches are sent through, or null to send them directly and drop failed batches
+	 */
+	public CloudWatchReporter(final MetricRegistry registry, final AmazonCloudWatchAsync client, final AsyncHandler<PutMetricDataRequest, PutMetricDataResult> handler, final String namespace, final Collection<Dimension> dimensions, final int batchSize, final int maxValues, final double deadBand, final int refreshInterval, final MetricSpool spool) {
+		super(registry, "cloudwatch-reporter", TimeUnit.SECONDS, TimeUnit.MILLISECONDS);
+		if(client==null) throw new IllegalArgumentException("The passed client was null");
+		if(handler==null) throw new IllegalArgumentException("The passed handler was null");
+		if(namespace==null || namespace.trim().isEmpty()) throw new IllegalArgumentException("The passed namespace was null or empty");
+		this.client = client;
+		this.handler = handler;
+		this.namespace = namespace.trim();
+		this.dimensions = dimensions==null ? Collections.<Dimension>emptyList() : Collections.unmodifiableList(new ArrayList<Dimension>(dimensions));
+		this.batchSize = Math.max(1, Math.min(MAX_BATCH_SIZE, batchSize));
+		this.maxValues = Math.max(0, Math.min(Distribution.MAX_VALUES, maxValues));
+		this.deadBand = Math.max(0D, deadBand);
+		this.refreshInterval = Math.max(1, refreshInterval);
+		this.spool = spool;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.aws.metrics.SharedScheduledReporter#onReportError(java.lang.Exception)
+	 */
+	@Override
+	protected void onReportError(final Exception ex) {
+		handler.onError(ex);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.codahale.metrics.ScheduledReporter#report(java.util.SortedMap, java.util.SortedMap, java.util.SortedMap, java.util.SortedMap, java.util.SortedMap)
+	 */
+	@SuppressWarnings("rawtypes")
+	@Override
+	public void report(final SortedMap<String, Gauge> gauges, final SortedMap<String, Counter> counters, final SortedMap<String, Histogram> histograms, final SortedMap<String, Meter> meters, final SortedMap<String, Timer> timers) {
+		final Batcher batcher = new Batcher(new Date());
+		final boolean refresh = reports.getAndIncrement() % refreshInterval == 0;
+		for(Map.Entry<String, Gauge> entry: gauges.entrySet()) {
+			final Object value;
+			try {
+				value = entry.getValue().getValue();
+			} catch (Exception ex) {
+				continue;
+			}
+			if(value instanceof Number) {
+				final double v = ((Number)value).doubleValue();
+				if(!refresh) {
+					final Double prior = lastGauges.get(entry.getKey());
+					if(prior!=null && Math.abs(v - prior) <= deadBand * Math.abs(prior)) {
+						suppressed.incrementAndGet();
+						continue;
+					}
+				}
+				lastGauges.put(entry.getKey(), v);
+				batcher.add(entry.getKey(), "", v, StandardUnit.None);
+			}
+		}
+		for(Map.Entry<String, Counter> entry: counters.entrySet()) {
+			final long delta = delta(entry.getKey(), entry.getValue().getCount());
+			if(delta==0 && !refresh) {
+				suppressed.incrementAndGet();
+				continue;
+			}
+			batcher.add(entry.getKey(), "", delta, StandardUnit.Count);
+		}
+		for(Map.Entry<String, Meter> entry: meters.entrySet()) {
+			final Meter meter = entry.getValue();
+			final long delta = delta(entry.getKey(), meter.getCount());
+			if(delta==0 && !refresh) {
+				suppressed.incrementAndGet();
+				continue;
+			}
+			batcher.add(entry.getKey(), ".count", delta, StandardUnit.Count);
+			batcher.add(entry.getKey(), ".m1_rate", convertRate(meter.getOneMinuteRate()), StandardUnit.CountSecond);
+		}
+		for(Map.Entry<String, Histogram> entry: histograms.entrySet()) {
+			final Histogram histogram = entry.getValue();
+			aggregate(batcher, entry.getKey(), histogram.getCount(), histogram, 1D, StandardUnit.None);
+		}
+		for(Map.Entry<String, Timer> entry: timers.entrySet()) {
+			final Timer timer = entry.getValue();
+			aggregate(batcher, entry.getKey(), timer.getCount(), timer, convertDuration(1D), StandardUnit.Milliseconds);
+		}
+		batcher.flush();
+	}
+
+	/**
+	 * Adds the pre-aggregated interval of a timer or histogram, as one datum of its distribution's values and
+	 * counts if the snapshot covers exactly the interval, otherwise as one statistic set
+	 * @param batcher The batcher to add to
+	 * @param key The metric's registry key
+	 * @param count The cumulative event count
+	 * @param sampling The metric's snapshot source
+	 * @param scale The factor applied to each value
+	 * @param unit The unit
+	 */
+	private void aggregate(final Batcher batcher, final String key, final long count, final Sampling sampling, final double scale, final StandardUnit unit) {
+		final Snapshot snapshot = sampling.getSnapshot();
+		final Distribution distribution = interval(key, count, snapshot, Math.max(1, maxValues), scale);
+		if(distribution==null) {
+			suppressed.incrementAndGet();
+			return;
+		}
+		if(maxValues > 0 && snapshot instanceof HdrSnapshot) {
+			batcher.add(key, distribution, unit);
+		} else {
+			batcher.add(key, "", distribution.toStatisticSet(), unit);
+		}
+	}
+
+	/**
+	 * Returns the dimensions applied to every datum followed by the passed metric dimensions, which replace
+	 * any of the same name
+	 * @param metricDimensions The metric's own dimensions
+	 * @return the shared, unmodifiable dimensions
+	 */
+	private List<Dimension> dimensions(final DimensionSet metricDimensions) {
+		if(metricDimensions.isEmpty()) return dimensions;
+		List<Dimension> merged = mergedDimensions.get(metricDimensions);
+		if(merged==null) {
+			final List<Dimension> dims = new ArrayList<Dimension>(dimensions.size() + metricDimensions.size());
+			final Set<String> names = new HashSet<String>();
+			for(Dimension d: metricDimensions.getDimensions()) names.add(d.getName());
+			// a metric dimension replaces a reporter dimension of the same name, which CloudWatch would reject
+			for(Dimension d: dimensions) {
+				if(!names.contains(d.getName())) dims.add(d);
+			}
+			dims.addAll(metricDimensions.getDimensions());
+			merged = Collections.unmodifiableList(dims);
+			final List<Dimension> prior = mergedDimensions.putIfAbsent(metricDimensions, merged);
+			if(prior!=null) merged = prior;
+		}
+		return merged;
+	}
+
+	/**
+	 * Submits one batch
+	 * @param batch The datums to submit
+	 */
+	private void submit(final List<MetricDatum> batch) {
+		final PutMetricDataRequest request = new PutMetricDataRequest().withNamespace(namespace).withMetricData(batch);
+		if(spool!=null) {
+			spool.submit(request);
+			return;
+		}
+		try {
+			client.putMetricDataAsync(request, handler);
+		} catch (Exception ex) {
+			handler.onError(ex);
+		}
+	}
+
+	/**
+	 * Returns the metric namespace
+	 * @return the metric namespace
+	 */
+	public String getNamespace() {
+		return namespace;
+	}
+
+	/**
+	 * Returns the maximum number of distinct values per timer or histogram distribution
+	 * @return the maximum number of distinct values, zero if only statistic sets are sent
+	 */
+	public int getMaxValues() {
+		return maxValues;
+	}
+
+	/**
+	 * Returns the number of metrics suppressed as unchanged since the reporter was created
+	 * @return the number of suppressed metrics
+	 */
+	public long getSuppressedCount() {
+		return suppressed.get();
+	}
+
+	/**
+	 * Returns the number of datums per batch
+	 * @return the number of datums per batch
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * <p>Title: Batcher</p>
+	 * <p>Description: Accumulates the datums of one report and submits each batch as soon as it is full</p>
+	 */
+	private class Batcher {
+		/** The report timestamp */
+		private final Date timestamp;
+		/** The current batch */
+		private List<MetricDatum> batch = new ArrayList<MetricDatum>(batchSize);
+
+		Batcher(final Date timestamp) {
+			this.timestamp = timestamp;
+		}
+
+		/**
+		 * Adds a datum, skipping values CloudWatch rejects
+		 * @param key The metric's registry key
+		 * @param suffix The suffix appended to the metric name
+		 * @param value The value
+		 * @param unit The unit
+		 */
+		void add(final String key, final String suffix, final double value, final StandardUnit unit) {
+			if(Double.isNaN(value) || Double.isInfinite(value)) return;
+			add(datum(key, suffix).withValue(value).withUnit(unit));
+		}
+
+		/**
+		 * Adds a pre-aggregated datum
+		 * @param key The metric's registry key
+		 * @param suffix The suffix appended to the metric name
+		 * @param statistics The statistic set
+		 * @param unit The unit
+		 */
+		void add(final String key, final String suffix, final StatisticSet statistics, final StandardUnit unit) {
+			add(datum(key, suffix).withStatisticValues(statistics).withUnit(unit));
+		}
+
+		/**
+		 * Adds a datum of a distribution's values and counts
+		 * @param key The metric's registry key
+		 * @param distribution The distribution
+		 * @param unit The unit
+		 */
+		void add(final String key, final Distribution distribution, final StandardUnit unit) {
+			add(datum(key, "").withValues(distribution.toValueList()).withCounts(distribution.toCountList()).withUnit(unit));
+		}
+
+		/**
+		 * Starts a datum named and dimensioned by the identity registered under the passed key,
+		 * or named by the key itself if it is a plain name
+		 * @param key The metric's registry key
+		 * @param suffix The suffix appended to the metric name
+		 * @return the datum
+		 */
+		private MetricDatum datum(final String key, final String suffix) {
+			final MetricId id = MetricId.forKey(key);
+			final String name = id==null ? key : id.getName();
+			return new MetricDatum().withMetricName(suffix.isEmpty() ? name : name + suffix)
+				.withDimensions(dimensions(id==null ? DimensionSet.EMPTY : id.getDimensions())).withTimestamp(timestamp);
+		}
+
+		/**
+		 * Adds a datum, submitting the batch when it is full
+		 * @param datum The datum
+		 */
+		void add(final MetricDatum datum) {
+			batch.add(datum);
+			if(batch.size()==batchSize) flush();
+		}
+
+		/**
+		 * Submits the current batch if it is not empty
+		 */
+		void flush() {
+			if(batch.isEmpty()) return;
+			submit(batch);
+			batch = new ArrayList<MetricDatum>(batchSize);
+		}
+	}
+}
@@ -0,0 +1,204 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.aws.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.amazonaws.services.cloudwatch.model.Dimension;
+
+/**
+ * <p>Title: DimensionSet</p>
+ * <p>Description: Interned, immutable set of metric dimensions ordered by name. Equal sets are the same
+ * instance, so exporters can key per-set state by identity, and the CloudWatch dimensions and canonical key
+ * are computed once when the set is created.</p>
+ * <p>Sets are interned for the life of the JVM, so the interned sets grow with the distinct dimension
+ * combinations created, not with the number of lookups.</p>
+ * <p>The CloudWatch {@link Dimension}s returned by {@link #getDimensions()} are shared and must not be modified.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.aws.metrics.DimensionSet</code></p>
+ */
+
+public final class DimensionSet {
+	/** The interned sets, keyed by canonical key */
+	private static final ConcurrentHashMap<String, DimensionSet> interned = new ConcurrentHashMap<String, DimensionSet>();
+	/** The empty set */
+	public static final DimensionSet EMPTY = intern(new TreeMap<String, String>());
+
+	/** The dimension names in ascending order */
+	private final String[] names;
+	/** The dimension values */
+	private final String[] values;
+	/** The canonical key, e.g. <b><code>Region=us-east-1,RequestType=GetObjectRequest</code></b> */
+	private final String key;
+	/** The CloudWatch dimensions */
+	private final List<Dimension> dimensions;
+
+	/**
+	 * Returns the interned set of the passed alternating dimension names and values
+	 * @param namesAndValues The dimension names and values, e.g. <b><code>"RequestType", "GetObjectRequest"</code></b>
+	 * @return the interned set
+	 */
+	public static DimensionSet of(final String... namesAndValues) {
+		if(namesAndValues==null || namesAndValues.length==0) return EMPTY;
+		if(namesAndValues.length % 2 != 0) throw new IllegalArgumentException("Odd number of dimension names and values [" + namesAndValues.length + "]");
+		final TreeMap<String, String> sorted = new TreeMap<String, String>();
+		for(int i = 0; i < namesAndValues.length; i += 2) {
+			put(sorted, namesAndValues[i], namesAndValues[i+1]);
+		}
+		return intern(sorted);
+	}
+
+	/**
+	 * Returns the interned set of the passed dimensions
+	 * @param dimensions The dimension values keyed by name
+	 * @return the interned set
+	 */
+	public static DimensionSet of(final Map<String, String> dimensions) {
+		if(dimensions==null || dimensions.isEmpty()) return EMPTY;
+		final TreeMap<String, String> sorted = new TreeMap<String, String>();
+		for(Map.Entry<String, String> entry: dimensions.entrySet()) {
+			put(sorted, entry.getKey(), entry.getValue());
+		}
+		return intern(sorted);
+	}
+
+	/**
+	 * Returns the interned set of this set's dimensions and the passed one, which replaces a dimension of the same name
+	 * @param name The dimension name
+	 * @param value The dimension value
+	 * @return the interned set
+	 */
+	public DimensionSet with(final String name, final String value) {
+		final TreeMap<String, String> sorted = new TreeMap<String, String>();
+		for(int i = 0; i < names.length; i++) sorted.put(names[i], values[i]);
+		put(sorted, name, value);
+		return intern(sorted);
+	}
+
+	private static void put(final Map<String, String> sorted, final String name, final String value) {
+		if(name==null || name.trim().isEmpty()) throw new IllegalArgumentException("The passed dimension name was null or empty");
+		if(value==null || value.trim().isEmpty()) throw new IllegalArgumentException("The value of dimension [" + name + "] was null or empty");
+		sorted.put(name.trim(), value.trim());
+	}
+
+	/**
+	 * Returns the interned set of the passed sorted dimensions, creating it if required
+	 * @param sorted The dimension values keyed by name in ascending order
+	 * @return the interned set
+	 */
+	private static DimensionSet intern(final TreeMap<String, String> sorted) {
+		final StringBuilder b = new StringBuilder();
+		for(Map.Entry<String, String> entry: sorted.entrySet()) {
+			if(b.length() > 0) b.append(',');
+			escape(b, entry.getKey()).append('=');
+			escape(b, entry.getValue());
+		}
+		final String key = b.toString();
+		final DimensionSet set = interned.get(key);
+		if(set!=null) return set;
+		final DimensionSet created = new DimensionSet(sorted, key);
+		final DimensionSet prior = interned.putIfAbsent(key, created);
+		return prior==null ? created : prior;
+	}
+
+	/**
+	 * Appends the passed name or value, escaping the key delimiters
+	 * @param b The buffer to append to
+	 * @param s The name or value
+	 * @return the buffer
+	 */
+	private static StringBuilder escape(final StringBuilder b, final String s) {
+		for(int i = 0; i < s.length(); i++) {
+			final char c = s.charAt(i);
+			if(c==',' || c=='=' || c=='[' || c==']' || c=='\\') b.append('\\');
+			b.append(c);
+		}
+		return b;
+	}
+
+	private DimensionSet(final TreeMap<String, String> sorted, final String key) {
+		this.key = key;
+		names = new String[sorted.size()];
+		values = new String[sorted.size()];
+		final List<Dimension> dims = new ArrayList<Dimension>(sorted.size());
+		int i = 0;
+		for(Map.Entry<String, String> entry: sorted.entrySet()) {
+			names[i] = entry.getKey();
+			values[i] = entry.getValue();
+			dims.add(new Dimension().withName(names[i]).withValue(values[i]));
+			i++;
+		}
+		dimensions = Collections.unmodifiableList(dims);
+	}
+
+	/**
+	 * Returns the number of dimensions
+	 * @return the number of dimensions
+	 */
+	public int size() {
+		return names.length;
+	}
+
+	/**
+	 * Indicates if this set has no dimensions
+	 * @return true if empty
+	 */
+	public boolean isEmpty() {
+		return names.length==0;
+	}
+
+	/**
+	 * Returns the name of the dimension at the passed index
+	 * @param index The index
+	 * @return the dimension name
+	 */
+	public String getName(final int index) {
+		return names[index];
+	}
+
+	/**
+	 * Returns the value of the dimension at the passed index
+	 * @param index The index
+	 * @return the dimension value
+	 */
+	public String getValue(final int index) {
+		return values[index];
+	}
+
+	/**
+	 * Returns the CloudWatch dimensions
+	 * @return the shared, unmodifiable dimensions
+	 */
+	public List<Dimension> getDimensions() {
+		return dimensions;
+	}
+
+	/**
+	 * Returns the canonical key
+	 * @return the canonical key
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	@Override
+	public String toString() {
+		return key;
+	}
+}
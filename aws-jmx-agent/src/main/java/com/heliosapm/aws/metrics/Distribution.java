@@ -0,0 +1,266 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.aws.metrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.amazonaws.services.cloudwatch.model.StatisticSet;
+import com.codahale.metrics.Snapshot;
+
+/**
+ * <p>Title: Distribution</p>
+ * <p>Description: One interval's pre-aggregated samples as parallel values and counts arrays of at most a
+ * fixed number of distinct values, along with the interval's statistic set. The counts are scaled so they
+ * add up to the number of events in the interval, so the payload size does not grow with the event rate.</p>
+ * <p>When a snapshot has more distinct values than allowed, the sorted samples are split into equally sized
+ * groups, each represented by its mean, which keeps the percentiles of the distribution close to the snapshot's.
+ * Snapshots of an {@link HdrReservoir} are grouped by their exact recorded counts rather than by samples.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.aws.metrics.Distribution</code></p>
+ */
+
+public class Distribution {
+	/** The maximum number of distinct values CloudWatch accepts in one datum */
+	public static final int MAX_VALUES = 150;
+
+	/** The distinct values in ascending order */
+	private final double[] values;
+	/** The count of each value */
+	private final double[] counts;
+	/** The number of events in the interval */
+	private final double sampleCount;
+	/** The smallest value */
+	private final double min;
+	/** The largest value */
+	private final double max;
+	/** The sum of the values */
+	private final double sum;
+
+	/**
+	 * Aggregates the passed snapshot. An {@link HdrSnapshot} is aggregated from its exact recorded counts,
+	 * any other snapshot from its samples.
+	 * @param snapshot The snapshot of the interval's samples
+	 * @param sampleCount The number of events in the interval
+	 * @param maxValues The maximum number of distinct values, capped at {@link #MAX_VALUES}
+	 * @param scale The factor applied to each value, e.g. to convert a duration
+	 * @return the distribution or null if the snapshot or the interval is empty
+	 */
+	public static Distribution of(final Snapshot snapshot, final long sampleCount, final int maxValues, final double scale) {
+		if(sampleCount < 1) return null;
+		if(snapshot instanceof HdrSnapshot) {
+			final HdrSnapshot hdr = (HdrSnapshot)snapshot;
+			return of(hdr.getRecordedValues(), hdr.getRecordedCounts(), sampleCount, maxValues, scale);
+		}
+		final long[] samples = snapshot.getValues();
+		final long[] weights = new long[samples.length];
+		Arrays.fill(weights, 1L);
+		return of(samples, weights, sampleCount, maxValues, scale);
+	}
+
+	/**
+	 * Aggregates the passed weighted samples
+	 * @param samples The samples in ascending order
+	 * @param weights The number of occurrences of each sample
+	 * @param sampleCount The number of events in the interval
+	 * @param maxValues The maximum number of distinct values, capped at {@link #MAX_VALUES}
+	 * @param scale The factor applied to each value
+	 * @return the distribution or null if there are no samples
+	 */
+	private static Distribution of(final long[] samples, final long[] weights, final long sampleCount, final int maxValues, final double scale) {
+		final int n = samples.length;
+		long total = 0L;
+		for(int i = 0; i < n; i++) total += weights[i];
+		if(total < 1) return null;
+		final int groups = Math.max(1, Math.min(MAX_VALUES, maxValues));
+		final double[] values = new double[Math.min(groups, n)];
+		final double[] counts = new double[values.length];
+		final double weight = (double)sampleCount / total;
+		int size = 0;
+		if(distinct(samples, groups)) {
+			for(int i = 0; i < n; i++) {
+				if(i==0 || samples[i]!=samples[i-1]) {
+					values[size] = samples[i] * scale;
+					size++;
+				}
+				counts[size-1] += weights[i] * weight;
+			}
+		} else {
+			// walks the samples once, splitting a sample's weight across the groups it straddles
+			int i = 0;
+			long used = 0L;
+			for(int g = 0; g < groups; g++) {
+				final long from = g * total / groups;
+				final long to = (g + 1) * total / groups;
+				if(to==from) continue;
+				double sum = 0D;
+				long remaining = to - from;
+				while(remaining > 0) {
+					final long take = Math.min(remaining, weights[i] - used);
+					sum += (double)samples[i] * take;
+					used += take;
+					remaining -= take;
+					if(used==weights[i]) {
+						i++;
+						used = 0L;
+					}
+				}
+				final double value = sum / (to - from) * scale;
+				if(size > 0 && values[size-1]==value) {
+					counts[size-1] += (to - from) * weight;
+				} else {
+					values[size] = value;
+					counts[size] = (to - from) * weight;
+					size++;
+				}
+			}
+		}
+		return new Distribution(Arrays.copyOf(values, size), Arrays.copyOf(counts, size), sampleCount, samples[0] * scale, samples[n-1] * scale);
+	}
+
+	/**
+	 * Determines if the passed sorted samples have no more than the passed number of distinct values
+	 * @param samples The sorted samples
+	 * @param max The maximum number of distinct values
+	 * @return true if the samples have no more than max distinct values
+	 */
+	private static boolean distinct(final long[] samples, final int max) {
+		int distinct = 0;
+		for(int i = 0; i < samples.length; i++) {
+			if(i==0 || samples[i]!=samples[i-1]) {
+				distinct++;
+				if(distinct > max) return false;
+			}
+		}
+		return true;
+	}
+
+	private Distribution(final double[] values, final double[] counts, final double sampleCount, final double min, final double max) {
+		this.values = values;
+		this.counts = counts;
+		this.sampleCount = sampleCount;
+		this.min = min;
+		this.max = max;
+		double s = 0D;
+		for(int i = 0; i < values.length; i++) s += values[i] * counts[i];
+		sum = s;
+	}
+
+	/**
+	 * Returns the interval's statistic set
+	 * @return the statistic set
+	 */
+	public StatisticSet toStatisticSet() {
+		return new StatisticSet().withSampleCount(sampleCount).withMinimum(min).withMaximum(max).withSum(sum);
+	}
+
+	/**
+	 * Returns the distinct values as the values of a datum, from which CloudWatch computes percentiles
+	 * @return the values in ascending order
+	 */
+	public List<Double> toValueList() {
+		return toList(values);
+	}
+
+	/**
+	 * Returns the count of each value as the counts of a datum. They add up to the interval's sample count.
+	 * @return the counts
+	 */
+	public List<Double> toCountList() {
+		return toList(counts);
+	}
+
+	private static List<Double> toList(final double[] arr) {
+		final List<Double> list = new ArrayList<Double>(arr.length);
+		for(double d: arr) list.add(d);
+		return list;
+	}
+
+	/**
+	 * Returns the value at the passed quantile of the distribution
+	 * @param quantile The quantile, between 0 and 1
+	 * @return the value
+	 */
+	public double valueAt(final double quantile) {
+		final double rank = Math.max(0D, Math.min(1D, quantile)) * sampleCount;
+		double cumulative = 0D;
+		for(int i = 0; i < values.length; i++) {
+			cumulative += counts[i];
+			if(cumulative >= rank) return values[i];
+		}
+		return values[values.length-1];
+	}
+
+	/**
+	 * Returns the number of distinct values
+	 * @return the number of distinct values
+	 */
+	public int size() {
+		return values.length;
+	}
+
+	/**
+	 * Returns the distinct values in ascending order
+	 * @return the values
+	 */
+	public double[] getValues() {
+		return values.clone();
+	}
+
+	/**
+	 * Returns the count of each value
+	 * @return the counts
+	 */
+	public double[] getCounts() {
+		return counts.clone();
+	}
+
+	/**
+	 * Returns the number of events in the interval
+	 * @return the sample count
+	 */
+	public double getSampleCount() {
+		return sampleCount;
+	}
+
+	/**
+	 * Returns the smallest value
+	 * @return the minimum
+	 */
+	public double getMinimum() {
+		return min;
+	}
+
+	/**
+	 * Returns the largest value
+	 * @return the maximum
+	 */
+	public double getMaximum() {
+		return max;
+	}
+
+	/**
+	 * Returns the sum of the values
+	 * @return the sum
+	 */
+	public double getSum() {
+		return sum;
+	}
+
+	@Override
+	public String toString() {
+		return "Distribution [values=" + values.length + ", sampleCount=" + sampleCount + ", min=" + min + ", max=" + max + ", sum=" + sum + "]";
+	}
+}
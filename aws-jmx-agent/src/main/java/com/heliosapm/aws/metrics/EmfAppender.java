@@ -0,0 +1,262 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.aws.metrics;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.heliosapm.aws.threads.SharedThreadPoolService;
+
+/**
+ * <p>Title: EmfAppender</p>
+ * <p>Description: Asynchronous, batched appender of Embedded Metric Format lines to a rotating file.
+ * Callers only enqueue, and a single drain task on the shared thread pool writes every queued entry in one
+ * pass through a reused encoder and buffer. When the queue is full, entries are dropped rather than blocking
+ * the caller.</p>
+ * <p>When the file reaches its maximum size it is renamed to <b><code>&lt;file&gt;.1</code></b>, the previous
+ * rotations are shifted up and the oldest beyond the retained count is deleted.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.aws.metrics.EmfAppender</code></p>
+ */
+
+public class EmfAppender implements Closeable {
+	/** The file written to */
+	private final File file;
+	/** The size at which the file is rotated */
+	private final long maxFileSize;
+	/** The number of rotated files retained */
+	private final int maxFiles;
+	/** The queued entries */
+	private final ArrayBlockingQueue<String> queue;
+	/** The drained entries, reused by the drain task */
+	private final List<String> drained = new ArrayList<String>();
+	/** The encoder, reused by the drain task */
+	private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+		.onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+	/** The write buffer, reused by the drain task */
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+	/** The executor running the drain task */
+	private final ExecutorService executor = SharedThreadPoolService.getInstance().newExecutor();
+	/** Set while a drain task is scheduled or running */
+	private final AtomicBoolean draining = new AtomicBoolean(false);
+	/** The number of entries dropped with a full queue or a failed write */
+	private final AtomicLong dropped = new AtomicLong(0L);
+	/** The number of bytes written */
+	private final AtomicLong written = new AtomicLong(0L);
+	/** The drain task */
+	private final Runnable drain = new Runnable() {
+		@Override
+		public void run() {
+			try {
+				drain();
+			} finally {
+				draining.set(false);
+			}
+			// entries enqueued after the last drain but before the flag was cleared
+			if(!queue.isEmpty()) schedule();
+		}
+	};
+	/** The open file channel */
+	private FileChannel channel;
+	/** The current file size */
+	private long size;
+	/** Set once closed */
+	private volatile boolean closed = false;
+
+	/**
+	 * Creates a new EmfAppender
+	 * @param file The file to write to
+	 * @param maxFileSize The size in bytes at which the file is rotated
+	 * @param maxFiles The number of rotated files retained
+	 * @param queueSize The maximum number of queued entries
+	 * @throws IOException thrown if the file cannot be opened
+	 */
+	public EmfAppender(final File file, final long maxFileSize, final int maxFiles, final int queueSize) throws IOException {
+		if(file==null) throw new IllegalArgumentException("The passed file was null");
+		if(maxFileSize < 1024) throw new IllegalArgumentException("Invalid maximum file size [" + maxFileSize + "]");
+		this.file = file.getAbsoluteFile();
+		this.maxFileSize = maxFileSize;
+		this.maxFiles = Math.max(0, maxFiles);
+		queue = new ArrayBlockingQueue<String>(Math.max(1, queueSize));
+		final File parent = this.file.getParentFile();
+		if(parent!=null && !parent.isDirectory() && !parent.mkdirs()) throw new IOException("Failed to create directory [" + parent + "]");
+		open();
+	}
+
+	private void open() throws IOException {
+		channel = new FileOutputStream(file, true).getChannel();
+		size = channel.size();
+	}
+
+	/**
+	 * Enqueues newline terminated lines to be written
+	 * @param lines The lines
+	 * @return true if enqueued, false if the queue was full or the appender is closed
+	 */
+	public boolean append(final String lines) {
+		if(closed || !queue.offer(lines)) {
+			dropped.incrementAndGet();
+			return false;
+		}
+		schedule();
+		return true;
+	}
+
+	private void schedule() {
+		if(draining.compareAndSet(false, true)) {
+			try {
+				executor.execute(drain);
+			} catch (Exception ex) {
+				draining.set(false);
+			}
+		}
+	}
+
+	/**
+	 * Writes every queued entry
+	 */
+	private synchronized void drain() {
+		queue.drainTo(drained);
+		if(drained.isEmpty()) return;
+		if(channel==null && closed) {
+			dropped.addAndGet(drained.size());
+			drained.clear();
+			return;
+		}
+		try {
+			// reopened here if a rotation failed to open the new file
+			if(channel==null) open();
+			for(int i = 0; i < drained.size(); i++) {
+				write(drained.get(i));
+			}
+			flushBuffer();
+			if(size >= maxFileSize) rotate();
+		} catch (IOException iex) {
+			dropped.addAndGet(drained.size());
+			System.err.println("EmfAppender write to [" + file + "] failed:" + iex);
+		} finally {
+			drained.clear();
+			buffer.clear();
+			encoder.reset();
+		}
+	}
+
+	/**
+	 * Encodes one entry into the buffer, writing the buffer out whenever it fills
+	 * @param entry The entry
+	 * @throws IOException thrown on a write failure
+	 */
+	private void write(final String entry) throws IOException {
+		final CharBuffer chars = CharBuffer.wrap(entry);
+		encoder.reset();
+		while(true) {
+			final CoderResult result = encoder.encode(chars, buffer, true);
+			if(result.isOverflow()) {
+				flushBuffer();
+				continue;
+			}
+			break;
+		}
+		while(encoder.flush(buffer).isOverflow()) flushBuffer();
+	}
+
+	private void flushBuffer() throws IOException {
+		buffer.flip();
+		while(buffer.hasRemaining()) {
+			size += channel.write(buffer);
+		}
+		written.addAndGet(buffer.limit());
+		buffer.clear();
+	}
+
+	/**
+	 * Rotates the file
+	 * @throws IOException thrown if the new file cannot be opened
+	 */
+	private void rotate() throws IOException {
+		channel.close();
+		channel = null;
+		if(maxFiles==0) {
+			file.delete();
+		} else {
+			new File(file.getPath() + "." + maxFiles).delete();
+			for(int i = maxFiles - 1; i >= 1; i--) {
+				final File f = new File(file.getPath() + "." + i);
+				if(f.exists()) f.renameTo(new File(file.getPath() + "." + (i + 1)));
+			}
+			file.renameTo(new File(file.getPath() + ".1"));
+		}
+		open();
+	}
+
+	/**
+	 * Writes the queued entries and closes the file
+	 */
+	@Override
+	public synchronized void close() {
+		if(closed) return;
+		closed = true;
+		drain();
+		try {
+			if(channel!=null) channel.close();
+		} catch (IOException iex) {
+			/* No Op */
+		}
+		channel = null;
+	}
+
+	/**
+	 * Returns the number of entries dropped
+	 * @return the number of dropped entries
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	/**
+	 * Returns the number of bytes written
+	 * @return the number of bytes written
+	 */
+	public long getWrittenBytes() {
+		return written.get();
+	}
+
+	/**
+	 * Returns the file written to
+	 * @return the file
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	@Override
+	public String toString() {
+		return "EmfAppender [file=" + file + ", written=" + written.get() + ", dropped=" + dropped.get() + "]";
+	}
+}
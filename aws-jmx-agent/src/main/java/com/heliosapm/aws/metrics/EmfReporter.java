@@ -0,0 +1,302 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.aws.metrics;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Sampling;
+import com.codahale.metrics.Timer;
+
+/**
+ * <p>Title: EmfReporter</p>
+ * <p>Description: Reports the metric registry as CloudWatch Embedded Metric Format JSON lines through an
+ * {@link EmfAppender}, so a log shipper can deliver the metrics without any AWS calls from the JVM. Each line
+ * carries at most {@link #MAX_METRICS} metrics and the configured dimensions.</p>
+ * <p>Counters and meters are written as the change since the last report and skipped when unchanged. Timers
+ * and histograms are written as an array of the interval's values, one per event, along with the interval's
+ * event count and sum as <b><code>&lt;name&gt;.count</code></b> and <b><code>&lt;name&gt;.sum</code></b>. An
+ * interval of more than {@link #QUANTILES} events, the most EMF accepts in one array, is written as that many
+ * evenly spaced quantiles of its {@link Distribution}, which keeps the percentiles CloudWatch computes from them,
+ * so the array's SampleCount and Sum are then those of the quantiles rather than the events', and the
+ * <b><code>.count</code></b> and <b><code>.sum</code></b> metrics are the ones to use. The values are exact for
+ * an {@link HdrReservoir}, while any other reservoir's are drawn from its sample.</p>
+ * <p>Metrics registered under a {@link MetricId} key are written under the identity's name on lines of their
+ * own {@link DimensionSet}, whose dimensions are added to the configured ones and replace any of the same name.</p>
+ * <p>The lines of a report are built in buffers reused per dimension set and handed to the appender as one entry.
+ * The buffers of a dimension set with no metrics in a report are dropped.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.aws.metrics.EmfReporter</code></p>
+ */
+
+public class EmfReporter extends SharedScheduledReporter {
+	/** The maximum number of metrics in one EMF directive */
+	public static final int MAX_METRICS = 100;
+	/** The number of values written for a timer or histogram, the maximum EMF accepts for one metric */
+	public static final int QUANTILES = 100;
+
+	/** The appender the lines are written to */
+	private final EmfAppender appender;
+	/** The JSON quoted metric namespace */
+	private final String namespace;
+	/** The dimensions added to every line */
+	private final Map<String, String> dimensions = new LinkedHashMap<String, String>();
+	/** The lines being built, keyed by interned dimension set */
+	private final Map<DimensionSet, Line> lines = new LinkedHashMap<DimensionSet, Line>();
+	/** The report being built */
+	private final StringBuilder report = new StringBuilder(8192);
+	/** The timestamp of the report being built */
+	private long timestamp = 0L;
+
+	/**
+	 * Creates a new EmfReporter
+	 * @param registry The registry to report
+	 * @param appender The appender the lines are written to
+	 * @param namespace The metric namespace
+	 * @param dimensions The dimension names and values added to every line
+	 */
+	public EmfReporter(final MetricRegistry registry, final EmfAppender appender, final String namespace, final Map<String, String> dimensions) {
+		super(registry, "emf-reporter", TimeUnit.SECONDS, TimeUnit.MILLISECONDS);
+		if(appender==null) throw new IllegalArgumentException("The passed appender was null");
+		if(namespace==null || namespace.trim().isEmpty()) throw new IllegalArgumentException("The passed namespace was null or empty");
+		this.appender = appender;
+		this.namespace = quote(new StringBuilder(), namespace.trim()).toString();
+		if(dimensions!=null) {
+			for(Map.Entry<String, String> entry: dimensions.entrySet()) {
+				if(entry.getKey()==null || entry.getValue()==null) continue;
+				this.dimensions.put(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.aws.metrics.SharedScheduledReporter#onReportError(java.lang.Exception)
+	 */
+	@Override
+	protected void onReportError(final Exception ex) {
+		System.err.println("EmfReporter error:" + ex);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.codahale.metrics.ScheduledReporter#report(java.util.SortedMap, java.util.SortedMap, java.util.SortedMap, java.util.SortedMap, java.util.SortedMap)
+	 */
+	@SuppressWarnings("rawtypes")
+	@Override
+	public synchronized void report(final SortedMap<String, Gauge> gauges, final SortedMap<String, Counter> counters, final SortedMap<String, Histogram> histograms, final SortedMap<String, Meter> meters, final SortedMap<String, Timer> timers) {
+		report.setLength(0);
+		timestamp = System.currentTimeMillis();
+		for(Map.Entry<String, Gauge> entry: gauges.entrySet()) {
+			final Object value;
+			try {
+				value = entry.getValue().getValue();
+			} catch (Exception ex) {
+				continue;
+			}
+			if(value instanceof Number) {
+				final double v = ((Number)value).doubleValue();
+				if(finite(v)) metric(entry.getKey(), "", "None").append(v);
+			}
+		}
+		for(Map.Entry<String, Counter> entry: counters.entrySet()) {
+			final long delta = delta(entry.getKey(), entry.getValue().getCount());
+			if(delta!=0) metric(entry.getKey(), "", "Count").append(delta);
+		}
+		for(Map.Entry<String, Meter> entry: meters.entrySet()) {
+			final long delta = delta(entry.getKey(), entry.getValue().getCount());
+			if(delta!=0) metric(entry.getKey(), ".count", "Count").append(delta);
+		}
+		for(Map.Entry<String, Histogram> entry: histograms.entrySet()) {
+			distribution(entry.getKey(), entry.getValue().getCount(), entry.getValue(), 1D, "None");
+		}
+		for(Map.Entry<String, Timer> entry: timers.entrySet()) {
+			distribution(entry.getKey(), entry.getValue().getCount(), entry.getValue(), convertDuration(1D), "Milliseconds");
+		}
+		for(Iterator<Line> iter = lines.values().iterator(); iter.hasNext();) {
+			final Line line = iter.next();
+			if(!line.used) {
+				iter.remove();
+				continue;
+			}
+			line.end();
+			line.used = false;
+		}
+		if(report.length() > 0) appender.append(report.toString());
+	}
+
+	/**
+	 * Writes a timer or histogram's interval as one value per event, or as {@link #QUANTILES} evenly spaced
+	 * quantiles if there are more events, and its event count and sum
+	 * @param key The metric's registry key
+	 * @param count The cumulative event count
+	 * @param sampling The metric's snapshot source
+	 * @param scale The factor applied to each value
+	 * @param unit The unit
+	 */
+	private void distribution(final String key, final long count, final Sampling sampling, final double scale, final String unit) {
+		final Distribution distribution = interval(key, count, sampling.getSnapshot(), Distribution.MAX_VALUES, scale);
+		if(distribution==null) return;
+		final long events = (long)distribution.getSampleCount();
+		metric(key, ".count", "Count").append(events);
+		metric(key, ".sum", unit).append(distribution.getSum());
+		// with no more events than quantiles, the quantile at each event's rank is that event's value
+		final int n = (int)Math.min(events, QUANTILES);
+		final StringBuilder b = metric(key, "", unit).append('[');
+		for(int i = 0; i < n; i++) {
+			if(i > 0) b.append(',');
+			b.append(distribution.valueAt((i + 0.5D) / n));
+		}
+		b.append(']');
+	}
+
+	/**
+	 * Adds a metric definition to the line of the metric's dimension set, starting a new line when it is full
+	 * @param key The metric's registry key, a {@link MetricId} key or a plain name
+	 * @param suffix The suffix appended to the metric name
+	 * @param unit The unit
+	 * @return the members buffer to append the value to
+	 */
+	private StringBuilder metric(final String key, final String suffix, final String unit) {
+		final MetricId id = MetricId.forKey(key);
+		final DimensionSet dimensions = id==null ? DimensionSet.EMPTY : id.getDimensions();
+		Line line = lines.get(dimensions);
+		if(line==null) {
+			line = new Line(dimensions);
+			lines.put(dimensions, line);
+		}
+		return line.metric(id==null ? key : id.getName(), suffix, unit);
+	}
+
+	/**
+	 * <p>Title: Line</p>
+	 * <p>Description: The line being built for one dimension set, with the set's dimensions rendered once</p>
+	 */
+	private class Line {
+		/** The dimension set, rendered once */
+		private final String dimensionKeys;
+		/** The dimension members, rendered once */
+		private final String dimensionValues;
+		/** The metric definitions of the line being built */
+		private final StringBuilder definitions = new StringBuilder(4096);
+		/** The metric members of the line being built */
+		private final StringBuilder members = new StringBuilder(4096);
+		/** The number of metrics in the line being built */
+		private int lineMetrics = 0;
+		/** Indicates if a metric was added in the current report */
+		private boolean used = false;
+
+		Line(final DimensionSet metricDimensions) {
+			final Map<String, String> merged = new LinkedHashMap<String, String>(dimensions);
+			for(int i = 0; i < metricDimensions.size(); i++) {
+				merged.remove(metricDimensions.getName(i));
+				merged.put(metricDimensions.getName(i), metricDimensions.getValue(i));
+			}
+			final StringBuilder keys = new StringBuilder("[");
+			final StringBuilder values = new StringBuilder();
+			for(Map.Entry<String, String> entry: merged.entrySet()) {
+				if(keys.length() > 1) keys.append(',');
+				quote(keys, entry.getKey());
+				quote(values.append(','), entry.getKey()).append(':');
+				quote(values, entry.getValue());
+			}
+			dimensionKeys = keys.append(']').toString();
+			dimensionValues = values.toString();
+		}
+
+		/**
+		 * Adds a metric definition, starting a new line when it is full
+		 * @param name The metric name
+		 * @param suffix The suffix appended to the metric name
+		 * @param unit The unit
+		 * @return the members buffer to append the value to
+		 */
+		StringBuilder metric(final String name, final String suffix, final String unit) {
+			used = true;
+			if(lineMetrics==MAX_METRICS) end();
+			if(lineMetrics > 0) definitions.append(',');
+			quote(definitions.append("{\"Name\":"), name, suffix).append(",\"Unit\":\"").append(unit).append("\"}");
+			quote(members.append(','), name, suffix).append(':');
+			lineMetrics++;
+			return members;
+		}
+
+		/**
+		 * Appends the line to the report
+		 */
+		void end() {
+			if(lineMetrics==0) return;
+			report.append("{\"_aws\":{\"Timestamp\":").append(timestamp)
+				.append(",\"CloudWatchMetrics\":[{\"Namespace\":").append(namespace)
+				.append(",\"Dimensions\":[").append(dimensionKeys)
+				.append("],\"Metrics\":[").append(definitions).append("]}]}")
+				.append(dimensionValues).append(members).append("}\n");
+			definitions.setLength(0);
+			members.setLength(0);
+			lineMetrics = 0;
+		}
+	}
+
+	private static boolean finite(final double v) {
+		return !Double.isNaN(v) && !Double.isInfinite(v);
+	}
+
+	/**
+	 * Appends the passed value as a JSON string
+	 * @param b The buffer to append to
+	 * @param value The value
+	 * @return the buffer
+	 */
+	static StringBuilder quote(final StringBuilder b, final String value) {
+		return quote(b, value, "");
+	}
+
+	/**
+	 * Appends the passed value and suffix as one JSON string
+	 * @param b The buffer to append to
+	 * @param value The value
+	 * @param suffix The suffix, which is not escaped
+	 * @return the buffer
+	 */
+	private static StringBuilder quote(final StringBuilder b, final String value, final String suffix) {
+		b.append('"');
+		for(int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			if(c=='"' || c=='\\') {
+				b.append('\\').append(c);
+			} else if(c < 0x20) {
+				b.append(String.format("\\u%04x", (int)c));
+			} else {
+				b.append(c);
+			}
+		}
+		return b.append(suffix).append('"');
+	}
+
+	/**
+	 * Returns the appender the lines are written to
+	 * @return the appender
+	 */
+	public EmfAppender getAppender() {
+		return appender;
+	}
+}
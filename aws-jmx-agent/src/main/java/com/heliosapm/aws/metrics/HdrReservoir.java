@@ -0,0 +1,187 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.aws.metrics;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.HdrHistogram.Recorder;
+
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+import com.heliosapm.aws.threads.SharedThreadPoolService;
+
+/**
+ * <p>Title: HdrReservoir</p>
+ * <p>Description: Reservoir backed by an HDR {@link Recorder}, which records values without locks and swaps
+ * in a fresh histogram when the interval is rotated, so every snapshot covers exactly one interval's values
+ * rather than a decaying sample of them.</p>
+ * <p>Intervals are aligned to the clock. The reservoirs of each interval length are rotated together by one task
+ * on the shared scheduler at each interval boundary, and {@link #getSnapshot()} only returns the snapshot of the
+ * last completed interval, so the CloudWatch and EMF reporters and JMX reads all see the same values and reads
+ * never contend with each other. A reservoir that is no longer referenced is dropped from its rotation.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.aws.metrics.HdrReservoir</code></p>
+ */
+
+public class HdrReservoir implements Reservoir {
+	/** The default number of significant value digits */
+	public static final int DEFAULT_SIGNIFICANT_DIGITS = 2;
+	/** The rotations keyed by interval length in ms. */
+	private static final ConcurrentHashMap<Long, Rotation> rotations = new ConcurrentHashMap<Long, Rotation>();
+
+	/** The recorder the values are written to */
+	private final Recorder recorder;
+	/** The snapshot of the last completed interval */
+	private volatile HdrSnapshot snapshot;
+
+	/**
+	 * Creates a new HdrReservoir
+	 * @param interval The interval length
+	 * @param unit The interval unit
+	 * @param significantDigits The number of significant value digits, between 0 and 5
+	 */
+	public HdrReservoir(final long interval, final TimeUnit unit, final int significantDigits) {
+		if(interval < 1) throw new IllegalArgumentException("Invalid interval [" + interval + "]");
+		if(unit==null) throw new IllegalArgumentException("The passed unit was null");
+		recorder = new Recorder(significantDigits);
+		snapshot = new HdrSnapshot(recorder.getIntervalHistogram());
+		rotation(Math.max(1L, unit.toMillis(interval))).add(this);
+	}
+
+	/**
+	 * Creates a new HdrReservoir with {@link #DEFAULT_SIGNIFICANT_DIGITS} significant digits
+	 * @param interval The interval length
+	 * @param unit The interval unit
+	 */
+	public HdrReservoir(final long interval, final TimeUnit unit) {
+		this(interval, unit, DEFAULT_SIGNIFICANT_DIGITS);
+	}
+
+	/**
+	 * Returns the rotation of the passed interval length, starting it if required
+	 * @param interval The interval length in ms.
+	 * @return the rotation
+	 */
+	private static Rotation rotation(final long interval) {
+		Rotation rotation = rotations.get(interval);
+		if(rotation==null) {
+			synchronized(rotations) {
+				rotation = rotations.get(interval);
+				if(rotation==null) {
+					rotation = new Rotation(interval);
+					rotations.put(interval, rotation);
+				}
+			}
+		}
+		return rotation;
+	}
+
+	/**
+	 * Returns the number of values recorded in the last completed interval
+	 * @see com.codahale.metrics.Reservoir#size()
+	 */
+	@Override
+	public int size() {
+		return snapshot.size();
+	}
+
+	/**
+	 * Records a value. Negative values are recorded as zero.
+	 * @see com.codahale.metrics.Reservoir#update(long)
+	 */
+	@Override
+	public void update(final long value) {
+		recorder.recordValue(value < 0L ? 0L : value);
+	}
+
+	/**
+	 * Returns the snapshot of the last completed interval
+	 * @see com.codahale.metrics.Reservoir#getSnapshot()
+	 */
+	@Override
+	public Snapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Completes the current interval, replacing the snapshot with its values
+	 */
+	void rotate() {
+		// the retained histogram backs the snapshot, so it is not recycled into the recorder
+		snapshot = new HdrSnapshot(recorder.getIntervalHistogram());
+	}
+
+	/**
+	 * <p>Title: Rotation</p>
+	 * <p>Description: Rotates the reservoirs of one interval length at each interval boundary. The scheduler
+	 * hands the rotation off to the shared thread pool, and a rotation still running at the next boundary
+	 * delays it rather than overlapping.</p>
+	 */
+	private static class Rotation implements Runnable {
+		/** The rotated reservoirs, held weakly */
+		private final Set<HdrReservoir> reservoirs = Collections.newSetFromMap(new WeakHashMap<HdrReservoir, Boolean>());
+		/** Guards against overlapping rotations */
+		private final AtomicBoolean rotating = new AtomicBoolean(false);
+		/** The executor rotations run on */
+		private final ExecutorService executor = SharedThreadPoolService.getInstance().newExecutor();
+
+		/**
+		 * Creates a new Rotation and schedules it at each boundary of the passed interval
+		 * @param interval The interval length in ms.
+		 */
+		Rotation(final long interval) {
+			SharedThreadPoolService.getInstance().getScheduler().scheduleAtFixedRate(new Runnable() {
+				@Override
+				public void run() {
+					if(rotating.compareAndSet(false, true)) {
+						try {
+							executor.execute(Rotation.this);
+						} catch (Exception ex) {
+							rotating.set(false);
+						}
+					}
+				}
+			}, interval - System.currentTimeMillis() % interval, interval, TimeUnit.MILLISECONDS);
+		}
+
+		/**
+		 * Adds a reservoir to the rotation
+		 * @param reservoir The reservoir
+		 */
+		synchronized void add(final HdrReservoir reservoir) {
+			reservoirs.add(reservoir);
+		}
+
+		@Override
+		public void run() {
+			try {
+				final HdrReservoir[] rotated;
+				synchronized(this) {
+					rotated = reservoirs.toArray(new HdrReservoir[0]);
+				}
+				for(HdrReservoir reservoir: rotated) {
+					reservoir.rotate();
+				}
+			} finally {
+				rotating.set(false);
+			}
+		}
+	}
+}
@@ -0,0 +1,168 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.aws.metrics;
+
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramIterationValue;
+
+import com.codahale.metrics.Snapshot;
+
+/**
+ * <p>Title: HdrSnapshot</p>
+ * <p>Description: Snapshot of one interval of an {@link HdrReservoir}. Percentiles are read from the
+ * histogram, and the recorded values and their counts are kept so a {@link Distribution} can be built
+ * from the exact counts. {@link #getValues()} expands the counts up to {@link #MAX_VALUES} values and
+ * beyond that returns evenly spaced percentiles, so a busy interval does not allocate one slot per event.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.aws.metrics.HdrSnapshot</code></p>
+ */
+
+public class HdrSnapshot extends Snapshot {
+	/** The maximum number of values returned by {@link #getValues()}, the size of the default reservoir */
+	public static final int MAX_VALUES = 1028;
+
+	/** The interval's histogram */
+	private final Histogram histogram;
+	/** The distinct recorded values in ascending order */
+	private final long[] values;
+	/** The count of each recorded value */
+	private final long[] counts;
+
+	/**
+	 * Creates a new HdrSnapshot
+	 * @param histogram The interval's histogram
+	 */
+	HdrSnapshot(final Histogram histogram) {
+		this.histogram = histogram;
+		long[] v = new long[16];
+		long[] c = new long[16];
+		int size = 0;
+		for(HistogramIterationValue hiv: histogram.recordedValues()) {
+			if(size==v.length) {
+				v = Arrays.copyOf(v, size * 2);
+				c = Arrays.copyOf(c, size * 2);
+			}
+			v[size] = hiv.getValueIteratedTo();
+			c[size] = hiv.getCountAtValueIteratedTo();
+			size++;
+		}
+		values = Arrays.copyOf(v, size);
+		counts = Arrays.copyOf(c, size);
+	}
+
+	/**
+	 * Returns the distinct recorded values in ascending order
+	 * @return the values
+	 */
+	long[] getRecordedValues() {
+		return values;
+	}
+
+	/**
+	 * Returns the count of each recorded value
+	 * @return the counts
+	 */
+	long[] getRecordedCounts() {
+		return counts;
+	}
+
+	/**
+	 * Returns the time the interval ended, which identifies it among the reservoir's intervals
+	 * @return the end time in ms.
+	 */
+	public long getEndTime() {
+		return histogram.getEndTimeStamp();
+	}
+
+	/**
+	 * Returns the number of values recorded in the interval
+	 * @return the total count
+	 */
+	public long getTotalCount() {
+		return histogram.getTotalCount();
+	}
+
+	@Override
+	public double getValue(final double quantile) {
+		if(quantile < 0D || quantile > 1D || Double.isNaN(quantile)) throw new IllegalArgumentException(quantile + " is not in [0..1]");
+		if(histogram.getTotalCount()==0) return 0D;
+		return histogram.getValueAtPercentile(quantile * 100D);
+	}
+
+	@Override
+	public long[] getValues() {
+		final long total = histogram.getTotalCount();
+		if(total <= MAX_VALUES) {
+			final long[] all = new long[(int)total];
+			int index = 0;
+			for(int i = 0; i < values.length; i++) {
+				for(long k = 0; k < counts[i]; k++) all[index++] = values[i];
+			}
+			return all;
+		}
+		final long[] sampled = new long[MAX_VALUES];
+		for(int i = 0; i < MAX_VALUES; i++) {
+			sampled[i] = histogram.getValueAtPercentile((i + 0.5D) * 100D / MAX_VALUES);
+		}
+		return sampled;
+	}
+
+	@Override
+	public int size() {
+		return (int)Math.min(Integer.MAX_VALUE, histogram.getTotalCount());
+	}
+
+	@Override
+	public long getMax() {
+		return values.length==0 ? 0L : histogram.getMaxValue();
+	}
+
+	@Override
+	public double getMean() {
+		return values.length==0 ? 0D : histogram.getMean();
+	}
+
+	@Override
+	public long getMin() {
+		return values.length==0 ? 0L : histogram.getMinValue();
+	}
+
+	@Override
+	public double getStdDev() {
+		return values.length < 2 ? 0D : histogram.getStdDeviation();
+	}
+
+	@Override
+	public void dump(final OutputStream output) {
+		final PrintWriter out = new PrintWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+		try {
+			for(int i = 0; i < values.length; i++) {
+				out.printf("%d,%d%n", values[i], counts[i]);
+			}
+		} finally {
+			out.flush();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "HdrSnapshot [count=" + histogram.getTotalCount() + ", values=" + values.length + "]";
+	}
+}
@@ -0,0 +1,334 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.aws.metrics;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.CompilationMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryUsage;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.heliosapm.aws.threads.SharedThreadPoolService;
+
+/**
+ * <p>Title: JvmHarvester</p>
+ * <p>Description: Samples the platform MXBeans at a fixed rate on the shared thread pool and publishes
+ * GC, memory, memory pool, buffer pool, thread, class loading, compilation and process CPU metrics to a
+ * registry, so they reach whichever exporters report it. Per collector, pool and thread state metrics are
+ * registered as {@link MetricId}s with the collector, pool or state as a dimension.</p>
+ * <p>Cumulative platform counts, such as collections, GC time and compilation time, are published as
+ * counters incremented by the change since the last sample. Levels are published as gauges holding the
+ * last sample.</p>
+ * <p>The process CPU load is published in percent of the available processors, derived from the process
+ * CPU time between samples.</p>
+ * <p>The MXBeans, gauges, counters and last values are resolved once, so a sample allocates nothing beyond
+ * the value objects the platform returns, the {@link MemoryUsage}s and the thread state {@link ThreadInfo}s.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.aws.metrics.JvmHarvester</code></p>
+ */
+
+public class JvmHarvester {
+	/** The thread states, cached since {@link Thread.State#values()} returns a new array */
+	private static final Thread.State[] STATES = Thread.State.values();
+
+	/** The memory MXBean */
+	private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+	/** The thread MXBean */
+	private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	/** The class loading MXBean */
+	private final ClassLoadingMXBean classLoading = ManagementFactory.getClassLoadingMXBean();
+	/** The compilation MXBean, null if the JVM has no compiler or does not time it */
+	private final CompilationMXBean compilation;
+	/** The extended operating system MXBean, null if not available */
+	private final com.sun.management.OperatingSystemMXBean os;
+	/** The garbage collector MXBeans */
+	private final GarbageCollectorMXBean[] collectors;
+	/** The memory pool MXBeans */
+	private final MemoryPoolMXBean[] pools;
+	/** The buffer pool MXBeans */
+	private final BufferPoolMXBean[] buffers;
+
+	private final Counter[] gcCounts;
+	private final Counter[] gcTimes;
+	private final long[] lastGcCounts;
+	private final long[] lastGcTimes;
+	private final LongGauge[] poolUsed;
+	private final LongGauge[] poolCommitted;
+	private final LongGauge[] bufferCounts;
+	private final LongGauge[] bufferUsed;
+	private final LongGauge[] bufferCapacity;
+	private final LongGauge heapUsed;
+	private final LongGauge heapCommitted;
+	private final LongGauge nonHeapUsed;
+	private final LongGauge nonHeapCommitted;
+	private final LongGauge threadCount;
+	private final LongGauge daemonThreadCount;
+	private final LongGauge peakThreadCount;
+	/** The thread count gauge of each thread state, indexed by ordinal */
+	private final LongGauge[] stateCounts;
+	/** The thread counts of each state, reused by each sample */
+	private final long[] stateTally = new long[STATES.length];
+	private final LongGauge loadedClasses;
+	private final Counter classesLoaded;
+	private final Counter classesUnloaded;
+	private final Counter compilationTime;
+	private final LongGauge cpuLoad;
+	private final Counter cpuTime;
+	private long lastClassesLoaded;
+	private long lastClassesUnloaded;
+	private long lastCompilationTime;
+	private long lastCpuTime;
+	/** The process CPU time in ns. at the last sample */
+	private long lastCpuNanos;
+	/** The time of the last sample in ns. */
+	private long lastSampleNanos;
+	/** The number of processors the CPU load is relative to */
+	private final int processors = Runtime.getRuntime().availableProcessors();
+
+	/** The executor samples run on */
+	private final ExecutorService executor = SharedThreadPoolService.getInstance().newExecutor();
+	/** Guards against overlapping samples */
+	private final AtomicBoolean sampling = new AtomicBoolean(false);
+	/** Takes a sample */
+	private final Runnable sample = new Runnable() {
+		@Override
+		public void run() {
+			try {
+				sample();
+			} catch (Exception ex) {
+				System.err.println("JvmHarvester sample failed:" + ex);
+			} finally {
+				sampling.set(false);
+			}
+		}
+	};
+	/** Hands a sample off to the executor unless one is running */
+	private final Runnable tick = new Runnable() {
+		@Override
+		public void run() {
+			if(sampling.compareAndSet(false, true)) {
+				try {
+					executor.execute(sample);
+				} catch (Exception ex) {
+					sampling.set(false);
+				}
+			}
+		}
+	};
+	/** The scheduled sampling handle */
+	private ScheduledFuture<?> handle = null;
+
+	/**
+	 * Creates a new JvmHarvester and registers its metrics
+	 * @param registry The registry to publish to
+	 */
+	public JvmHarvester(final MetricRegistry registry) {
+		final CompilationMXBean c = ManagementFactory.getCompilationMXBean();
+		compilation = c!=null && c.isCompilationTimeMonitoringSupported() ? c : null;
+		final OperatingSystemMXBean o = ManagementFactory.getOperatingSystemMXBean();
+		os = o instanceof com.sun.management.OperatingSystemMXBean ? (com.sun.management.OperatingSystemMXBean)o : null;
+		collectors = ManagementFactory.getGarbageCollectorMXBeans().toArray(new GarbageCollectorMXBean[0]);
+		pools = ManagementFactory.getMemoryPoolMXBeans().toArray(new MemoryPoolMXBean[0]);
+		final List<BufferPoolMXBean> bufferPools = ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class);
+		buffers = bufferPools.toArray(new BufferPoolMXBean[0]);
+
+		gcCounts = new Counter[collectors.length];
+		gcTimes = new Counter[collectors.length];
+		lastGcCounts = new long[collectors.length];
+		lastGcTimes = new long[collectors.length];
+		for(int i = 0; i < collectors.length; i++) {
+			final String name = collectors[i].getName();
+			gcCounts[i] = register(registry, MetricId.of("jvm.gc.count", "Collector", name), new Counter());
+			gcTimes[i] = register(registry, MetricId.of("jvm.gc.time", "Collector", name), new Counter());
+		}
+		poolUsed = new LongGauge[pools.length];
+		poolCommitted = new LongGauge[pools.length];
+		for(int i = 0; i < pools.length; i++) {
+			final String name = pools[i].getName();
+			poolUsed[i] = register(registry, MetricId.of("jvm.memory.pool.used", "Pool", name), new LongGauge());
+			poolCommitted[i] = register(registry, MetricId.of("jvm.memory.pool.committed", "Pool", name), new LongGauge());
+		}
+		bufferCounts = new LongGauge[buffers.length];
+		bufferUsed = new LongGauge[buffers.length];
+		bufferCapacity = new LongGauge[buffers.length];
+		for(int i = 0; i < buffers.length; i++) {
+			final String name = buffers[i].getName();
+			bufferCounts[i] = register(registry, MetricId.of("jvm.buffers.count", "BufferPool", name), new LongGauge());
+			bufferUsed[i] = register(registry, MetricId.of("jvm.buffers.used", "BufferPool", name), new LongGauge());
+			bufferCapacity[i] = register(registry, MetricId.of("jvm.buffers.capacity", "BufferPool", name), new LongGauge());
+		}
+		heapUsed = register(registry, MetricId.of("jvm.memory.heap.used"), new LongGauge());
+		heapCommitted = register(registry, MetricId.of("jvm.memory.heap.committed"), new LongGauge());
+		nonHeapUsed = register(registry, MetricId.of("jvm.memory.nonheap.used"), new LongGauge());
+		nonHeapCommitted = register(registry, MetricId.of("jvm.memory.nonheap.committed"), new LongGauge());
+		threadCount = register(registry, MetricId.of("jvm.threads.count"), new LongGauge());
+		daemonThreadCount = register(registry, MetricId.of("jvm.threads.daemon"), new LongGauge());
+		peakThreadCount = register(registry, MetricId.of("jvm.threads.peak"), new LongGauge());
+		stateCounts = new LongGauge[STATES.length];
+		for(int i = 0; i < STATES.length; i++) {
+			stateCounts[i] = register(registry, MetricId.of("jvm.threads.state", "State", STATES[i].name()), new LongGauge());
+		}
+		loadedClasses = register(registry, MetricId.of("jvm.classes.loaded"), new LongGauge());
+		classesLoaded = register(registry, MetricId.of("jvm.classes.loads"), new Counter());
+		classesUnloaded = register(registry, MetricId.of("jvm.classes.unloads"), new Counter());
+		compilationTime = compilation==null ? null : register(registry, MetricId.of("jvm.compilation.time"), new Counter());
+		cpuLoad = os==null ? null : register(registry, MetricId.of("jvm.cpu.load"), new LongGauge());
+		cpuTime = os==null ? null : register(registry, MetricId.of("jvm.cpu.time"), new Counter());
+	}
+
+	/**
+	 * Registers the passed metric, returning the metric already registered under the key if it is of the same type
+	 * @param registry The registry
+	 * @param id The metric identity
+	 * @param metric The metric
+	 * @return the registered metric
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T extends Metric> T register(final MetricRegistry registry, final MetricId id, final T metric) {
+		try {
+			return registry.register(id.getKey(), metric);
+		} catch (IllegalArgumentException iae) {
+			final Metric existing = registry.getMetrics().get(id.getKey());
+			if(existing!=null && existing.getClass()==metric.getClass()) return (T)existing;
+			throw iae;
+		}
+	}
+
+	/**
+	 * Starts sampling at the passed fixed rate. Subsequent calls are ignored.
+	 * @param period The sampling period
+	 * @param unit The period unit
+	 * @return this harvester
+	 */
+	public synchronized JvmHarvester start(final long period, final TimeUnit unit) {
+		if(handle==null) {
+			handle = SharedThreadPoolService.getInstance().getScheduler().scheduleAtFixedRate(tick, 0L, period, unit);
+		}
+		return this;
+	}
+
+	/**
+	 * Stops sampling
+	 */
+	public synchronized void stop() {
+		if(handle!=null) {
+			handle.cancel(false);
+			handle = null;
+		}
+	}
+
+	/**
+	 * Takes one sample
+	 */
+	void sample() {
+		for(int i = 0; i < collectors.length; i++) {
+			lastGcCounts[i] = increment(gcCounts[i], lastGcCounts[i], collectors[i].getCollectionCount());
+			lastGcTimes[i] = increment(gcTimes[i], lastGcTimes[i], collectors[i].getCollectionTime());
+		}
+		for(int i = 0; i < pools.length; i++) {
+			final MemoryUsage usage = pools[i].getUsage();
+			if(usage==null) continue;
+			poolUsed[i].value = usage.getUsed();
+			poolCommitted[i].value = usage.getCommitted();
+		}
+		for(int i = 0; i < buffers.length; i++) {
+			bufferCounts[i].value = buffers[i].getCount();
+			bufferUsed[i].value = buffers[i].getMemoryUsed();
+			bufferCapacity[i].value = buffers[i].getTotalCapacity();
+		}
+		final MemoryUsage heap = memory.getHeapMemoryUsage();
+		heapUsed.value = heap.getUsed();
+		heapCommitted.value = heap.getCommitted();
+		final MemoryUsage nonHeap = memory.getNonHeapMemoryUsage();
+		nonHeapUsed.value = nonHeap.getUsed();
+		nonHeapCommitted.value = nonHeap.getCommitted();
+		threadCount.value = threads.getThreadCount();
+		daemonThreadCount.value = threads.getDaemonThreadCount();
+		peakThreadCount.value = threads.getPeakThreadCount();
+		sampleThreadStates();
+		loadedClasses.value = classLoading.getLoadedClassCount();
+		lastClassesLoaded = increment(classesLoaded, lastClassesLoaded, classLoading.getTotalLoadedClassCount());
+		lastClassesUnloaded = increment(classesUnloaded, lastClassesUnloaded, classLoading.getUnloadedClassCount());
+		if(compilation!=null) {
+			lastCompilationTime = increment(compilationTime, lastCompilationTime, compilation.getTotalCompilationTime());
+		}
+		if(os!=null) {
+			// the load is derived from the CPU time since getProcessCpuLoad() allocates on every call in a container
+			final long cpu = os.getProcessCpuTime();
+			final long now = System.nanoTime();
+			if(cpu >= 0L) {
+				if(lastCpuNanos > 0L && now > lastSampleNanos) {
+					cpuLoad.value = Math.round((cpu - lastCpuNanos) * 100D / ((now - lastSampleNanos) * processors));
+				}
+				lastCpuNanos = cpu;
+				lastSampleNanos = now;
+				lastCpuTime = increment(cpuTime, lastCpuTime, TimeUnit.NANOSECONDS.toMillis(cpu));
+			}
+		}
+	}
+
+	/**
+	 * Counts the live threads in each state
+	 */
+	private void sampleThreadStates() {
+		for(int i = 0; i < stateTally.length; i++) stateTally[i] = 0L;
+		final ThreadInfo[] infos = threads.getThreadInfo(threads.getAllThreadIds(), 0);
+		for(int i = 0; i < infos.length; i++) {
+			if(infos[i]!=null) stateTally[infos[i].getThreadState().ordinal()]++;
+		}
+		for(int i = 0; i < stateTally.length; i++) stateCounts[i].value = stateTally[i];
+	}
+
+	/**
+	 * Increments the passed counter by the change in a cumulative platform count
+	 * @param counter The counter
+	 * @param last The count at the last sample
+	 * @param current The current count, negative if undefined
+	 * @return the count to record as the last
+	 */
+	private static long increment(final Counter counter, final long last, final long current) {
+		if(current < 0L) return last;
+		if(current > last) counter.inc(current - last);
+		return current;
+	}
+
+	/**
+	 * <p>Title: LongGauge</p>
+	 * <p>Description: Gauge holding the last sampled value</p>
+	 */
+	static class LongGauge implements Gauge<Long> {
+		/** The last sampled value */
+		volatile long value = 0L;
+
+		@Override
+		public Long getValue() {
+			return value;
+		}
+	}
+}
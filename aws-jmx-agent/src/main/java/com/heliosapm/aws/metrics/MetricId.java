@@ -0,0 +1,122 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.aws.metrics;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>Title: MetricId</p>
+ * <p>Description: Interned metric identity of a name and a {@link DimensionSet}. A metric is registered under
+ * the identity's key, <b><code>&lt;name&gt;[&lt;dimensions&gt;]</code></b>, or the bare name when it has no
+ * dimensions, and exporters resolve a registry key back to its identity with {@link #forKey(String)},
+ * a map lookup rather than parsing. A key with no identity is a plain name, which exporters report under the
+ * key itself with {@link DimensionSet#EMPTY}, so looking one up allocates nothing.</p>
+ * <p>Identities are interned for the life of the JVM, so the interned set grows with the distinct identities
+ * created by {@link #of(String, DimensionSet)}, not with the keys exporters look up.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.aws.metrics.MetricId</code></p>
+ */
+
+public final class MetricId {
+	/** The interned identities, keyed by registry key */
+	private static final ConcurrentHashMap<String, MetricId> interned = new ConcurrentHashMap<String, MetricId>();
+
+	/** The metric name */
+	private final String name;
+	/** The dimensions */
+	private final DimensionSet dimensions;
+	/** The registry key */
+	private final String key;
+
+	/**
+	 * Returns the interned identity of the passed name and dimensions
+	 * @param name The metric name
+	 * @param dimensions The dimensions, null for none
+	 * @return the interned identity
+	 */
+	public static MetricId of(final String name, final DimensionSet dimensions) {
+		if(name==null || name.trim().isEmpty()) throw new IllegalArgumentException("The passed name was null or empty");
+		final DimensionSet dims = dimensions==null ? DimensionSet.EMPTY : dimensions;
+		final String key = dims.isEmpty() ? name.trim() : name.trim() + "[" + dims.getKey() + "]";
+		final MetricId id = interned.get(key);
+		if(id!=null) return id;
+		final MetricId created = new MetricId(name.trim(), dims, key);
+		final MetricId prior = interned.putIfAbsent(key, created);
+		return prior==null ? created : prior;
+	}
+
+	/**
+	 * Returns the interned identity of the passed name and alternating dimension names and values
+	 * @param name The metric name
+	 * @param namesAndValues The dimension names and values
+	 * @return the interned identity
+	 */
+	public static MetricId of(final String name, final String... namesAndValues) {
+		return of(name, DimensionSet.of(namesAndValues));
+	}
+
+	/**
+	 * Returns the identity registered under the passed registry key
+	 * @param key The registry key
+	 * @return the interned identity, or null if the key is a plain name without dimensions
+	 */
+	public static MetricId forKey(final String key) {
+		return interned.get(key);
+	}
+
+	private MetricId(final String name, final DimensionSet dimensions, final String key) {
+		this.name = name;
+		this.dimensions = dimensions;
+		this.key = key;
+	}
+
+	/**
+	 * Returns the interned identity of this name with the passed dimension added
+	 * @param dimension The dimension name
+	 * @param value The dimension value
+	 * @return the interned identity
+	 */
+	public MetricId tagged(final String dimension, final String value) {
+		return of(name, dimensions.with(dimension, value));
+	}
+
+	/**
+	 * Returns the metric name
+	 * @return the metric name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the dimensions
+	 * @return the dimensions
+	 */
+	public DimensionSet getDimensions() {
+		return dimensions;
+	}
+
+	/**
+	 * Returns the key the metric is registered under
+	 * @return the registry key
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	@Override
+	public String toString() {
+		return key;
+	}
+}
@@ -12,10 +12,16 @@
 // see <http://www.gnu.org/licenses/>.
 package com.heliosapm.aws.metrics;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.SortedSet;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 
 import javax.management.ObjectName;
@@ -23,9 +29,9 @@ import javax.management.ObjectName;
 import com.amazonaws.handlers.AsyncHandler;
 import com.amazonaws.services.cloudwatch.AmazonCloudWatchAsync;
 import com.amazonaws.services.cloudwatch.AmazonCloudWatchAsyncClientBuilder;
+import com.amazonaws.services.cloudwatch.model.Dimension;
 import com.amazonaws.services.cloudwatch.model.PutMetricDataRequest;
 import com.amazonaws.services.cloudwatch.model.PutMetricDataResult;
-import com.codahale.metrics.CachedGauge;
 import com.codahale.metrics.Counter;
 import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Histogram;
@@ -34,50 +40,198 @@ import com.codahale.metrics.Meter;
 import com.codahale.metrics.Metric;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.MetricRegistryListener;
+import com.codahale.metrics.ScheduledReporter;
 import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.heliosapm.aws.jmx.AWSJVMMetaDataService;
+import com.heliosapm.aws.regions.RegionDescriptor;
+import com.heliosapm.aws.threads.AsyncInitializer;
 import com.heliosapm.aws.threads.SharedThreadPoolService;
 import com.heliosapm.utils.config.ConfigurationHelper;
 import com.heliosapm.utils.jmx.JMXHelper; 
 
 /**
  * <p>Title: MetricService</p>
- * <p>Description: Service for submitting metrics to Cloudwatch</p> 
+ * <p>Description: Service for submitting metrics to Cloudwatch through a batching {@link CloudWatchReporter}</p> 
  * <p>Company: Helios Development Group LLC</p>
  * @author Whitehead (nwhitehead AT heliosdev DOT org)
  * <p><code>com.heliosapm.aws.metrics.MetricService</code></p>
  */
 
 public class MetricService implements MetricServiceMBean, AsyncHandler<PutMetricDataRequest,PutMetricDataResult> {
-	/** The singleton instance */
-	private static volatile MetricService instance = null;
-	/** The singleton instance ctor lock */
-	private static final Object lock = new Object();
+	/** The singleton initializer */
+	private static final AsyncInitializer<MetricService> initializer = new AsyncInitializer<MetricService>("MetricService") {
+		@Override
+		protected ListenableFuture<MetricService> start() {
+			return submit(new Callable<MetricService>() {
+				@Override
+				public MetricService call() {
+					return new MetricService();
+				}
+			});
+		}
+	};
+	
+	/** The system property key to enable or disable publishing to CloudWatch */
+	public static final String CLOUDWATCH_ENABLED_KEY = "com.heliosapm.aws.metrics.cloudwatch.enabled";
+	/** The default CloudWatch publishing enablement */
+	public static final boolean DEFAULT_CLOUDWATCH_ENABLED = true;
+	/** The system property key to override the CloudWatch reporting period in seconds */
+	public static final String CLOUDWATCH_PERIOD_KEY = "com.heliosapm.aws.metrics.cloudwatch.period";
+	/** The default CloudWatch reporting period in seconds */
+	public static final int DEFAULT_CLOUDWATCH_PERIOD = 60;
+	/** The system property key to override the CloudWatch metric namespace */
+	public static final String CLOUDWATCH_NAMESPACE_KEY = "com.heliosapm.aws.metrics.cloudwatch.namespace";
+	/** The default CloudWatch metric namespace */
+	public static final String DEFAULT_CLOUDWATCH_NAMESPACE = "HeliosAWSJMX";
+	/** The system property key to override the number of datums per PutMetricData batch */
+	public static final String CLOUDWATCH_BATCH_SIZE_KEY = "com.heliosapm.aws.metrics.cloudwatch.batchsize";
+	/** The default number of datums per PutMetricData batch */
+	public static final int DEFAULT_CLOUDWATCH_BATCH_SIZE = CloudWatchReporter.MAX_BATCH_SIZE;
+	/** The system property key to override the maximum number of distinct values per timer or histogram distribution. Zero sends statistic sets only. */
+	public static final String CLOUDWATCH_MAX_VALUES_KEY = "com.heliosapm.aws.metrics.cloudwatch.maxvalues";
+	/**
+	 * The default maximum number of distinct values per timer or histogram distribution, the most CloudWatch
+	 * accepts in one datum. Only timers and histograms backed by {@link HdrReservoir}s are sent as values and counts.
+	 */
+	public static final int DEFAULT_CLOUDWATCH_MAX_VALUES = Distribution.MAX_VALUES;
+	/** The system property key to override the relative change within which a gauge is not resent */
+	public static final String CLOUDWATCH_DEAD_BAND_KEY = "com.heliosapm.aws.metrics.cloudwatch.deadband";
+	/** The default relative change within which a gauge is not resent */
+	public static final double DEFAULT_CLOUDWATCH_DEAD_BAND = 0.01D;
+	/** The system property key to override the number of reports between full refreshes. One or less sends every metric on every report. */
+	public static final String CLOUDWATCH_REFRESH_KEY = "com.heliosapm.aws.metrics.cloudwatch.refresh";
+	/** The default number of reports between full refreshes */
+	public static final int DEFAULT_CLOUDWATCH_REFRESH = 10;
+	/** The system property key to enable or disable spooling failed CloudWatch batches to disk */
+	public static final String SPOOL_ENABLED_KEY = "com.heliosapm.aws.metrics.spool.enabled";
+	/** The default spool enablement */
+	public static final boolean DEFAULT_SPOOL_ENABLED = true;
+	/** The system property key to override the spool directory */
+	public static final String SPOOL_DIR_KEY = "com.heliosapm.aws.metrics.spool.dir";
+	/** The default spool directory */
+	public static final String DEFAULT_SPOOL_DIR = new File(System.getProperty("java.io.tmpdir"), "helios-aws-jmx-spool").getAbsolutePath();
+	/** The system property key to override the spool segment size in bytes */
+	public static final String SPOOL_SEGMENT_SIZE_KEY = "com.heliosapm.aws.metrics.spool.segmentsize";
+	/** The default spool segment size in bytes */
+	public static final int DEFAULT_SPOOL_SEGMENT_SIZE = 4 * 1024 * 1024;
+	/** The system property key to override the maximum number of spool segments */
+	public static final String SPOOL_SEGMENTS_KEY = "com.heliosapm.aws.metrics.spool.segments";
+	/** The default maximum number of spool segments */
+	public static final int DEFAULT_SPOOL_SEGMENTS = 16;
+	/** The system property key to override the maximum number of spooled batches replayed per second */
+	public static final String SPOOL_REPLAY_RATE_KEY = "com.heliosapm.aws.metrics.spool.replayrate";
+	/** The default maximum number of spooled batches replayed per second */
+	public static final int DEFAULT_SPOOL_REPLAY_RATE = 5;
+	/** The period in seconds of the probe that replays the spool backlog */
+	public static final int SPOOL_PROBE_PERIOD = 10;
+	/** The system property key to enable or disable writing Embedded Metric Format lines to a local file */
+	public static final String EMF_ENABLED_KEY = "com.heliosapm.aws.metrics.emf.enabled";
+	/** The default Embedded Metric Format file enablement */
+	public static final boolean DEFAULT_EMF_ENABLED = false;
+	/** The system property key to override the Embedded Metric Format file */
+	public static final String EMF_FILE_KEY = "com.heliosapm.aws.metrics.emf.file";
+	/** The default Embedded Metric Format file */
+	public static final String DEFAULT_EMF_FILE = new File(System.getProperty("java.io.tmpdir"), "helios-aws-jmx-metrics.emf.log").getAbsolutePath();
+	/** The system property key to override the size in bytes at which the Embedded Metric Format file is rotated */
+	public static final String EMF_FILE_SIZE_KEY = "com.heliosapm.aws.metrics.emf.filesize";
+	/** The default size in bytes at which the Embedded Metric Format file is rotated */
+	public static final int DEFAULT_EMF_FILE_SIZE = 10 * 1024 * 1024;
+	/** The system property key to override the number of rotated Embedded Metric Format files retained */
+	public static final String EMF_FILES_KEY = "com.heliosapm.aws.metrics.emf.files";
+	/** The default number of rotated Embedded Metric Format files retained */
+	public static final int DEFAULT_EMF_FILES = 5;
+	/**
+	 * The system property key to override the Embedded Metric Format reporting period in seconds. Ignored with
+	 * {@link HdrReservoir}s, whose interval, the CloudWatch reporting period, the EMF reports then follow.
+	 */
+	public static final String EMF_PERIOD_KEY = "com.heliosapm.aws.metrics.emf.period";
+	/** The default Embedded Metric Format reporting period in seconds */
+	public static final int DEFAULT_EMF_PERIOD = 60;
+	/** The maximum number of reports queued for the Embedded Metric Format file */
+	public static final int EMF_QUEUE_SIZE = 64;
+	/** The system property key to override the reservoir backing timers and histograms, <b><code>exponential</code></b> or <b><code>hdr</code></b> */
+	public static final String RESERVOIR_KEY = "com.heliosapm.aws.metrics.reservoir";
+	/**
+	 * The default reservoir backing timers and histograms. The exponentially decaying reservoir's snapshot covers
+	 * roughly the last five minutes rather than the reporting interval, so its timers and histograms are only sent
+	 * to CloudWatch as statistic sets.
+	 */
+	public static final String DEFAULT_RESERVOIR = "hdr";
+	/** The system property key to override the number of significant value digits of HDR reservoirs */
+	public static final String RESERVOIR_DIGITS_KEY = "com.heliosapm.aws.metrics.reservoir.digits";
+	/** The system property key to override the default gauge sampling period in seconds */
+	public static final String GAUGE_PERIOD_KEY = "com.heliosapm.aws.metrics.gauge.period";
+	/** The default gauge sampling period in seconds */
+	public static final int DEFAULT_GAUGE_PERIOD = 15;
+	/** The system property key to override the time budget of one gauge sample in ms. */
+	public static final String GAUGE_BUDGET_KEY = "com.heliosapm.aws.metrics.gauge.budget";
+	/** The default time budget of one gauge sample in ms. */
+	public static final int DEFAULT_GAUGE_BUDGET = 1000;
+	/** The system property key to enable or disable registering an MBean per metric, which large registries may turn off in favour of the {@link MetricSnapshotService} */
+	public static final String JMX_PER_METRIC_KEY = "com.heliosapm.aws.metrics.jmx.permetric";
+	/** The default per metric MBean registration */
+	public static final boolean DEFAULT_JMX_PER_METRIC = true;
+	/** The system property key to enable or disable the JVM platform metrics harvester */
+	public static final String JVM_ENABLED_KEY = "com.heliosapm.aws.metrics.jvm.enabled";
+	/** The default JVM platform metrics harvester enablement */
+	public static final boolean DEFAULT_JVM_ENABLED = true;
+	/** The system property key to override the JVM platform metrics sampling period in seconds */
+	public static final String JVM_PERIOD_KEY = "com.heliosapm.aws.metrics.jvm.period";
+	/** The default JVM platform metrics sampling period in seconds */
+	public static final int DEFAULT_JVM_PERIOD = 15;
 	
 	private final ObjectName objectName;
-	//private final AmazonCloudWatchAsync asyncClient;
+	/** The CloudWatch reporter, null until started */
+	private volatile CloudWatchReporter cloudWatchReporter = null;
+	/** The Embedded Metric Format reporter, null until started */
+	private volatile EmfReporter emfReporter = null;
+	/** The JVM platform metrics harvester, null if disabled */
+	private final JvmHarvester jvmHarvester;
 	private final MetricRegistry registry = new MetricRegistry();
 	private final Meter errorMeter = registry.meter("MetricService.Submission.Errors");
 	private final Meter submissionMeter = registry.meter("MetricService.Submission.Submitted");
-	private final JmxReporter jmxReporter = JmxReporter.forRegistry(registry)
-		.registerWith(JMXHelper.getHeliosMBeanServer())
-		.build();
+	/** The reporter registering an MBean per metric, null if disabled */
+	private final JmxReporter jmxReporter;
+	/** The MBean returning the registry in one call */
+	private final MetricSnapshotService snapshotService;
+	/** The reporters flushed by {@link #flush()} */
+	private final CopyOnWriteArrayList<ScheduledReporter> reporters = new CopyOnWriteArrayList<ScheduledReporter>();
+	/** True if timers and histograms are backed by {@link HdrReservoir}s */
+	private final boolean hdrReservoirs = "hdr".equalsIgnoreCase(ConfigurationHelper.getSystemThenEnvProperty(RESERVOIR_KEY, DEFAULT_RESERVOIR).trim());
+	/** The HDR reservoir interval in seconds, the CloudWatch reporting period */
+	private final int reservoirInterval = ConfigurationHelper.getIntSystemThenEnvProperty(CLOUDWATCH_PERIOD_KEY, DEFAULT_CLOUDWATCH_PERIOD);
+	/** The number of significant value digits of HDR reservoirs */
+	private final int reservoirDigits = ConfigurationHelper.getIntSystemThenEnvProperty(RESERVOIR_DIGITS_KEY, HdrReservoir.DEFAULT_SIGNIFICANT_DIGITS);
+	/** The default gauge sampling period in seconds */
+	private final int gaugePeriod = ConfigurationHelper.getIntSystemThenEnvProperty(GAUGE_PERIOD_KEY, DEFAULT_GAUGE_PERIOD);
+	/** The time budget of one gauge sample in ms. */
+	private final int gaugeBudget = ConfigurationHelper.getIntSystemThenEnvProperty(GAUGE_BUDGET_KEY, DEFAULT_GAUGE_BUDGET);
 	
 	
 	
 	/**
-	 * Acquires the MetricService singleton instance
+	 * Returns the readiness future of the MetricService singleton, starting its initialization if required
+	 * @return the readiness future
+	 */
+	public static ListenableFuture<MetricService> ready() {
+		return initializer.ready();
+	}
+
+	/**
+	 * Acquires the MetricService singleton instance, waiting for it to be initialized
 	 * @return the MetricService singleton instance
 	 */
 	public static MetricService getInstance() {
-		if(instance==null) {
-			synchronized (lock) {
-				if(instance==null) {
-					instance = new MetricService();
-				}
-			}
-		}
-		return instance;
+		return initializer.get();
+	}
+
+	/**
+	 * Returns the MetricService singleton instance if it has been initialized, without waiting
+	 * @return the MetricService singleton instance or null if not initialized yet
+	 */
+	public static MetricService getIfReady() {
+		return initializer.getIfReady();
 	}
 
 	/**
@@ -88,20 +242,181 @@ public class MetricService implements MetricServiceMBean, AsyncHandler<PutMetric
 		objectName = JMXHelper.objectName(on);
 		try { JMXHelper.unregisterMBean(objectName); } catch (Exception x) {/* No Op */}
 		JMXHelper.registerMBean(this, objectName);
-		jmxReporter.start();
-//		asyncClient = AmazonCloudWatchAsyncClientBuilder.standard()
-//				.withExecutorFactory(SharedThreadPoolService.getInstance())
-//				.withRegion(AWSJVMMetaDataService.getInstance().getRegion())
-//				.build();
+		final boolean perMetric = Boolean.parseBoolean(ConfigurationHelper.getSystemThenEnvProperty(JMX_PER_METRIC_KEY, "" + DEFAULT_JMX_PER_METRIC).trim());
+		if(perMetric) {
+			jmxReporter = JmxReporter.forRegistry(registry)
+				.registerWith(JMXHelper.getHeliosMBeanServer())
+				.build();
+			jmxReporter.start();
+		} else {
+			jmxReporter = null;
+		}
+		snapshotService = new MetricSnapshotService(registry);
+		jvmHarvester = startJvmHarvester();
+	}
+	
+	/**
+	 * Creates and starts the JVM platform metrics harvester, if enabled
+	 * @return the harvester or null if disabled
+	 */
+	private JvmHarvester startJvmHarvester() {
+		final boolean enabled = Boolean.parseBoolean(ConfigurationHelper.getSystemThenEnvProperty(JVM_ENABLED_KEY, "" + DEFAULT_JVM_ENABLED).trim());
+		if(!enabled) return null;
+		final int period = ConfigurationHelper.getIntSystemThenEnvProperty(JVM_PERIOD_KEY, DEFAULT_JVM_PERIOD);
+		return new JvmHarvester(registry).start(period, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Returns the MBean returning the registry in one call
+	 * @return the snapshot service
+	 */
+	public MetricSnapshotService getSnapshotService() {
+		return snapshotService;
+	}
 
+	/**
+	 * Returns the JVM platform metrics harvester
+	 * @return the harvester or null if disabled
+	 */
+	public JvmHarvester getJvmHarvester() {
+		return jvmHarvester;
+	}
+	
+	/**
+	 * Starts the CloudWatch reporter, if enabled, in the meta-data service's region with the instance id as a dimension.
+	 * Subsequent calls return the started reporter.
+	 * @param metaService The initialized meta-data service
+	 * @return the started reporter or null if disabled
+	 */
+	public synchronized CloudWatchReporter startCloudWatchReporter(final AWSJVMMetaDataService metaService) {
+		if(cloudWatchReporter!=null) return cloudWatchReporter;
+		final boolean enabled = Boolean.parseBoolean(ConfigurationHelper.getSystemThenEnvProperty(CLOUDWATCH_ENABLED_KEY, "" + DEFAULT_CLOUDWATCH_ENABLED).trim());
+		if(!enabled) return null;
+		final int period = ConfigurationHelper.getIntSystemThenEnvProperty(CLOUDWATCH_PERIOD_KEY, DEFAULT_CLOUDWATCH_PERIOD);
+		final String namespace = ConfigurationHelper.getSystemThenEnvProperty(CLOUDWATCH_NAMESPACE_KEY, DEFAULT_CLOUDWATCH_NAMESPACE);
+		final int batchSize = ConfigurationHelper.getIntSystemThenEnvProperty(CLOUDWATCH_BATCH_SIZE_KEY, DEFAULT_CLOUDWATCH_BATCH_SIZE);
+		final int maxValues = ConfigurationHelper.getIntSystemThenEnvProperty(CLOUDWATCH_MAX_VALUES_KEY, DEFAULT_CLOUDWATCH_MAX_VALUES);
+		final int refresh = ConfigurationHelper.getIntSystemThenEnvProperty(CLOUDWATCH_REFRESH_KEY, DEFAULT_CLOUDWATCH_REFRESH);
+		double deadBand = DEFAULT_CLOUDWATCH_DEAD_BAND;
+		try {
+			deadBand = Double.parseDouble(ConfigurationHelper.getSystemThenEnvProperty(CLOUDWATCH_DEAD_BAND_KEY, "" + DEFAULT_CLOUDWATCH_DEAD_BAND).trim());
+		} catch (Exception ex) {/* No Op */}
+		// the client runs on the shared thread pool so it must never be shut down
+		final AmazonCloudWatchAsyncClientBuilder builder = AmazonCloudWatchAsyncClientBuilder.standard()
+			.withExecutorFactory(SharedThreadPoolService.getInstance());
+		final RegionDescriptor rd = metaService.getRegionDescriptor();
+		final AmazonCloudWatchAsync client = (rd!=null ? rd.configure(builder, RegionDescriptor.CLOUDWATCH) : builder).build();
+		final List<Dimension> dimensions = new ArrayList<Dimension>(1);
+		final String instanceId = metaService.getInstanceId();
+		if(instanceId!=null) dimensions.add(new Dimension().withName("InstanceId").withValue(instanceId));
+		final MetricSpool spool = spool(client);
+		final CloudWatchReporter reporter = new CloudWatchReporter(registry, client, this, namespace, dimensions, batchSize, maxValues, deadBand, refresh, spool);
+		reporter.start(period, TimeUnit.SECONDS);
+		registerReporter(reporter);
+		cloudWatchReporter = reporter;
+		return reporter;
+	}
+	
+	/**
+	 * Starts the Embedded Metric Format file reporter, if enabled, with the meta-data service's instance id, 
+	 * instance type and region as dimensions. Subsequent calls return the started reporter.
+	 * @param metaService The initialized meta-data service
+	 * @return the started reporter or null if disabled
+	 * @throws IOException thrown if the file cannot be opened
+	 */
+	public synchronized EmfReporter startEmfReporter(final AWSJVMMetaDataService metaService) throws IOException {
+		if(emfReporter!=null) return emfReporter;
+		final boolean enabled = Boolean.parseBoolean(ConfigurationHelper.getSystemThenEnvProperty(EMF_ENABLED_KEY, "" + DEFAULT_EMF_ENABLED).trim());
+		if(!enabled) return null;
+		final File file = new File(ConfigurationHelper.getSystemThenEnvProperty(EMF_FILE_KEY, DEFAULT_EMF_FILE));
+		final int fileSize = ConfigurationHelper.getIntSystemThenEnvProperty(EMF_FILE_SIZE_KEY, DEFAULT_EMF_FILE_SIZE);
+		final int files = ConfigurationHelper.getIntSystemThenEnvProperty(EMF_FILES_KEY, DEFAULT_EMF_FILES);
+		// with a longer period than the reservoir interval, the intervals between reports would never be written
+		final int period = hdrReservoirs ? reservoirInterval : ConfigurationHelper.getIntSystemThenEnvProperty(EMF_PERIOD_KEY, DEFAULT_EMF_PERIOD);
+		final String namespace = ConfigurationHelper.getSystemThenEnvProperty(CLOUDWATCH_NAMESPACE_KEY, DEFAULT_CLOUDWATCH_NAMESPACE);
+		final Map<String, String> dimensions = new LinkedHashMap<String, String>(4);
+		dimensions.put("InstanceId", metaService.getInstanceId());
+		dimensions.put("InstanceType", metaService.getInstanceType());
+		dimensions.put("Region", metaService.getRegion());
+		final EmfAppender appender = new EmfAppender(file, fileSize, files, EMF_QUEUE_SIZE);
+		final EmfReporter reporter = new EmfReporter(registry, appender, namespace, dimensions);
+		reporter.start(period, TimeUnit.SECONDS);
+		registerReporter(reporter);
+		emfReporter = reporter;
+		return reporter;
+	}
+
+	/**
+	 * Creates and starts the spool failed CloudWatch batches are written to, if enabled
+	 * @param client The CloudWatch client the backlog is replayed with
+	 * @return the spool or null if disabled or it could not be created
+	 */
+	private MetricSpool spool(final AmazonCloudWatchAsync client) {
+		final boolean enabled = Boolean.parseBoolean(ConfigurationHelper.getSystemThenEnvProperty(SPOOL_ENABLED_KEY, "" + DEFAULT_SPOOL_ENABLED).trim());
+		if(!enabled) return null;
+		final File dir = new File(ConfigurationHelper.getSystemThenEnvProperty(SPOOL_DIR_KEY, DEFAULT_SPOOL_DIR));
+		final int segmentSize = ConfigurationHelper.getIntSystemThenEnvProperty(SPOOL_SEGMENT_SIZE_KEY, DEFAULT_SPOOL_SEGMENT_SIZE);
+		final int segments = ConfigurationHelper.getIntSystemThenEnvProperty(SPOOL_SEGMENTS_KEY, DEFAULT_SPOOL_SEGMENTS);
+		final int replayRate = ConfigurationHelper.getIntSystemThenEnvProperty(SPOOL_REPLAY_RATE_KEY, DEFAULT_SPOOL_REPLAY_RATE);
+		try {
+			final MetricSpool spool = new MetricSpool(dir, segmentSize, segments, replayRate, client, this);
+			registry.register("MetricService.Spool.Pending", new Gauge<Long>() {
+				@Override
+				public Long getValue() {
+					return spool.getPendingCount();
+				}
+			});
+			registry.register("MetricService.Spool.Dropped", new Gauge<Long>() {
+				@Override
+				public Long getValue() {
+					return spool.getDroppedCount();
+				}
+			});
+			spool.start(SPOOL_PROBE_PERIOD, TimeUnit.SECONDS);
+			return spool;
+		} catch (Exception ex) {
+			System.err.println("Failed to create the metric spool in [" + dir + "]. Failed batches will be dropped:" + ex);
+			return null;
+		}
+	}
+	
+	/**
+	 * Registers a reporter to be flushed on {@link #flush()}
+	 * @param reporter The reporter to register
+	 */
+	public void registerReporter(final ScheduledReporter reporter) {
+		if(reporter==null) throw new IllegalArgumentException("The passed reporter was null");
+		reporters.addIfAbsent(reporter);
+	}
+	
+	/**
+	 * Unregisters a reporter
+	 * @param reporter The reporter to unregister
+	 */
+	public void unregisterReporter(final ScheduledReporter reporter) {
+		reporters.remove(reporter);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.aws.metrics.MetricServiceMBean#flush()
+	 */
+	@Override
+	public void flush() {
+		for(ScheduledReporter reporter: reporters) {
+			try {
+				reporter.report();
+			} catch (Exception ex) {
+				errorMeter.mark();
+				System.err.println("MetricService flush error:" + ex);
+			}
+		}
 	}
 	
 	@Override
 	public void onError(final Exception ex) {
 		errorMeter.mark();
-		System.err.println("MetricService error:" + ex + ". Stack trace follows.");
-		ex.printStackTrace(System.err);
-		
+		System.err.println("MetricService error:" + ex);
 	}
 	
 	@Override
@@ -109,34 +424,64 @@ public class MetricService implements MetricServiceMBean, AsyncHandler<PutMetric
 		submissionMeter.mark(request.getMetricData().size());
 	}
 
+	/**
+	 * Registers a gauge sampled every {@link #DEFAULT_GAUGE_PERIOD} seconds, or as configured
+	 * @param name The gauge name
+	 * @param gaugeSource The sampled source
+	 * @return the registered gauge
+	 */
 	public <T> Gauge<T> gauge(final String name, final Callable<T> gaugeSource) {
-		return new Gauge<T>() {
-			@Override
-			public T getValue() {		
-				try {
-					return gaugeSource.call();
-				} catch (Exception ex) {
-					throw new RuntimeException(ex);
-				}
-			}
-		};
+		return gauge(gaugePeriod, TimeUnit.SECONDS, name, gaugeSource);
 	}
 	
-	public <T> Gauge<T> gauge(final long timeout, final TimeUnit unit, final String name, final Callable<T> gaugeSource) {
-		return new CachedGauge<T>(timeout, unit) {
-			@Override
-			protected T loadValue() {
-				try {
-					return gaugeSource.call();
-				} catch (Exception ex) {
-					throw new RuntimeException(ex);
-				}
-			}
-		};
+	/**
+	 * Registers a sampled gauge with the configured time budget
+	 * @param period The sampling period
+	 * @param unit The period unit
+	 * @param name The gauge name
+	 * @param gaugeSource The sampled source
+	 * @return the registered gauge
+	 */
+	public <T> Gauge<T> gauge(final long period, final TimeUnit unit, final String name, final Callable<T> gaugeSource) {
+		return gauge(unit.toMillis(period), gaugeBudget, TimeUnit.MILLISECONDS, name, gaugeSource);
 	}
 	
-	public <T> Gauge<T> gauge(final long timeout, final String name, final Callable<T> gaugeSource) {
-		return gauge(timeout, TimeUnit.SECONDS, name, gaugeSource);
+	/**
+	 * Registers a sampled gauge with the configured time budget
+	 * @param period The sampling period in seconds
+	 * @param name The gauge name
+	 * @param gaugeSource The sampled source
+	 * @return the registered gauge
+	 */
+	public <T> Gauge<T> gauge(final long period, final String name, final Callable<T> gaugeSource) {
+		return gauge(period, TimeUnit.SECONDS, name, gaugeSource);
+	}
+	
+	/**
+	 * Registers a {@link SampledGauge} and starts sampling it. Samples overrunning the budget are counted
+	 * by the <b><code>&lt;name&gt;.overruns</code></b> counter. If a gauge is already registered under
+	 * the name, it is returned instead.
+	 * @param period The sampling period
+	 * @param budget The time budget of one sample
+	 * @param unit The unit of the period and budget
+	 * @param name The gauge name
+	 * @param gaugeSource The sampled source
+	 * @return the registered gauge
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> Gauge<T> gauge(final long period, final long budget, final TimeUnit unit, final String name, final Callable<T> gaugeSource) {
+		final Metric existing = registry.getMetrics().get(name);
+		if(existing instanceof Gauge) return (Gauge<T>)existing;
+		final SampledGauge<T> gauge = new SampledGauge<T>(gaugeSource, period, budget, unit, registry.counter(name + ".overruns"));
+		try {
+			registry.register(name, gauge);
+		} catch (IllegalArgumentException iae) {
+			// registered concurrently, or the name is taken by another type
+			final Metric m = registry.getMetrics().get(name);
+			if(m instanceof Gauge) return (Gauge<T>)m;
+			throw iae;
+		}
+		return gauge.start();
 	}
 	
 	
@@ -150,12 +495,23 @@ public class MetricService implements MetricServiceMBean, AsyncHandler<PutMetric
 	}
 
 	/**
-	 * @param name
-	 * @return
+	 * Returns the named histogram, creating it if required, backed by an {@link HdrReservoir} if configured
+	 * @param name The histogram name
+	 * @return the histogram
 	 * @see com.codahale.metrics.MetricRegistry#histogram(java.lang.String)
 	 */
 	public Histogram histogram(String name) {
-		return registry.histogram(name);
+		if(!hdrReservoirs) return registry.histogram(name);
+		final Histogram histogram = registered(name, Histogram.class);
+		if(histogram!=null) return histogram;
+		try {
+			return registry.register(name, new Histogram(newReservoir()));
+		} catch (IllegalArgumentException iae) {
+			// registered concurrently, or the name is taken by another type
+			final Histogram h = registered(name, Histogram.class);
+			if(h!=null) return h;
+			throw iae;
+		}
 	}
 
 	/**
@@ -168,12 +524,78 @@ public class MetricService implements MetricServiceMBean, AsyncHandler<PutMetric
 	}
 
 	/**
-	 * @param name
-	 * @return
+	 * Returns the named timer, creating it if required, backed by an {@link HdrReservoir} if configured
+	 * @param name The timer name
+	 * @return the timer
 	 * @see com.codahale.metrics.MetricRegistry#timer(java.lang.String)
 	 */
 	public Timer timer(String name) {
-		return registry.timer(name);
+		if(!hdrReservoirs) return registry.timer(name);
+		final Timer timer = registered(name, Timer.class);
+		if(timer!=null) return timer;
+		try {
+			return registry.register(name, new Timer(newReservoir()));
+		} catch (IllegalArgumentException iae) {
+			// registered concurrently, or the name is taken by another type
+			final Timer t = registered(name, Timer.class);
+			if(t!=null) return t;
+			throw iae;
+		}
+	}
+
+	/**
+	 * Returns the counter of the passed identity, creating it if required
+	 * @param id The metric identity
+	 * @return the counter
+	 */
+	public Counter counter(final MetricId id) {
+		return counter(id.getKey());
+	}
+
+	/**
+	 * Returns the histogram of the passed identity, creating it if required
+	 * @param id The metric identity
+	 * @return the histogram
+	 */
+	public Histogram histogram(final MetricId id) {
+		return histogram(id.getKey());
+	}
+
+	/**
+	 * Returns the meter of the passed identity, creating it if required
+	 * @param id The metric identity
+	 * @return the meter
+	 */
+	public Meter meter(final MetricId id) {
+		return meter(id.getKey());
+	}
+
+	/**
+	 * Returns the timer of the passed identity, creating it if required
+	 * @param id The metric identity
+	 * @return the timer
+	 */
+	public Timer timer(final MetricId id) {
+		return timer(id.getKey());
+	}
+
+	/**
+	 * Returns the metric registered under the passed name if it is of the passed type
+	 * @param name The metric name
+	 * @param type The metric type
+	 * @return the metric or null if not registered or of another type
+	 */
+	private <T extends Metric> T registered(final String name, final Class<T> type) {
+		final Metric metric = registry.getMetrics().get(name);
+		return type.isInstance(metric) ? type.cast(metric) : null;
+	}
+
+	/**
+	 * Creates a new HDR reservoir whose interval is the CloudWatch reporting period
+	 * @return the reservoir
+	 */
+	private HdrReservoir newReservoir() {
+		return new HdrReservoir(reservoirInterval, TimeUnit.SECONDS, reservoirDigits);
 	}
 
 	/**
@@ -204,6 +626,7 @@ public class MetricService implements MetricServiceMBean, AsyncHandler<PutMetric
 	 * @return
 	 * @see com.codahale.metrics.MetricRegistry#getGauges()
 	 */
+	@SuppressWarnings("rawtypes")
 	public SortedMap<String, Gauge> getGauges() {
 		return registry.getGauges();
 	}
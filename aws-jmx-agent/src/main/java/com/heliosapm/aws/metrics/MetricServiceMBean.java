@@ -25,5 +25,10 @@ public interface MetricServiceMBean {
 	public static final String DEFAULT_OBJECT_NAME = "com.heliosapm.aws.jmx:service=MetricService";	
 	/** The system property key to override the default object name */
 	public static final String SYSPROP_OBJECT_NAME_KEY = "com.heliosapm.aws.jmx.metricobjectname";
+	
+	/**
+	 * Immediately reports the current metrics through every registered reporter
+	 */
+	public void flush();
 
 }
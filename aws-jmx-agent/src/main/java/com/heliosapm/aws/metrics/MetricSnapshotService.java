@@ -0,0 +1,212 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.aws.metrics;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Metered;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.heliosapm.utils.config.ConfigurationHelper;
+import com.heliosapm.utils.jmx.JMXHelper;
+
+/**
+ * <p>Title: MetricSnapshotService</p>
+ * <p>Description: MBean returning the whole metric registry, or the metrics under a name prefix, as one
+ * {@link TabularData} per call, so a remote scrape is one round trip rather than one per metric MBean.</p>
+ * <p>Each row carries the metric's name, type and every statistic that applies to the type, with the others
+ * null. Rates are per second and timer durations are in milliseconds.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.aws.metrics.MetricSnapshotService</code></p>
+ */
+
+public class MetricSnapshotService implements MetricSnapshotServiceMBean {
+	/** The row item names */
+	private static final String[] ITEMS = {"name", "type", "count", "value", "min", "max", "mean", "stddev",
+		"p50", "p75", "p95", "p98", "p99", "p999", "mean_rate", "m1_rate", "m5_rate", "m15_rate"};
+	/** The row type */
+	private static final CompositeType ROW_TYPE;
+	/** The snapshot type */
+	private static final TabularType SNAPSHOT_TYPE;
+	/** The factor converting durations to milliseconds */
+	private static final double DURATION_FACTOR = 1D / TimeUnit.MILLISECONDS.toNanos(1);
+
+	static {
+		final OpenType<?>[] types = new OpenType<?>[ITEMS.length];
+		types[0] = SimpleType.STRING;
+		types[1] = SimpleType.STRING;
+		types[2] = SimpleType.LONG;
+		for(int i = 3; i < types.length; i++) types[i] = SimpleType.DOUBLE;
+		try {
+			ROW_TYPE = new CompositeType("MetricSnapshot", "One metric's statistics", ITEMS, ITEMS, types);
+			SNAPSHOT_TYPE = new TabularType("MetricSnapshots", "The statistics of each metric", ROW_TYPE, new String[]{"name"});
+		} catch (OpenDataException ex) {
+			throw new RuntimeException("Failed to create the metric snapshot types", ex);
+		}
+	}
+
+	/** The registry snapshotted */
+	private final MetricRegistry registry;
+	/** The MBean's object name */
+	private final ObjectName objectName;
+
+	/**
+	 * Creates a new MetricSnapshotService and registers its MBean
+	 * @param registry The registry to snapshot
+	 */
+	MetricSnapshotService(final MetricRegistry registry) {
+		this.registry = registry;
+		final String on = ConfigurationHelper.getSystemThenEnvProperty(SYSPROP_OBJECT_NAME_KEY, DEFAULT_OBJECT_NAME);
+		objectName = JMXHelper.objectName(on);
+		try { JMXHelper.unregisterMBean(objectName); } catch (Exception x) {/* No Op */}
+		JMXHelper.registerMBean(this, objectName);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.aws.metrics.MetricSnapshotServiceMBean#getSnapshot()
+	 */
+	@Override
+	public TabularData getSnapshot() {
+		return snapshot(null);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.aws.metrics.MetricSnapshotServiceMBean#snapshot(java.lang.String)
+	 */
+	@Override
+	public TabularData snapshot(final String prefix) {
+		final String p = prefix==null ? "" : prefix.trim();
+		final Map<String, Metric> metrics = registry.getMetrics();
+		final TabularDataSupport snapshot = new TabularDataSupport(SNAPSHOT_TYPE, Math.max(16, metrics.size() * 4 / 3), 0.75f);
+		final Object[] values = new Object[ITEMS.length];
+		for(Map.Entry<String, Metric> entry: metrics.entrySet()) {
+			if(!entry.getKey().startsWith(p)) continue;
+			for(int i = 0; i < values.length; i++) values[i] = null;
+			values[0] = entry.getKey();
+			if(!row(entry.getValue(), values)) continue;
+			try {
+				snapshot.put(new CompositeDataSupport(ROW_TYPE, ITEMS, values));
+			} catch (OpenDataException ex) {
+				/* No Op, the types are fixed */
+			}
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Fills the row values of the passed metric
+	 * @param metric The metric
+	 * @param values The row values, with the name set and the rest null
+	 * @return true if the metric has a row, false if it is of an unknown type or its value cannot be read
+	 */
+	@SuppressWarnings("rawtypes")
+	private static boolean row(final Metric metric, final Object[] values) {
+		if(metric instanceof Gauge) {
+			values[1] = "gauge";
+			final Object value;
+			try {
+				value = ((Gauge)metric).getValue();
+			} catch (Exception ex) {
+				return false;
+			}
+			if(value instanceof Number) values[3] = ((Number)value).doubleValue();
+		} else if(metric instanceof Counter) {
+			values[1] = "counter";
+			values[2] = ((Counter)metric).getCount();
+			values[3] = (double)((Counter)metric).getCount();
+		} else if(metric instanceof Timer) {
+			values[1] = "timer";
+			values[2] = ((Timer)metric).getCount();
+			snapshot(((Timer)metric).getSnapshot(), DURATION_FACTOR, values);
+			rates((Metered)metric, values);
+		} else if(metric instanceof Histogram) {
+			values[1] = "histogram";
+			values[2] = ((Histogram)metric).getCount();
+			snapshot(((Histogram)metric).getSnapshot(), 1D, values);
+		} else if(metric instanceof Metered) {
+			values[1] = "meter";
+			values[2] = ((Metered)metric).getCount();
+			rates((Metered)metric, values);
+		} else {
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Fills the row's distribution values
+	 * @param snapshot The metric's snapshot
+	 * @param factor The factor applied to each value
+	 * @param values The row values
+	 */
+	private static void snapshot(final Snapshot snapshot, final double factor, final Object[] values) {
+		values[4] = snapshot.getMin() * factor;
+		values[5] = snapshot.getMax() * factor;
+		values[6] = snapshot.getMean() * factor;
+		values[7] = snapshot.getStdDev() * factor;
+		values[8] = snapshot.getMedian() * factor;
+		values[9] = snapshot.get75thPercentile() * factor;
+		values[10] = snapshot.get95thPercentile() * factor;
+		values[11] = snapshot.get98thPercentile() * factor;
+		values[12] = snapshot.get99thPercentile() * factor;
+		values[13] = snapshot.get999thPercentile() * factor;
+	}
+
+	/**
+	 * Fills the row's rates, which the metric reports per second
+	 * @param metered The metric
+	 * @param values The row values
+	 */
+	private static void rates(final Metered metered, final Object[] values) {
+		values[14] = metered.getMeanRate();
+		values[15] = metered.getOneMinuteRate();
+		values[16] = metered.getFiveMinuteRate();
+		values[17] = metered.getFifteenMinuteRate();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.aws.metrics.MetricSnapshotServiceMBean#getMetricCount()
+	 */
+	@Override
+	public int getMetricCount() {
+		return registry.getMetrics().size();
+	}
+
+	/**
+	 * Returns the MBean's object name
+	 * @return the object name
+	 */
+	public ObjectName getObjectName() {
+		return objectName;
+	}
+}
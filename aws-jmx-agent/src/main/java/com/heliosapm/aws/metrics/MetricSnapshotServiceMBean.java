@@ -0,0 +1,50 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.aws.metrics;
+
+import javax.management.openmbean.TabularData;
+
+/**
+ * <p>Title: MetricSnapshotServiceMBean</p>
+ * <p>Description: JMX MBean returning the metric registry in one call</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.aws.metrics.MetricSnapshotServiceMBean</code></p>
+ */
+
+public interface MetricSnapshotServiceMBean {
+	/** The default object name */
+	public static final String DEFAULT_OBJECT_NAME = "com.heliosapm.aws.jmx:service=MetricSnapshot";	
+	/** The system property key to override the default object name */
+	public static final String SYSPROP_OBJECT_NAME_KEY = "com.heliosapm.aws.jmx.snapshotobjectname";
+	
+	/**
+	 * Returns a snapshot of every metric, one row per metric keyed by name
+	 * @return the snapshot
+	 */
+	public TabularData getSnapshot();
+	
+	/**
+	 * Returns a snapshot of the metrics whose names start with the passed prefix
+	 * @param prefix The name prefix, null or empty for every metric
+	 * @return the snapshot
+	 */
+	public TabularData snapshot(String prefix);
+	
+	/**
+	 * Returns the number of registered metrics
+	 * @return the number of metrics
+	 */
+	public int getMetricCount();
+
+}
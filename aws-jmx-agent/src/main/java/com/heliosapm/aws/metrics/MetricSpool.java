@@ -0,0 +1,732 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.aws.metrics;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.cloudwatch.AmazonCloudWatchAsync;
+import com.amazonaws.services.cloudwatch.model.Dimension;
+import com.amazonaws.services.cloudwatch.model.MetricDatum;
+import com.amazonaws.services.cloudwatch.model.PutMetricDataRequest;
+import com.amazonaws.services.cloudwatch.model.PutMetricDataResult;
+import com.amazonaws.services.cloudwatch.model.StatisticSet;
+import com.google.common.util.concurrent.RateLimiter;
+import com.heliosapm.aws.threads.SharedThreadPoolService;
+
+/**
+ * <p>Title: MetricSpool</p>
+ * <p>Description: A bounded spool of memory-mapped segment files that <b><code>PutMetricData</code></b> batches
+ * are written to when CloudWatch is throttling or unreachable, and replayed from at a rate-limited pace once it
+ * recovers, so an outage neither loses the data nor causes a retry storm when the service comes back.</p>
+ * <p>While the spool has a backlog, new batches are appended to it rather than sent, which keeps them in order.
+ * A probe on the shared scheduler starts a replay on the shared thread pool whenever there is a backlog, and the
+ * replay stops at the first retryable failure. Batches failing with a non-retryable error are dropped.</p>
+ * <p>Each record is an int length, a state byte and the encoded batch. The length is written last so a record
+ * interrupted by a crash is ignored when the segments are recovered on the next start. Once every segment is in
+ * use, the oldest is discarded along with its pending batches.</p>
+ * <p>Each JVM locks the spool directory, or the first unlocked <b><code>slot-&lt;n&gt;</code></b> sub-directory
+ * if another JVM holds it, so a restarted JVM reuses a slot rather than spooling somewhere nothing replays from.
+ * On start, a spool also takes over the segments of any sibling directory that is no longer locked.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.aws.metrics.MetricSpool</code></p>
+ */
+
+public class MetricSpool {
+	/** The record header size: the int length and the state byte */
+	private static final int HEADER_SIZE = 5;
+	/** The state of a record waiting to be replayed */
+	private static final byte PENDING = 0;
+	/** The state of a replayed or dropped record */
+	private static final byte CONSUMED = 1;
+	/** The datum kind with a single value */
+	private static final byte KIND_VALUE = 0;
+	/** The datum kind with a statistic set */
+	private static final byte KIND_STATISTICS = 1;
+	/** The datum kind with values and their counts */
+	private static final byte KIND_DISTRIBUTION = 2;
+	/** The segment file name pattern */
+	private static final Pattern SEGMENT_NAME = Pattern.compile("spool-(\\d+)\\.seg");
+	/** The lock file name */
+	private static final String LOCK_NAME = "spool.lock";
+	/** The name prefix of the sub-directories used by JVMs sharing a spool directory */
+	private static final String SLOT_PREFIX = "slot-";
+	/** The maximum number of JVMs sharing a spool directory */
+	private static final int MAX_SLOTS = 64;
+	/** The status code of a throttled request */
+	private static final int STATUS_THROTTLED = 429;
+	/** The error codes of throttled requests */
+	private static final Set<String> THROTTLING_CODES = new HashSet<String>(Arrays.asList(
+		"Throttling", "ThrottlingException", "ThrottledException", "RequestThrottled", "RequestThrottledException",
+		"TooManyRequestsException", "RequestLimitExceeded", "BandwidthLimitExceeded", "SlowDown", "PriorRequestNotComplete"
+	));
+	/** The error codes of requests signed with a skewed clock, which the client corrects on the next attempt */
+	private static final Set<String> CLOCK_SKEW_CODES = new HashSet<String>(Arrays.asList(
+		"RequestTimeTooSkewed", "RequestExpired", "RequestInTheFuture", "InvalidSignatureException", "SignatureDoesNotMatch", "AuthFailure"
+	));
+
+	/** The configured spool directory */
+	private final File root;
+	/** The spool directory locked by this spool, the configured directory or one of its slots */
+	private final File dir;
+	/** The size of each segment in bytes */
+	private final int segmentSize;
+	/** The maximum number of segments */
+	private final int maxSegments;
+	/** The CloudWatch client */
+	private final AmazonCloudWatchAsync client;
+	/** The handler notified of each batch's outcome */
+	private final AsyncHandler<PutMetricDataRequest, PutMetricDataResult> handler;
+	/** Paces the replay */
+	private final RateLimiter replayLimiter;
+	/** The segments, oldest first */
+	private final ArrayDeque<Segment> segments = new ArrayDeque<Segment>();
+	/** The lock on the spool directory, held for the life of the JVM */
+	private final FileLock dirLock;
+	/** Set while a replay is running */
+	private final AtomicBoolean replaying = new AtomicBoolean(false);
+	/** The number of pending records */
+	private final AtomicLong pending = new AtomicLong(0L);
+	/** The number of batches spooled */
+	private final AtomicLong spooled = new AtomicLong(0L);
+	/** The number of batches replayed */
+	private final AtomicLong replayed = new AtomicLong(0L);
+	/** The number of batches dropped, either discarded with a full spool or rejected on replay */
+	private final AtomicLong dropped = new AtomicLong(0L);
+	/** The next segment sequence */
+	private long nextSequence = 0L;
+	/** The scheduled replay probe handle */
+	private volatile ScheduledFuture<?> handle = null;
+
+	/**
+	 * Creates a new MetricSpool, recovering any segments left in the directory by a previous run and taking over
+	 * those of unlocked siblings. If the directory is locked by another JVM, the first unlocked slot is used.
+	 * @param dir The spool directory
+	 * @param segmentSize The size of each segment in bytes
+	 * @param maxSegments The maximum number of segments
+	 * @param replayRate The maximum number of batches replayed per second
+	 * @param client The CloudWatch client
+	 * @param handler The handler notified of each batch's outcome
+	 * @throws IOException thrown if the directory cannot be created or the segments cannot be mapped
+	 */
+	public MetricSpool(final File dir, final int segmentSize, final int maxSegments, final double replayRate, final AmazonCloudWatchAsync client, final AsyncHandler<PutMetricDataRequest, PutMetricDataResult> handler) throws IOException {
+		if(dir==null) throw new IllegalArgumentException("The passed directory was null");
+		if(client==null) throw new IllegalArgumentException("The passed client was null");
+		if(handler==null) throw new IllegalArgumentException("The passed handler was null");
+		if(segmentSize < 1024) throw new IllegalArgumentException("Invalid segment size [" + segmentSize + "]");
+		if(maxSegments < 1) throw new IllegalArgumentException("Invalid maximum segments [" + maxSegments + "]");
+		if(replayRate <= 0D) throw new IllegalArgumentException("Invalid replay rate [" + replayRate + "]");
+		this.segmentSize = segmentSize;
+		this.maxSegments = maxSegments;
+		this.client = client;
+		this.handler = handler;
+		replayLimiter = RateLimiter.create(replayRate);
+		FileLock lock = lock(dir);
+		File own = dir;
+		for(int slot = 1; lock==null && slot <= MAX_SLOTS; slot++) {
+			own = new File(dir, SLOT_PREFIX + slot);
+			lock = lock(own);
+		}
+		if(lock==null) throw new IOException("All [" + MAX_SLOTS + "] slots of spool directory [" + dir + "] are locked");
+		root = dir;
+		this.dir = own;
+		dirLock = lock;
+		recover();
+	}
+
+	private static FileLock lock(final File dir) throws IOException {
+		if(!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Failed to create spool directory [" + dir + "]");
+		@SuppressWarnings("resource")
+		final FileChannel channel = new RandomAccessFile(new File(dir, LOCK_NAME), "rw").getChannel();
+		FileLock lock = null;
+		try {
+			lock = channel.tryLock();
+		} catch (OverlappingFileLockException ex) {
+			/* locked by another spool in this JVM */
+		}
+		if(lock==null) channel.close();
+		return lock;
+	}
+
+	/**
+	 * Maps the segments left by a previous run, then those of the unlocked sibling directories, which are moved
+	 * into this spool's directory, and counts their pending records
+	 * @throws IOException thrown if a segment cannot be mapped
+	 */
+	private synchronized void recover() throws IOException {
+		for(long sequence: sequences(dir)) {
+			nextSequence = sequence + 1;
+			restore(sequence);
+		}
+		final List<File> siblings = new ArrayList<File>();
+		if(!dir.equals(root)) siblings.add(root);
+		final File[] subDirs = root.listFiles();
+		if(subDirs!=null) {
+			for(File subDir: subDirs) {
+				if(subDir.isDirectory() && !subDir.equals(dir)) siblings.add(subDir);
+			}
+		}
+		for(File sibling: siblings) {
+			final long[] sequences = sequences(sibling);
+			if(sequences.length==0) continue;
+			final FileLock lock = lock(sibling);
+			if(lock==null) continue;
+			try {
+				for(long sequence: sequences) {
+					final long adopted = nextSequence++;
+					if(new File(sibling, String.format("spool-%020d.seg", sequence)).renameTo(segmentFile(adopted))) {
+						restore(adopted);
+					}
+				}
+			} finally {
+				try { lock.channel().close(); } catch (Exception x) {/* No Op */}
+			}
+		}
+		while(segments.size() > maxSegments) discardOldest();
+	}
+
+	/**
+	 * Maps a recovered segment, deleting it if it has no pending records
+	 * @param sequence The segment sequence
+	 * @throws IOException thrown if the segment cannot be mapped
+	 */
+	private void restore(final long sequence) throws IOException {
+		final Segment segment = new Segment(sequence, segmentFile(sequence), 0);
+		segment.recover();
+		if(segment.pending==0) {
+			segment.delete();
+		} else {
+			segments.addLast(segment);
+			pending.addAndGet(segment.pending);
+		}
+	}
+
+	/**
+	 * Returns the sequences of the segment files in the passed directory
+	 * @param d The directory
+	 * @return the sequences in ascending order
+	 */
+	private static long[] sequences(final File d) {
+		final File[] files = d.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(final File parent, final String name) {
+				return SEGMENT_NAME.matcher(name).matches();
+			}
+		});
+		if(files==null) return new long[0];
+		final long[] sequences = new long[files.length];
+		for(int i = 0; i < files.length; i++) {
+			final Matcher m = SEGMENT_NAME.matcher(files[i].getName());
+			m.matches();
+			sequences[i] = Long.parseLong(m.group(1));
+		}
+		Arrays.sort(sequences);
+		return sequences;
+	}
+
+	private File segmentFile(final long sequence) {
+		return new File(dir, String.format("spool-%020d.seg", sequence));
+	}
+
+	/**
+	 * Starts the probe that replays the backlog
+	 * @param period The probe period
+	 * @param unit The probe period unit
+	 */
+	public synchronized void start(final long period, final TimeUnit unit) {
+		if(handle!=null) return;
+		final ExecutorService executor = SharedThreadPoolService.getInstance().newExecutor();
+		final Runnable replay = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					replay();
+				} finally {
+					replaying.set(false);
+				}
+			}
+		};
+		handle = SharedThreadPoolService.getInstance().getScheduler().scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				if(pending.get() > 0 && replaying.compareAndSet(false, true)) {
+					try {
+						executor.execute(replay);
+					} catch (Exception ex) {
+						replaying.set(false);
+					}
+				}
+			}
+		}, period, period, unit);
+	}
+
+	/**
+	 * Stops the replay probe. The spooled batches stay on disk.
+	 */
+	public synchronized void stop() {
+		final ScheduledFuture<?> h = handle;
+		if(h!=null) {
+			h.cancel(false);
+			handle = null;
+		}
+	}
+
+	/**
+	 * Sends the passed batch, or spools it if there is a backlog. The batch is also spooled if sending it fails
+	 * with a retryable error.
+	 * @param request The batch to send
+	 */
+	public void submit(final PutMetricDataRequest request) {
+		if(isBacklogged()) {
+			append(request);
+			return;
+		}
+		try {
+			client.putMetricDataAsync(request, new AsyncHandler<PutMetricDataRequest, PutMetricDataResult>() {
+				@Override
+				public void onError(final Exception ex) {
+					if(retryable(ex)) append(request);
+					handler.onError(ex);
+				}
+				@Override
+				public void onSuccess(final PutMetricDataRequest req, final PutMetricDataResult result) {
+					handler.onSuccess(req, result);
+				}
+			});
+		} catch (Exception ex) {
+			if(retryable(ex)) append(request);
+			handler.onError(ex);
+		}
+	}
+
+	/**
+	 * Appends the passed batch to the spool, discarding the oldest segment if every segment is in use
+	 * @param request The batch to append
+	 * @return true if the batch was spooled, false if it could not be encoded, was too large or could not be written
+	 */
+	public synchronized boolean append(final PutMetricDataRequest request) {
+		final byte[] payload;
+		try {
+			payload = encode(request);
+		} catch (Exception ex) {
+			dropped.incrementAndGet();
+			return false;
+		}
+		if(payload.length + HEADER_SIZE > segmentSize) {
+			dropped.incrementAndGet();
+			return false;
+		}
+		try {
+			Segment segment = segments.peekLast();
+			if(segment==null || !segment.fits(payload.length)) {
+				if(segments.size()==maxSegments) discardOldest();
+				segment = new Segment(nextSequence++, segmentFile(nextSequence - 1), segmentSize);
+				segments.addLast(segment);
+			}
+			segment.append(payload);
+		} catch (IOException iex) {
+			dropped.incrementAndGet();
+			return false;
+		}
+		pending.incrementAndGet();
+		spooled.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Replays the backlog, oldest first, until it is empty or a retryable failure occurs
+	 */
+	private void replay() {
+		while(true) {
+			final byte[] payload;
+			final Segment segment;
+			final int position;
+			synchronized(this) {
+				payload = peek();
+				if(payload==null) return;
+				segment = segments.peekFirst();
+				position = segment.readPosition;
+			}
+			PutMetricDataRequest request = null;
+			try {
+				request = decode(payload);
+			} catch (Exception ex) {
+				/* corrupt record, dropped below */
+			}
+			if(request!=null) {
+				replayLimiter.acquire();
+				try {
+					final PutMetricDataResult result = client.putMetricData(request);
+					replayed.incrementAndGet();
+					handler.onSuccess(request, result);
+				} catch (Exception ex) {
+					handler.onError(ex);
+					if(retryable(ex)) return;
+					dropped.incrementAndGet();
+				}
+			} else {
+				dropped.incrementAndGet();
+			}
+			synchronized(this) {
+				consume(segment, position);
+			}
+		}
+	}
+
+	/**
+	 * Returns the oldest pending record's payload
+	 * @return the payload or null if there is no backlog
+	 */
+	private byte[] peek() {
+		while(true) {
+			final Segment segment = segments.peekFirst();
+			if(segment==null) return null;
+			final byte[] payload = segment.peek();
+			if(payload!=null || segments.size()==1) return payload;
+			// a drained segment ahead of the backlog
+			segments.removeFirst();
+			segment.delete();
+		}
+	}
+
+	/**
+	 * Marks the replayed record consumed, deleting its segment once every record in it is consumed
+	 * and it is no longer being written to
+	 * @param segment The segment of the replayed record
+	 * @param position The position of the replayed record
+	 */
+	private void consume(final Segment segment, final int position) {
+		// the segment may have been discarded while the record was replayed
+		if(segments.peekFirst()!=segment || segment.readPosition!=position || !segment.consume()) return;
+		pending.decrementAndGet();
+		if(segment.pending==0 && (segments.size() > 1 || !segment.fits(0))) {
+			segments.removeFirst();
+			segment.delete();
+		}
+	}
+
+	/**
+	 * Discards the oldest segment and its pending records
+	 */
+	private void discardOldest() {
+		final Segment segment = segments.pollFirst();
+		if(segment==null) return;
+		pending.addAndGet(-segment.pending);
+		dropped.addAndGet(segment.pending);
+		segment.delete();
+	}
+
+	/**
+	 * Determines if the passed failure is worth retrying
+	 * @param ex The failure
+	 * @return true for throttling, clock skew, server and client side failures, false for rejected requests
+	 */
+	static boolean retryable(final Exception ex) {
+		if(ex instanceof AmazonServiceException) {
+			final AmazonServiceException ase = (AmazonServiceException)ex;
+			final int status = ase.getStatusCode();
+			final String code = ase.getErrorCode();
+			return status >= 500 || status==STATUS_THROTTLED
+				|| (code!=null && (THROTTLING_CODES.contains(code) || CLOCK_SKEW_CODES.contains(code)));
+		}
+		return true;
+	}
+
+	/**
+	 * Encodes the passed batch
+	 * @param request The batch
+	 * @return the encoded batch
+	 * @throws IOException will not be thrown
+	 */
+	static byte[] encode(final PutMetricDataRequest request) throws IOException {
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream(1024);
+		final DataOutputStream out = new DataOutputStream(baos);
+		out.writeUTF(request.getNamespace());
+		final List<MetricDatum> data = request.getMetricData();
+		out.writeShort(data.size());
+		for(MetricDatum datum: data) {
+			out.writeUTF(datum.getMetricName());
+			final List<Dimension> dimensions = datum.getDimensions();
+			out.writeShort(dimensions.size());
+			for(Dimension dimension: dimensions) {
+				out.writeUTF(dimension.getName());
+				out.writeUTF(dimension.getValue());
+			}
+			out.writeLong(datum.getTimestamp()==null ? -1L : datum.getTimestamp().getTime());
+			out.writeUTF(datum.getUnit()==null ? "" : datum.getUnit());
+			final StatisticSet statistics = datum.getStatisticValues();
+			final List<Double> values = datum.getValues();
+			if(!values.isEmpty()) {
+				final List<Double> counts = datum.getCounts();
+				out.writeByte(KIND_DISTRIBUTION);
+				out.writeShort(values.size());
+				for(int v = 0; v < values.size(); v++) {
+					out.writeDouble(values.get(v));
+					// CloudWatch counts each value once when the counts are omitted
+					out.writeDouble(counts.isEmpty() ? 1D : counts.get(v));
+				}
+			} else if(statistics==null) {
+				out.writeByte(KIND_VALUE);
+				out.writeDouble(datum.getValue());
+			} else {
+				out.writeByte(KIND_STATISTICS);
+				out.writeDouble(statistics.getSampleCount());
+				out.writeDouble(statistics.getSum());
+				out.writeDouble(statistics.getMinimum());
+				out.writeDouble(statistics.getMaximum());
+			}
+		}
+		out.flush();
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Decodes a batch
+	 * @param payload The encoded batch
+	 * @return the batch
+	 * @throws IOException thrown if the payload is truncated
+	 */
+	static PutMetricDataRequest decode(final byte[] payload) throws IOException {
+		final DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+		final String namespace = in.readUTF();
+		final int size = in.readShort();
+		final List<MetricDatum> data = new ArrayList<MetricDatum>(size);
+		for(int i = 0; i < size; i++) {
+			final MetricDatum datum = new MetricDatum().withMetricName(in.readUTF());
+			final int dimensions = in.readShort();
+			for(int d = 0; d < dimensions; d++) {
+				datum.withDimensions(new Dimension().withName(in.readUTF()).withValue(in.readUTF()));
+			}
+			final long timestamp = in.readLong();
+			if(timestamp!=-1L) datum.setTimestamp(new Date(timestamp));
+			final String unit = in.readUTF();
+			if(!unit.isEmpty()) datum.setUnit(unit);
+			final byte kind = in.readByte();
+			if(kind==KIND_VALUE) {
+				datum.setValue(in.readDouble());
+			} else if(kind==KIND_DISTRIBUTION) {
+				final int n = in.readShort();
+				final List<Double> values = new ArrayList<Double>(n);
+				final List<Double> counts = new ArrayList<Double>(n);
+				for(int v = 0; v < n; v++) {
+					values.add(in.readDouble());
+					counts.add(in.readDouble());
+				}
+				datum.withValues(values).withCounts(counts);
+			} else {
+				datum.setStatisticValues(new StatisticSet().withSampleCount(in.readDouble()).withSum(in.readDouble())
+					.withMinimum(in.readDouble()).withMaximum(in.readDouble()));
+			}
+			data.add(datum);
+		}
+		return new PutMetricDataRequest().withNamespace(namespace).withMetricData(data);
+	}
+
+	/**
+	 * Indicates if there are spooled batches waiting to be replayed
+	 * @return true if there is a backlog
+	 */
+	public boolean isBacklogged() {
+		return pending.get() > 0;
+	}
+
+	/**
+	 * Returns the number of batches waiting to be replayed
+	 * @return the number of pending batches
+	 */
+	public long getPendingCount() {
+		return pending.get();
+	}
+
+	/**
+	 * Returns the number of batches spooled
+	 * @return the number of spooled batches
+	 */
+	public long getSpooledCount() {
+		return spooled.get();
+	}
+
+	/**
+	 * Returns the number of batches replayed
+	 * @return the number of replayed batches
+	 */
+	public long getReplayedCount() {
+		return replayed.get();
+	}
+
+	/**
+	 * Returns the number of batches dropped
+	 * @return the number of dropped batches
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	/**
+	 * Returns the spool directory
+	 * @return the spool directory
+	 */
+	public File getDirectory() {
+		return dir;
+	}
+
+	@Override
+	public String toString() {
+		return "MetricSpool [dir=" + dir + ", pending=" + pending.get() + ", spooled=" + spooled.get() + ", replayed=" + replayed.get() + ", dropped=" + dropped.get() + "]";
+	}
+
+	/**
+	 * <p>Title: Segment</p>
+	 * <p>Description: One memory-mapped segment file. Records are appended at the write position and consumed
+	 * from the read position.</p>
+	 */
+	private static class Segment {
+		/** The segment sequence */
+		final long sequence;
+		/** The segment file */
+		final File file;
+		/** The mapped segment */
+		final MappedByteBuffer buffer;
+		/** The position the next record is written at */
+		int writePosition = 0;
+		/** The position of the oldest pending record */
+		int readPosition = 0;
+		/** The number of pending records */
+		int pending = 0;
+
+		/**
+		 * Maps a segment file, creating it if required
+		 * @param sequence The segment sequence
+		 * @param file The segment file
+		 * @param size The size to create the file with, or zero to map an existing file at its current size
+		 * @throws IOException thrown if the file cannot be mapped
+		 */
+		Segment(final long sequence, final File file, final int size) throws IOException {
+			this.sequence = sequence;
+			this.file = file;
+			final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				if(size > 0) raf.setLength(size);
+				buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+			} finally {
+				raf.close();
+			}
+		}
+
+		/**
+		 * Scans the segment for its write position and pending records
+		 */
+		void recover() {
+			int position = 0;
+			boolean foundPending = false;
+			final int limit = buffer.capacity();
+			while(position + HEADER_SIZE <= limit) {
+				final int length = buffer.getInt(position);
+				if(length <= 0 || position + HEADER_SIZE + length > limit) break;
+				if(buffer.get(position + 4)==PENDING) {
+					if(!foundPending) {
+						readPosition = position;
+						foundPending = true;
+					}
+					pending++;
+				}
+				position += HEADER_SIZE + length;
+			}
+			writePosition = position;
+			if(!foundPending) readPosition = position;
+		}
+
+		boolean fits(final int length) {
+			return writePosition + HEADER_SIZE + length <= buffer.capacity();
+		}
+
+		/**
+		 * Appends a record, writing the length last so a partial record is never read back
+		 * @param payload The record payload
+		 */
+		void append(final byte[] payload) {
+			final int position = writePosition;
+			buffer.position(position + HEADER_SIZE);
+			buffer.put(payload);
+			buffer.put(position + 4, PENDING);
+			buffer.putInt(position, payload.length);
+			writePosition = position + HEADER_SIZE + payload.length;
+			pending++;
+		}
+
+		/**
+		 * Returns the payload of the oldest pending record
+		 * @return the payload or null if there are none
+		 */
+		byte[] peek() {
+			skipConsumed();
+			if(pending==0 || readPosition >= writePosition) return null;
+			final byte[] payload = new byte[buffer.getInt(readPosition)];
+			for(int i = 0; i < payload.length; i++) payload[i] = buffer.get(readPosition + HEADER_SIZE + i);
+			return payload;
+		}
+
+		/**
+		 * Marks the oldest pending record consumed
+		 * @return true if a record was consumed
+		 */
+		boolean consume() {
+			skipConsumed();
+			if(pending==0 || readPosition >= writePosition) return false;
+			buffer.put(readPosition + 4, CONSUMED);
+			readPosition += HEADER_SIZE + buffer.getInt(readPosition);
+			pending--;
+			return true;
+		}
+
+		private void skipConsumed() {
+			while(readPosition < writePosition && buffer.get(readPosition + 4)==CONSUMED) {
+				readPosition += HEADER_SIZE + buffer.getInt(readPosition);
+			}
+		}
+
+		/**
+		 * Deletes the segment file. The mapping is released when the buffer is collected.
+		 */
+		void delete() {
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,216 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.aws.metrics;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.heliosapm.aws.threads.SharedThreadPoolService;
+
+/**
+ * <p>Title: SampledGauge</p>
+ * <p>Description: Gauge whose source is sampled periodically on the shared thread pool, so {@link #getValue()}
+ * returns the last sample without blocking the JMX or reporter thread reading it. The first scheduled sample
+ * is offset by a random fraction of the period so gauges registered together are not sampled together.</p>
+ * <p>A sample still running when its time budget expires is interrupted, its result is discarded, the last
+ * sample is retained and the overrun counter is incremented. No new sample starts until the overrunning one
+ * has actually returned, so a source that ignores the interrupt stops being sampled rather than tying up
+ * another pool thread every period. A sample that fails also retains the last sample.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.aws.metrics.SampledGauge</code></p>
+ */
+
+public class SampledGauge<T> implements Gauge<T> {
+	/** The state of a sample that has not started */
+	private static final int NEW = 0;
+	/** The state of a sample calling the source */
+	private static final int RUNNING = 1;
+	/** The state of a sample that completed within its budget */
+	private static final int DONE = 2;
+	/** The state of a sample that overran its budget */
+	private static final int EXPIRED = 3;
+
+	/** The sampled source */
+	private final Callable<T> source;
+	/** The sampling period in ms. */
+	private final long period;
+	/** The time budget of one sample in ms. */
+	private final long budget;
+	/** The counter incremented when a sample overruns its budget */
+	private final Counter overruns;
+	/** The executor samples run on */
+	private final ExecutorService executor = SharedThreadPoolService.getInstance().newExecutor();
+	/** The scheduler sampling and budgets are timed on */
+	private final ScheduledExecutorService scheduler = SharedThreadPoolService.getInstance().getScheduler();
+	/** The submitted or running sample, null if none. Cleared once the sample has returned or was expired before starting. */
+	private final AtomicReference<Sample> running = new AtomicReference<Sample>(null);
+	/** Starts a sample */
+	private final Runnable tick = new Runnable() {
+		@Override
+		public void run() {
+			sample();
+		}
+	};
+	/** The last sample, null until the first completes */
+	private volatile T value = null;
+	/** The scheduled sampling handle */
+	private ScheduledFuture<?> handle = null;
+
+	/**
+	 * Creates a new SampledGauge. The gauge is not sampled until started.
+	 * @param source The sampled source
+	 * @param period The sampling period
+	 * @param budget The time budget of one sample, capped at the period
+	 * @param unit The unit of the period and budget
+	 * @param overruns The counter incremented when a sample overruns its budget
+	 */
+	public SampledGauge(final Callable<T> source, final long period, final long budget, final TimeUnit unit, final Counter overruns) {
+		if(source==null) throw new IllegalArgumentException("The passed source was null");
+		if(unit==null) throw new IllegalArgumentException("The passed unit was null");
+		if(overruns==null) throw new IllegalArgumentException("The passed overruns counter was null");
+		if(period < 1) throw new IllegalArgumentException("Invalid period [" + period + "]");
+		if(budget < 1) throw new IllegalArgumentException("Invalid budget [" + budget + "]");
+		this.source = source;
+		this.period = Math.max(1L, unit.toMillis(period));
+		this.budget = Math.min(this.period, Math.max(1L, unit.toMillis(budget)));
+		this.overruns = overruns;
+	}
+
+	/**
+	 * Returns the last sample
+	 * @return the last sample, or null if no sample has completed
+	 * @see com.codahale.metrics.Gauge#getValue()
+	 */
+	@Override
+	public T getValue() {
+		return value;
+	}
+
+	/**
+	 * Takes a first sample and schedules the rest. Subsequent calls are ignored.
+	 * @return this gauge
+	 */
+	public synchronized SampledGauge<T> start() {
+		if(handle==null) {
+			sample();
+			handle = scheduler.scheduleAtFixedRate(tick, ThreadLocalRandom.current().nextLong(period), period, TimeUnit.MILLISECONDS);
+		}
+		return this;
+	}
+
+	/**
+	 * Stops sampling. The last sample is retained.
+	 */
+	public synchronized void stop() {
+		if(handle!=null) {
+			handle.cancel(false);
+			handle = null;
+		}
+	}
+
+	/**
+	 * Starts a sample and its budget unless one is running
+	 */
+	private void sample() {
+		final Sample sample = new Sample();
+		if(!running.compareAndSet(null, sample)) return;
+		try {
+			sample.watchdog = scheduler.schedule(sample.expire, budget, TimeUnit.MILLISECONDS);
+			sample.future = executor.submit(sample);
+		} catch (Exception ex) {
+			running.compareAndSet(sample, null);
+			final ScheduledFuture<?> w = sample.watchdog;
+			if(w!=null) w.cancel(false);
+		}
+	}
+
+	/**
+	 * <p>Title: Sample</p>
+	 * <p>Description: One sample of the source and its budget</p>
+	 */
+	private class Sample implements Runnable {
+		/** The sample state */
+		final AtomicInteger state = new AtomicInteger(NEW);
+		/** The submitted sample */
+		volatile Future<?> future = null;
+		/** The scheduled budget expiry */
+		volatile ScheduledFuture<?> watchdog = null;
+		/** Expires the sample if it has not completed */
+		final Runnable expire = new Runnable() {
+			@Override
+			public void run() {
+				if(state.compareAndSet(NEW, EXPIRED)) {
+					// never started, so nothing else will clear it
+					overruns.inc();
+					final Future<?> f = future;
+					if(f!=null) f.cancel(false);
+					running.compareAndSet(Sample.this, null);
+				} else if(state.compareAndSet(RUNNING, EXPIRED)) {
+					// cleared by the sample once the source returns
+					overruns.inc();
+					final Future<?> f = future;
+					if(f!=null) f.cancel(true);
+				}
+			}
+		};
+
+		@Override
+		public void run() {
+			if(!state.compareAndSet(NEW, RUNNING)) return;
+			try {
+				final T v = source.call();
+				if(state.compareAndSet(RUNNING, DONE)) value = v;
+			} catch (Exception ex) {
+				state.compareAndSet(RUNNING, DONE);
+			} finally {
+				final ScheduledFuture<?> w = watchdog;
+				if(w!=null) w.cancel(false);
+				running.compareAndSet(this, null);
+			}
+		}
+	}
+
+	/**
+	 * Returns the sampling period in ms.
+	 * @return the sampling period
+	 */
+	public long getPeriod() {
+		return period;
+	}
+
+	/**
+	 * Returns the time budget of one sample in ms.
+	 * @return the time budget
+	 */
+	public long getBudget() {
+		return budget;
+	}
+
+	/**
+	 * Returns the number of samples that overran their budget
+	 * @return the overrun count
+	 */
+	public long getOverrunCount() {
+		return overruns.getCount();
+	}
+}
@@ -0,0 +1,155 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.aws.metrics;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.ScheduledReporter;
+import com.codahale.metrics.Snapshot;
+import com.heliosapm.aws.threads.SharedThreadPoolService;
+
+/**
+ * <p>Title: SharedScheduledReporter</p>
+ * <p>Description: Base for reporters scheduled on the shared scheduler and run on the shared thread pool.
+ * {@link #stop()} cancels the schedule rather than shutting the shared executor down, and a report is
+ * skipped if the previous one is still running.</p>
+ * <p>Reports run just after each clock-aligned boundary of the period, the boundaries {@link HdrReservoir}s of
+ * the same interval rotate at, and each timer or histogram interval is reported once, see
+ * {@link #interval(String, long, Snapshot, int, double)}.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.aws.metrics.SharedScheduledReporter</code></p>
+ */
+
+public abstract class SharedScheduledReporter extends ScheduledReporter {
+	/** The most a report trails its clock-aligned boundary in ms., leaving the reservoirs time to rotate first */
+	public static final long MAX_REPORT_LAG = 1000L;
+
+	/** The cumulative counts of the counters, meters, timers and histograms at the last report, keyed by name */
+	private final ConcurrentHashMap<String, Long> lastCounts = new ConcurrentHashMap<String, Long>();
+	/** The end time of the last reported {@link HdrSnapshot} interval, keyed by name */
+	private final ConcurrentHashMap<String, Long> lastIntervals = new ConcurrentHashMap<String, Long>();
+	/** Guards against overlapping reports */
+	private final AtomicBoolean reporting = new AtomicBoolean(false);
+	/** The scheduled report handle */
+	private volatile ScheduledFuture<?> handle = null;
+
+	/**
+	 * Creates a new SharedScheduledReporter
+	 * @param registry The registry to report
+	 * @param name The reporter name
+	 * @param rateUnit The unit rates are converted to
+	 * @param durationUnit The unit durations are converted to
+	 */
+	protected SharedScheduledReporter(final MetricRegistry registry, final String name, final TimeUnit rateUnit, final TimeUnit durationUnit) {
+		super(registry, name, MetricFilter.ALL, rateUnit, durationUnit, SharedThreadPoolService.getInstance().getScheduler());
+	}
+
+	/**
+	 * Called when a scheduled report fails
+	 * @param ex The failure
+	 */
+	protected abstract void onReportError(final Exception ex);
+
+	/**
+	 * Records the passed cumulative count as the last reported and returns the change since the previous one
+	 * @param name The metric name
+	 * @param count The cumulative count
+	 * @return the change since the last report, or the count on the first report
+	 */
+	protected long delta(final String name, final long count) {
+		final Long prior = lastCounts.put(name, count);
+		return prior==null ? count : count - prior;
+	}
+
+	/**
+	 * Returns the distribution of a timer or histogram's interval that has not been reported yet. An
+	 * {@link HdrSnapshot} covers exactly one reservoir interval and its own total count is the interval's count,
+	 * so each interval is reported once however the report falls against the rotation. For any other snapshot
+	 * the interval's count is the change in the cumulative count, which is only recorded as reported once there
+	 * is a distribution to report it with.
+	 * @param name The metric name
+	 * @param count The cumulative event count
+	 * @param snapshot The metric's snapshot
+	 * @param maxValues The maximum number of distinct values
+	 * @param scale The factor applied to each value
+	 * @return the distribution or null if there is nothing to report
+	 */
+	protected Distribution interval(final String name, final long count, final Snapshot snapshot, final int maxValues, final double scale) {
+		if(snapshot instanceof HdrSnapshot) {
+			final HdrSnapshot hdr = (HdrSnapshot)snapshot;
+			final Long reported = lastIntervals.put(name, hdr.getEndTime());
+			if(reported!=null && reported.longValue()==hdr.getEndTime()) return null;
+			return Distribution.of(hdr, hdr.getTotalCount(), maxValues, scale);
+		}
+		final Long prior = lastCounts.get(name);
+		final Distribution distribution = Distribution.of(snapshot, prior==null ? count : count - prior, maxValues, scale);
+		if(distribution!=null) lastCounts.put(name, count);
+		return distribution;
+	}
+
+	/**
+	 * Starts the reports at the next clock-aligned boundary of the period, trailing it by a tenth of the period,
+	 * at most {@link #MAX_REPORT_LAG} ms.
+	 * @see com.codahale.metrics.ScheduledReporter#start(long, java.util.concurrent.TimeUnit)
+	 */
+	@Override
+	public synchronized void start(final long period, final TimeUnit unit) {
+		if(handle!=null) return;
+		final long periodMs = Math.max(1L, unit.toMillis(period));
+		final ExecutorService executor = SharedThreadPoolService.getInstance().newExecutor();
+		final Runnable report = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					report();
+				} catch (Exception ex) {
+					onReportError(ex);
+				} finally {
+					reporting.set(false);
+				}
+			}
+		};
+		handle = SharedThreadPoolService.getInstance().getScheduler().scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				if(reporting.compareAndSet(false, true)) {
+					try {
+						executor.execute(report);
+					} catch (Exception ex) {
+						reporting.set(false);
+					}
+				}
+			}
+		}, periodMs - System.currentTimeMillis() % periodMs + Math.min(periodMs / 10, MAX_REPORT_LAG), periodMs, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.codahale.metrics.ScheduledReporter#stop()
+	 */
+	@Override
+	public synchronized void stop() {
+		final ScheduledFuture<?> h = handle;
+		if(h!=null) {
+			h.cancel(false);
+			handle = null;
+		}
+	}
+}
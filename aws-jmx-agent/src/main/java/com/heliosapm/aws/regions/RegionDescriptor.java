@@ -0,0 +1,211 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.aws.regions;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.client.builder.AwsClientBuilder.EndpointConfiguration;
+import com.amazonaws.regions.Region;
+import com.amazonaws.regions.Regions;
+import com.heliosapm.utils.config.ConfigurationHelper;
+
+/**
+ * <p>Title: RegionDescriptor</p>
+ * <p>Description: Immutable, resolved once description of a region and the endpoints of the services the agent
+ * and hub use in it, so client builders don't each resolve the region and its endpoints.</p>
+ * <p>A service endpoint can be overridden, e.g. to use a VPC interface endpoint, with
+ * <b><code>com.heliosapm.aws.endpoint.&lt;region&gt;.&lt;service&gt;</code></b>, where the service is the endpoint
+ * prefix such as <b><code>sqs</code></b>. There is no override for all regions since a VPC endpoint only serves
+ * its own region, and a process such as the hub builds clients for several. Overrides are read when the descriptor
+ * is first created.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.aws.regions.RegionDescriptor</code></p>
+ */
+
+public class RegionDescriptor {
+	/** The SQS service endpoint prefix */
+	public static final String SQS = "sqs";
+	/** The S3 service endpoint prefix */
+	public static final String S3 = "s3";
+	/** The CloudWatch service endpoint prefix */
+	public static final String CLOUDWATCH = "monitoring";
+	/** The STS service endpoint prefix */
+	public static final String STS = "sts";
+	/** The services the endpoint map is precomputed for */
+	public static final String[] SERVICES = {SQS, S3, CLOUDWATCH, STS};
+	/** The system property key prefix of the endpoint overrides */
+	public static final String ENDPOINT_OVERRIDE_PREFIX = "com.heliosapm.aws.endpoint.";
+
+	/** The descriptors keyed by region name */
+	private static final ConcurrentHashMap<String, RegionDescriptor> descriptors = new ConcurrentHashMap<String, RegionDescriptor>();
+
+	/** The region */
+	private final Region region;
+	/** The region name */
+	private final String name;
+	/** The partition */
+	private final String partition;
+	/** The domain */
+	private final String domain;
+	/** The names of the services with an endpoint in the region */
+	private final String[] availableEndpoints;
+	/** The service endpoint URLs keyed by the service endpoint prefix */
+	private final Map<String, String> serviceEndpoints;
+
+	/**
+	 * Returns the descriptor for the named region
+	 * @param regionName The region name, e.g. <b><code>us-east-1</code></b>
+	 * @return the descriptor
+	 * @throws IllegalArgumentException if the region name is not recognized
+	 */
+	public static RegionDescriptor forRegion(final String regionName) {
+		if(regionName==null || regionName.trim().isEmpty()) throw new IllegalArgumentException("The passed region name was null or empty");
+		final String key = regionName.trim().toLowerCase();
+		RegionDescriptor rd = descriptors.get(key);
+		if(rd==null) {
+			rd = new RegionDescriptor(Region.getRegion(Regions.fromName(key)));
+			final RegionDescriptor prior = descriptors.putIfAbsent(key, rd);
+			if(prior!=null) rd = prior;
+		}
+		return rd;
+	}
+
+	/**
+	 * Returns the descriptor for the passed region
+	 * @param regions The region
+	 * @return the descriptor
+	 */
+	public static RegionDescriptor forRegion(final Regions regions) {
+		if(regions==null) throw new IllegalArgumentException("The passed region was null");
+		return forRegion(regions.getName());
+	}
+
+	/**
+	 * Creates a new RegionDescriptor
+	 * @param region The region
+	 */
+	private RegionDescriptor(final Region region) {
+		this.region = region;
+		name = region.getName();
+		partition = region.getPartition();
+		domain = region.getDomain();
+		final String[] eps = region.getAvailableEndpoints().toArray(new String[0]);
+		Arrays.sort(eps);
+		availableEndpoints = eps;
+		final Map<String, String> endpoints = new TreeMap<String, String>();
+		for(String service: SERVICES) {
+			String endpoint = ConfigurationHelper.getSystemThenEnvProperty(ENDPOINT_OVERRIDE_PREFIX + name + "." + service, null);
+			if(endpoint==null || endpoint.trim().isEmpty()) {
+				// STS resolves to its global endpoint which only signs for us-east-1, so the regional endpoint is used
+				endpoint = region.isServiceSupported(service) && !STS.equals(service) ? region.getServiceEndpoint(service) : service + "." + name + "." + domain;
+			}
+			endpoints.put(service, url(endpoint.trim()));
+		}
+		serviceEndpoints = Collections.unmodifiableMap(endpoints);
+	}
+
+	private static String url(final String endpoint) {
+		return endpoint.indexOf("://")==-1 ? "https://" + endpoint : endpoint;
+	}
+
+	/**
+	 * Configures the passed client builder with this region and the endpoint of the passed service
+	 * @param builder The client builder
+	 * @param service The service endpoint prefix
+	 * @return the builder
+	 */
+	public <B extends AwsClientBuilder<B, ?>> B configure(final B builder, final String service) {
+		return builder.withEndpointConfiguration(endpointConfiguration(service));
+	}
+
+	/**
+	 * Returns the SDK endpoint configuration of the passed service
+	 * @param service The service endpoint prefix
+	 * @return the endpoint configuration signing for this region
+	 */
+	public EndpointConfiguration endpointConfiguration(final String service) {
+		return new EndpointConfiguration(getServiceEndpoint(service), name);
+	}
+
+	/**
+	 * Returns the endpoint URL of the passed service
+	 * @param service The service endpoint prefix
+	 * @return the endpoint URL
+	 * @throws IllegalArgumentException if the service is not one of the {@link #SERVICES}
+	 */
+	public String getServiceEndpoint(final String service) {
+		final String endpoint = serviceEndpoints.get(service);
+		if(endpoint==null) throw new IllegalArgumentException("No endpoint for service [" + service + "]. Supported services are " + Arrays.toString(SERVICES));
+		return endpoint;
+	}
+
+	/**
+	 * Returns the service endpoint URLs keyed by the service endpoint prefix
+	 * @return the service endpoints
+	 */
+	public Map<String, String> getServiceEndpoints() {
+		return serviceEndpoints;
+	}
+
+	/**
+	 * Returns the SDK region
+	 * @return the region
+	 */
+	public Region getRegion() {
+		return region;
+	}
+
+	/**
+	 * Returns the region name
+	 * @return the region name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the partition
+	 * @return the partition
+	 */
+	public String getPartition() {
+		return partition;
+	}
+
+	/**
+	 * Returns the domain
+	 * @return the domain
+	 */
+	public String getDomain() {
+		return domain;
+	}
+
+	/**
+	 * Returns the names of the services with an endpoint in the region
+	 * @return the service names
+	 */
+	public String[] getAvailableEndpoints() {
+		return availableEndpoints.clone();
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuilder("RegionDescriptor [name=").append(name).append(", partition=").append(partition)
+			.append(", domain=").append(domain).append(", serviceEndpoints=").append(serviceEndpoints).append("]").toString();
+	}
+}
@@ -18,12 +18,16 @@ import java.util.Map;
 import javax.management.ObjectName;
 
 import com.amazonaws.services.sqs.AmazonSQS;
-import com.amazonaws.services.sqs.AmazonSQSClient;
+import com.amazonaws.services.sqs.AmazonSQSClientBuilder;
 import com.amazonaws.services.sqs.model.MessageAttributeValue;
 import com.amazonaws.services.sqs.model.SendMessageRequest;
 import com.amazonaws.services.sqs.model.SendMessageResult;
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.heliosapm.aws.jmx.AWSJVMMetaDataService;
 import com.heliosapm.aws.json.JSONUtil;
+import com.heliosapm.aws.regions.RegionDescriptor;
+import com.heliosapm.aws.threads.AsyncInitializer;
 import com.heliosapm.utils.collections.FluentMap;
 import com.heliosapm.utils.config.ConfigurationHelper;
 import com.heliosapm.utils.jmx.JMXHelper;
@@ -37,10 +41,18 @@ import com.heliosapm.utils.jmx.JMXHelper;
  */
 
 public class SQSManager implements SQSManagerMBean {
-	/** The singleton instance */
-	private static volatile SQSManager instance = null;
-	/** The singleton instance ctor lock */
-	private static final Object lock = new Object();
+	/** The singleton initializer, chained on the meta-data service */
+	private static final AsyncInitializer<SQSManager> initializer = new AsyncInitializer<SQSManager>("SQSManager") {
+		@Override
+		protected ListenableFuture<SQSManager> start() {
+			return after(AWSJVMMetaDataService.ready(), new Function<AWSJVMMetaDataService, SQSManager>() {
+				@Override
+				public SQSManager apply(final AWSJVMMetaDataService metaService) {
+					return new SQSManager(metaService);
+				}
+			});
+		}
+	};
 	
 	private final ObjectName objectName;
 	private final AWSJVMMetaDataService metaService;
@@ -49,34 +61,41 @@ public class SQSManager implements SQSManagerMBean {
 	private final AmazonSQS sqs;
 	
 	/**
-	 * Acquires the SQSManager singleton instance
+	 * Returns the readiness future of the SQSManager singleton, starting its initialization if required
+	 * @return the readiness future
+	 */
+	public static ListenableFuture<SQSManager> ready() {
+		return initializer.ready();
+	}
+
+	/**
+	 * Acquires the SQSManager singleton instance, waiting for it to be initialized
 	 * @return the SQSManager singleton instance
 	 */
 	public static SQSManager getInstance() {
-		if(instance==null) {
-			synchronized (lock) {
-				if(instance==null) {
-					instance = new SQSManager();
-				}
-			}
-		}
-		return instance;
+		return initializer.get();
 	}
 	/**
 	 * Creates a new SQSManager
+	 * @param metaService The initialized meta-data service
 	 */
-	private SQSManager() {
+	private SQSManager(final AWSJVMMetaDataService metaService) {
 		final String on = ConfigurationHelper.getSystemThenEnvProperty(SYSPROP_OBJECT_NAME_KEY, DEFAULT_OBJECT_NAME);
 		defaultQueueName = ConfigurationHelper.getSystemThenEnvProperty(SYSPROP_QUEUE_NAME_KEY, DEFAULT_QUEUE_NAME);
 		objectName = JMXHelper.objectName(on);
 		try { JMXHelper.unregisterMBean(objectName); } catch (Exception x) {/* No Op */}
 		JMXHelper.registerMBean(this, objectName);
-		metaService = AWSJVMMetaDataService.getInstance();
-		sqsEndpoint = "https://sqs." + metaService.getRegion() + ".amazonaws.com";
-		sqs = AmazonSQSClient.builder()
-				.withRegion(metaService.getRegion())
-				.build();
-		
+		this.metaService = metaService;
+		final RegionDescriptor rd = metaService.getRegionDescriptor();
+		if(rd!=null) {
+			sqsEndpoint = rd.getServiceEndpoint(RegionDescriptor.SQS);
+			sqs = rd.configure(AmazonSQSClientBuilder.standard(), RegionDescriptor.SQS).build();
+		} else {
+			// fall back to the SDK's region provider chain
+			sqsEndpoint = null;
+			sqs = AmazonSQSClientBuilder.defaultClient();
+		}
+
 	}
 
 	/**
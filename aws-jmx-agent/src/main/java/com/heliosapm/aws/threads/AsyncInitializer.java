@@ -0,0 +1,170 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.aws.threads;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * <p>Title: AsyncInitializer</p>
+ * <p>Description: Initializes a singleton service on the shared thread pool and exposes its readiness as a future,
+ * so dependent services can chain on it and callers can choose whether to wait. A failed initialization is
+ * retried on the next request for the service.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.aws.threads.AsyncInitializer</code></p>
+ * @param <T> The service type
+ */
+
+public abstract class AsyncInitializer<T> {
+	/** The service name */
+	private final String name;
+	/** The initialization start lock */
+	private final Object lock = new Object();
+	/** Marks the threads running the initialization so they don't wait on themselves */
+	private final ThreadLocal<Boolean> initializing = new ThreadLocal<Boolean>();
+	/** The current readiness future */
+	private volatile ListenableFuture<T> future = null;
+	/** The initialized service */
+	private volatile T instance = null;
+
+	/**
+	 * Creates a new AsyncInitializer
+	 * @param name The service name
+	 */
+	public AsyncInitializer(final String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Starts the initialization, typically through {@link #submit(Callable)} or {@link #after(ListenableFuture, Function)}
+	 * @return the readiness future
+	 */
+	protected abstract ListenableFuture<T> start();
+
+	/**
+	 * Returns the readiness future, starting the initialization if it has not been started or has failed
+	 * @return the readiness future
+	 */
+	public ListenableFuture<T> ready() {
+		ListenableFuture<T> f = future;
+		if(f==null || failed(f)) {
+			synchronized(lock) {
+				f = future;
+				if(f==null || failed(f)) {
+					f = start();
+					future = f;
+					Futures.addCallback(f, new FutureCallback<T>() {
+						@Override
+						public void onSuccess(final T result) {
+							instance = result;
+						}
+						@Override
+						public void onFailure(final Throwable t) {
+							/* No Op. Retried on the next request */
+						}
+					}, MoreExecutors.directExecutor());
+				}
+			}
+		}
+		return f;
+	}
+
+	/**
+	 * Returns the service, waiting for it to be initialized
+	 * @return the service
+	 * @throws IllegalStateException if called from the service's own initialization
+	 * @throws RuntimeException if the initialization failed
+	 */
+	public T get() {
+		final T t = instance;
+		if(t!=null) return t;
+		if(initializing.get()!=null) throw new IllegalStateException("[" + name + "] requested during its own initialization");
+		try {
+			return Uninterruptibles.getUninterruptibly(ready());
+		} catch (ExecutionException ex) {
+			throw new RuntimeException("Failed to initialize [" + name + "]", ex.getCause());
+		}
+	}
+
+	/**
+	 * Returns the service if it has been initialized, without waiting
+	 * @return the service or null if not initialized yet
+	 */
+	public T getIfReady() {
+		return instance;
+	}
+
+	/**
+	 * Runs the passed task on the shared thread pool
+	 * @param task The task creating the service
+	 * @return the readiness future
+	 */
+	protected final ListenableFuture<T> submit(final Callable<T> task) {
+		return MoreExecutors.listeningDecorator(SharedThreadPoolService.getInstance().newExecutor()).submit(new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				initializing.set(Boolean.TRUE);
+				try {
+					return task.call();
+				} finally {
+					initializing.remove();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Runs the passed function on the shared thread pool once the passed dependency is ready
+	 * @param dependency The readiness future of the service this service depends on
+	 * @param fn The function creating this service from the dependency
+	 * @return the readiness future
+	 */
+	protected final <D> ListenableFuture<T> after(final ListenableFuture<D> dependency, final Function<D, T> fn) {
+		return Futures.transform(dependency, new Function<D, T>() {
+			@Override
+			public T apply(final D input) {
+				initializing.set(Boolean.TRUE);
+				try {
+					return fn.apply(input);
+				} finally {
+					initializing.remove();
+				}
+			}
+		}, SharedThreadPoolService.getInstance().newExecutor());
+	}
+
+	private static boolean failed(final ListenableFuture<?> f) {
+		if(!f.isDone()) return false;
+		if(f.isCancelled()) return true;
+		try {
+			f.get();
+			return false;
+		} catch (Exception ex) {
+			return true;
+		}
+	}
+
+	@Override
+	public String toString() {
+		final ListenableFuture<T> f = future;
+		return "AsyncInitializer [" + name + ", state=" + (f==null ? "not started" : !f.isDone() ? "initializing" : failed(f) ? "failed" : "ready") + "]";
+	}
+}
@@ -13,10 +13,16 @@
 package com.heliosapm.aws.threads;
 
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.management.ObjectName;
 
 import com.amazonaws.client.builder.ExecutorFactory;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.heliosapm.utils.config.ConfigurationHelper;
 import com.heliosapm.utils.jmx.JMXHelper;
 import com.heliosapm.utils.jmx.JMXManagedThreadPool;
@@ -44,6 +50,8 @@ public class SharedThreadPoolService implements ExecutorFactory {
 	
 	private final ObjectName objectName;
 	private final JMXManagedThreadPool threadPool;
+	/** The shared scheduler for periodic agent tasks. Scheduled tasks should hand off blocking work to the thread pool. */
+	private final ScheduledThreadPoolExecutor scheduler;
 
 	/**
 	 * Acquires the SharedThreadPoolService singleton instance
@@ -59,6 +67,15 @@ public class SharedThreadPoolService implements ExecutorFactory {
 		}
 		return instance;
 	}
+
+	/**
+	 * Returns the readiness future of the SharedThreadPoolService singleton, which is created on the calling thread
+	 * since the other services are initialized on its pool
+	 * @return the completed readiness future
+	 */
+	public static ListenableFuture<SharedThreadPoolService> ready() {
+		return Futures.immediateFuture(getInstance());
+	}
 	
 
 	/**
@@ -67,8 +84,21 @@ public class SharedThreadPoolService implements ExecutorFactory {
 	private SharedThreadPoolService() {
 		final String on = ConfigurationHelper.getSystemThenEnvProperty(SYSPROP_OBJECT_NAME_KEY, DEFAULT_OBJECT_NAME);
 		objectName = JMXHelper.objectName(on);
-		threadPool = new JMXManagedThreadPool(objectName, "SharedThreadPool", 1, Runtime.getRuntime().availableProcessors() * 2, 128, 60000, 100, 99, true);
-		threadPool.prestartAllCoreThreads();
+		final int poolSize = Runtime.getRuntime().availableProcessors() * 2;
+		// a pool only grows past its core size once the queue is full, so the core size is the effective
+		// parallelism for fan-out tasks. Idle core threads time out instead.
+		threadPool = new JMXManagedThreadPool(objectName, "SharedThreadPool", poolSize, poolSize, 128, 60000, 100, 99, true);
+		threadPool.allowCoreThreadTimeOut(true);
+		scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			final AtomicInteger serial = new AtomicInteger(0);
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread t = new Thread(r, "SharedScheduler#" + serial.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		scheduler.setRemoveOnCancelPolicy(true);
 	}
 	
 	/**
@@ -79,5 +109,13 @@ public class SharedThreadPoolService implements ExecutorFactory {
 	public ExecutorService newExecutor() {		
 		return threadPool;
 	}
+	
+	/**
+	 * Returns the shared scheduler
+	 * @return the shared scheduler
+	 */
+	public ScheduledExecutorService getScheduler() {
+		return scheduler;
+	}
 
 }
@@ -19,6 +19,7 @@ import java.net.URL;
 import java.net.URLConnection;
 import java.net.URLDecoder;
 import java.net.URLStreamHandler;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -50,8 +51,13 @@ import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.s3.model.S3ObjectInputStream;
 import com.amazonaws.util.AWSRequestMetrics;
+import com.amazonaws.util.AWSRequestMetrics.Field;
 import com.codahale.metrics.Timer;
+import com.heliosapm.aws.jmx.AWSJVMMetaDataService;
+import com.heliosapm.aws.metrics.DimensionSet;
+import com.heliosapm.aws.metrics.MetricId;
 import com.heliosapm.aws.metrics.MetricService;
+import com.heliosapm.aws.regions.RegionDescriptor;
 import com.heliosapm.utils.ref.ReferenceService;
 
 
@@ -72,12 +78,27 @@ public class Handler extends URLStreamHandler {
 	private static final RequestMetricCollector requestMetricCollector = new RequestMetricCollector() {
 		private final String REQUEST_TYPE = "RequestType";
 		private final PredefinedMetricTransformer transformer = new PredefinedMetricTransformer();
-		private final Map<String, Timer> metrics = new NonBlockingHashMap<String, Timer>();
-		{
-			metrics.put("GetObjectRequest/HttpClientSendRequestTime", metricService.timer("s3url.GetObjectRequest.HttpClientSendRequestTime"));
-			metrics.put("GetObjectRequest/ClientExecuteTime", metricService.timer("s3url.GetObjectRequest.ClientExecuteTime"));
-			metrics.put("GetObjectRequest/HttpRequestTime", metricService.timer("s3url.GetObjectRequest.HttpRequestTime"));
-			metrics.put("GetObjectRequest/HttpClientReceiveResponseTime", metricService.timer("s3url.GetObjectRequest.HttpClientReceiveResponseTime"));
+		/** The timed request metric types */
+		private final Field[] timed = {Field.HttpClientSendRequestTime, Field.ClientExecuteTime, Field.HttpRequestTime, Field.HttpClientReceiveResponseTime};
+		/** The timers of each timed metric type, keyed by request type */
+		private final NonBlockingHashMap<String, Map<MetricType, Timer>> metrics = new NonBlockingHashMap<String, Map<MetricType, Timer>>();
+		/**
+		 * Returns the timers of the passed request type, creating them with the request type as a dimension if required
+		 * @param requestType The request type
+		 * @return the timers keyed by metric type
+		 */
+		private Map<MetricType, Timer> timers(final String requestType) {
+			Map<MetricType, Timer> timers = metrics.get(requestType);
+			if(timers==null) {
+				final DimensionSet dimensions = DimensionSet.of(REQUEST_TYPE, requestType);
+				timers = new HashMap<MetricType, Timer>(timed.length);
+				for(Field field: timed) {
+					timers.put(field, metricService.timer(MetricId.of("s3url." + field.name(), dimensions)));
+				}
+				final Map<MetricType, Timer> prior = metrics.putIfAbsent(requestType, timers);
+				if(prior!=null) timers = prior;
+			}
+			return timers;
 		}
 		private String getRequestType(final MetricDatum md) {
 			String requestType = null;
@@ -106,8 +127,9 @@ public class Handler extends URLStreamHandler {
 	            if (!(type instanceof RequestMetricType))
 	                continue;
 	            for (MetricDatum datum : transformer.toMetricData(type, request, response)) {
-	            	final String key = getRequestType(datum) + "/" + type.name();
-	            	final Timer timer = metrics.get(key);
+	            	final String requestType = getRequestType(datum);
+	            	if(requestType==null) continue;
+	            	final Timer timer = timers(requestType).get(type);
 	            	if(timer!=null) {
 	            		timer.update(datum.getValue().longValue(), TimeUnit.MILLISECONDS);
 	            	}
@@ -214,14 +236,16 @@ public class Handler extends URLStreamHandler {
 				bucketKey.add(host);
 				split(url.getFile(), bucketKey);
 				Regions regions = tryRegion(host);
+				RegionDescriptor rd = null;
 				if(regions==null) {
 					try {
-						builder.setRegion(Regions.getCurrentRegion().getName());
-					} catch (Exception ex) {/* No Op */}				
+						rd = AWSJVMMetaDataService.getInstance().getRegionDescriptor();
+					} catch (Exception ex) {/* No Op */}
 				} else {
-					builder.setRegion(regions.getName());
+					rd = RegionDescriptor.forRegion(regions);
 					bucketKey.removeFirst();
 				}
+				if(rd!=null) rd.configure(builder, RegionDescriptor.S3);
 				
 				bucket = bucketKey.removeFirst();			
 				key = join(bucketKey);
@@ -0,0 +1,169 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.aws.metadata;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.heliosapm.aws.support.metadata.MetaDataSimulator;
+
+/**
+ * <p>Title: MetaDataReaderSimulatorTest</p>
+ * <p>Description: Boots {@link MetaDataReader}s against a {@link MetaDataSimulator} serving the default tree</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.aws.metadata.MetaDataReaderSimulatorTest</code></p>
+ */
+
+public class MetaDataReaderSimulatorTest {
+	/** The instance id of the default tree */
+	static final String INSTANCE_ID = "i-0123456789abcdef0";
+
+	/** The simulator for the current test */
+	private MetaDataSimulator simulator = null;
+	/** The endpoint configured before the test */
+	private String priorEndpoint = null;
+
+	/**
+	 * Starts a simulator on an ephemeral port and points the reader at it
+	 */
+	@Before
+	public void startSimulator() {
+		priorEndpoint = System.getProperty(MetaDataReader.PUB_CONFIG_KEY);
+		simulator = new MetaDataSimulator(0).loadDefaults().start().install();
+	}
+
+	/**
+	 * Stops the simulator and restores the configured endpoint
+	 */
+	@After
+	public void stopSimulator() {
+		if(simulator!=null) simulator.stop();
+		if(priorEndpoint==null) System.clearProperty(MetaDataReader.PUB_CONFIG_KEY);
+		else System.setProperty(MetaDataReader.PUB_CONFIG_KEY, priorEndpoint);
+	}
+
+	/**
+	 * Verifies an eager sequential read of the default tree
+	 */
+	@Test
+	public void testSequential() {
+		assertDefaultTree(new MetaDataReader(FetchMode.SEQUENTIAL, false));
+	}
+
+	/**
+	 * Verifies an eager parallel read of the default tree
+	 */
+	@Test
+	public void testParallel() {
+		assertDefaultTree(new MetaDataReader(FetchMode.PARALLEL, false));
+	}
+
+	/**
+	 * Verifies an eager reader only reads the identity and IAM documents up front and resolves the rest on first access
+	 */
+	@Test
+	public void testEagerBoot() {
+		final MetaDataReader reader = new MetaDataReader(FetchMode.SEQUENTIAL, false);
+		assertFalse(reader.isLazy());
+		final long booted = simulator.getRequestCount();
+		// the token, the identity document, iam/info, the credentials id and the credentials document
+		assertTrue("Requests at boot: " + booted, booted <= 5);
+		assertEquals("simulator", reader.getIamCredentialsId());
+		assertEquals("AWS-HMAC", reader.getIamCredsType());
+		assertEquals(INSTANCE_ID, reader.getInstanceId());
+		assertEquals("t2.micro", reader.getInstanceType());
+		assertEquals(booted, simulator.getRequestCount());
+		assertDefaultTree(reader);
+	}
+
+	/**
+	 * Verifies a lazy reader only reads the identity document up front and resolves the rest on first access
+	 */
+	@Test
+	public void testLazy() {
+		final MetaDataReader reader = new MetaDataReader(FetchMode.SEQUENTIAL, true);
+		assertTrue(reader.isLazy());
+		final long booted = simulator.getRequestCount();
+		// the token and the identity document
+		assertTrue("Requests at boot: " + booted, booted <= 2);
+		assertEquals(INSTANCE_ID, reader.getInstanceId());
+		assertEquals(booted, simulator.getRequestCount());
+		assertEquals("ip-10-0-0-10.ec2.internal", reader.getHostName());
+		assertEquals(booted + 1, simulator.getRequestCount());
+		assertEquals("ip-10-0-0-10.ec2.internal", reader.getHostName());
+		assertEquals(booted + 1, simulator.getRequestCount());
+		assertDefaultTree(reader);
+	}
+
+	/**
+	 * Verifies a reader can be built against an endpoint that refuses connections, with no values
+	 */
+	@Test
+	public void testUnreachable() {
+		final int port = simulator.getPort();
+		simulator.stop();
+		final MetaDataReader reader = new MetaDataReader(FetchMode.SEQUENTIAL, false);
+		assertEquals("127.0.0.1:" + port, reader.getMetaEndpoint());
+		assertFalse(MetaDataClient.getInstance(reader.getMetaEndpoint()).isReachable());
+		assertNull(reader.getInstanceId());
+		assertNull(reader.getRegion());
+		assertEquals(0, reader.getNetworkInterfaces().length);
+	}
+
+	/**
+	 * Verifies a token invalidated while cached is renewed when a request is rejected with a 401
+	 */
+	@Test
+	public void testRequiredTokenRenewal() {
+		simulator.tokenMode(MetaDataSimulator.TokenMode.REQUIRED);
+		assertDefaultTree(new MetaDataReader(FetchMode.SEQUENTIAL, false));
+		final long issued = simulator.getTokensIssued();
+		assertEquals(0L, simulator.getUnauthorizedCount());
+		simulator.expireTokens();
+		assertDefaultTree(new MetaDataReader(FetchMode.SEQUENTIAL, false));
+		assertEquals(1L, simulator.getUnauthorizedCount());
+		assertEquals(issued + 1, simulator.getTokensIssued());
+	}
+
+	/**
+	 * Asserts that the passed reader holds the simulator's default tree
+	 * @param reader The reader to check
+	 */
+	static void assertDefaultTree(final MetaDataReader reader) {
+		assertEquals(INSTANCE_ID, reader.getInstanceId());
+		assertEquals("t2.micro", reader.getInstanceType());
+		assertEquals("ami-0abcdef1234567890", reader.getAmiId());
+		assertEquals("10.0.0.10", reader.getLocalV4Ip());
+		assertEquals("us-east-1", reader.getRegion());
+		assertEquals("us-east-1a", reader.getAvailabilityZone());
+		assertEquals("123456789012", reader.getAccountId());
+		assertEquals("none", reader.getInstanceAction());
+		assertEquals("simulator", reader.getIamCredentialsId());
+		assertEquals("AWS-HMAC", reader.getIamCredsType());
+		assertArrayEquals(new String[]{"simulator-key"}, reader.getPublicKeys());
+		final NetworkInterfaceInfo[] nics = reader.getNetworkInterfaces();
+		assertEquals(1, nics.length);
+		assertEquals("0e:12:34:56:78:9a", nics[0].getMac());
+		assertEquals(0, nics[0].getDeviceNumber());
+		assertEquals("subnet-0123456789abcdef0", nics[0].getSubnetId());
+		assertEquals("vpc-0123456789abcdef0", nics[0].getVpcId());
+	}
+}
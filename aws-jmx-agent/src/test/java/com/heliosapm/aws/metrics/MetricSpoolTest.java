@@ -0,0 +1,252 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.aws.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.cloudwatch.AmazonCloudWatchAsync;
+import com.amazonaws.services.cloudwatch.model.Dimension;
+import com.amazonaws.services.cloudwatch.model.MetricDatum;
+import com.amazonaws.services.cloudwatch.model.PutMetricDataRequest;
+import com.amazonaws.services.cloudwatch.model.PutMetricDataResult;
+import com.amazonaws.services.cloudwatch.model.StandardUnit;
+import com.amazonaws.services.cloudwatch.model.StatisticSet;
+
+/**
+ * <p>Title: MetricSpoolTest</p>
+ * <p>Description: Verifies the {@link MetricSpool} record encoding, the recovery of segments left by a previous
+ * run or an unlocked sibling, and the replay of the recovered batches</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.aws.metrics.MetricSpoolTest</code></p>
+ */
+
+public class MetricSpoolTest {
+	/** The segment size used by the tests */
+	static final int SEGMENT_SIZE = 4096;
+
+	/** Scratch spool directories */
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	/** The batches received by the recording client */
+	private final List<PutMetricDataRequest> sent = new CopyOnWriteArrayList<PutMetricDataRequest>();
+
+	/**
+	 * Verifies value, statistic set and distribution batches survive the encode/decode round trip
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testEncodeRoundTrip() throws Exception {
+		for(PutMetricDataRequest request: batches()) {
+			assertEquals(request, MetricSpool.decode(MetricSpool.encode(request)));
+		}
+	}
+
+	/**
+	 * Verifies segments left in the directory by a previous run are recovered, ignoring a torn trailing record,
+	 * and replayed in order
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testRecovery() throws Exception {
+		final List<PutMetricDataRequest> batches = batches();
+		final File left = spoolSegments(folder.newFolder("previous"), batches);
+		final File dir = folder.newFolder("recovered");
+		final File segment = new File(dir, left.getName());
+		Files.copy(left.toPath(), segment.toPath());
+		// a record whose length was written but whose payload runs past the segment, as after a crash
+		int torn = 0;
+		for(PutMetricDataRequest request: batches) torn += MetricSpool.encode(request).length + 5;
+		final RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+		try {
+			raf.seek(torn);
+			raf.writeInt(SEGMENT_SIZE);
+		} finally {
+			raf.close();
+		}
+		final MetricSpool spool = newSpool(dir);
+		assertEquals(batches.size(), spool.getPendingCount());
+		assertTrue(spool.isBacklogged());
+		replay(spool);
+		assertEquals(batches, sent);
+		assertEquals(batches.size(), spool.getReplayedCount());
+		assertEquals(0L, spool.getDroppedCount());
+	}
+
+	/**
+	 * Verifies the segments of an unlocked sibling slot are moved into the spool's directory and replayed
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testSiblingAdoption() throws Exception {
+		final List<PutMetricDataRequest> batches = batches();
+		final File left = spoolSegments(folder.newFolder("previous"), batches);
+		final File dir = folder.newFolder("shared");
+		final File slot = new File(dir, "slot-2");
+		assertTrue(slot.mkdirs());
+		Files.copy(left.toPath(), new File(slot, left.getName()).toPath());
+		final MetricSpool spool = newSpool(dir);
+		assertEquals(batches.size(), spool.getPendingCount());
+		assertEquals(null, segmentIn(slot));
+		assertTrue(segmentIn(spool.getDirectory())!=null);
+		replay(spool);
+		assertEquals(batches, sent);
+	}
+
+	/**
+	 * Verifies the failures that are retried and the ones that drop the batch
+	 */
+	@Test
+	public void testRetryable() {
+		assertTrue(MetricSpool.retryable(serviceException(400, "Throttling")));
+		assertTrue(MetricSpool.retryable(serviceException(429, "TooManyRequests")));
+		assertTrue(MetricSpool.retryable(serviceException(403, "RequestExpired")));
+		assertTrue(MetricSpool.retryable(serviceException(503, "ServiceUnavailable")));
+		assertTrue(MetricSpool.retryable(serviceException(500, null)));
+		assertTrue(MetricSpool.retryable(new IOException("connection reset")));
+		assertFalse(MetricSpool.retryable(serviceException(400, "InvalidParameterValue")));
+		assertFalse(MetricSpool.retryable(serviceException(403, "AccessDenied")));
+	}
+
+	/**
+	 * Appends the passed batches to a spool in the passed directory and returns its single segment file
+	 * @param dir The spool directory
+	 * @param batches The batches to append
+	 * @return the segment file
+	 * @throws IOException thrown on any error creating the spool
+	 */
+	private File spoolSegments(final File dir, final List<PutMetricDataRequest> batches) throws IOException {
+		final MetricSpool spool = newSpool(dir);
+		for(PutMetricDataRequest request: batches) assertTrue(spool.append(request));
+		assertEquals(batches.size(), spool.getPendingCount());
+		final File segment = segmentIn(dir);
+		assertTrue(segment!=null);
+		return segment;
+	}
+
+	/**
+	 * Returns the single segment file in the passed directory
+	 * @param dir The directory
+	 * @return the segment file or null if there is none
+	 */
+	private static File segmentIn(final File dir) {
+		File segment = null;
+		for(File f: dir.listFiles()) {
+			if(f.getName().endsWith(".seg")) {
+				assertEquals(null, segment);
+				segment = f;
+			}
+		}
+		return segment;
+	}
+
+	/**
+	 * Runs the passed spool's replay until its backlog is drained
+	 * @param spool The spool
+	 * @throws InterruptedException thrown if interrupted while waiting
+	 */
+	private static void replay(final MetricSpool spool) throws InterruptedException {
+		spool.start(10, TimeUnit.MILLISECONDS);
+		try {
+			final long deadline = System.currentTimeMillis() + 5000L;
+			while(spool.isBacklogged() && System.currentTimeMillis() < deadline) Thread.sleep(10L);
+			assertFalse(spool.isBacklogged());
+		} finally {
+			spool.stop();
+		}
+	}
+
+	private MetricSpool newSpool(final File dir) throws IOException {
+		return new MetricSpool(dir, SEGMENT_SIZE, 4, 1000D, recordingClient(), new AsyncHandler<PutMetricDataRequest, PutMetricDataResult>() {
+			@Override
+			public void onError(final Exception exception) {
+				/* No Op */
+			}
+			@Override
+			public void onSuccess(final PutMetricDataRequest request, final PutMetricDataResult result) {
+				/* No Op */
+			}
+		});
+	}
+
+	/**
+	 * Creates a client that records each synchronously sent batch and supports nothing else
+	 * @return the client
+	 */
+	private AmazonCloudWatchAsync recordingClient() {
+		return (AmazonCloudWatchAsync)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{AmazonCloudWatchAsync.class}, new InvocationHandler() {
+			@Override
+			public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+				if("putMetricData".equals(method.getName())) {
+					sent.add((PutMetricDataRequest)args[0]);
+					return new PutMetricDataResult();
+				}
+				throw new UnsupportedOperationException(method.getName());
+			}
+		});
+	}
+
+	private static AmazonServiceException serviceException(final int status, final String code) {
+		final AmazonServiceException ase = new AmazonServiceException("failed");
+		ase.setStatusCode(status);
+		ase.setErrorCode(code);
+		return ase;
+	}
+
+	/**
+	 * Builds batches covering each datum kind, with and without dimensions, timestamps and units
+	 * @return the batches
+	 */
+	private static List<PutMetricDataRequest> batches() {
+		return Arrays.asList(
+			new PutMetricDataRequest().withNamespace("JVM").withMetricData(
+				new MetricDatum().withMetricName("heap.used").withValue(1024D).withUnit(StandardUnit.Bytes)
+					.withTimestamp(new Date(1500000000000L))
+					.withDimensions(new Dimension().withName("InstanceId").withValue("i-0123456789abcdef0")),
+				new MetricDatum().withMetricName("threads").withValue(42D)
+			),
+			new PutMetricDataRequest().withNamespace("JVM").withMetricData(
+				new MetricDatum().withMetricName("gc.time").withUnit(StandardUnit.Milliseconds)
+					.withStatisticValues(new StatisticSet().withSampleCount(12D).withSum(340D).withMinimum(2D).withMaximum(91D)),
+				new MetricDatum().withMetricName("request.time").withUnit(StandardUnit.Milliseconds)
+					.withValues(1.5D, 4D, 250D).withCounts(10D, 2.5D, 0.5D)
+			),
+			new PutMetricDataRequest().withNamespace("App").withMetricData(
+				new MetricDatum().withMetricName("requests").withValue(7D).withTimestamp(new Date(1500000060000L))
+					.withDimensions(new Dimension().withName("host").withValue("a"), new Dimension().withName("path").withValue("/b"))
+			)
+		);
+	}
+}
@@ -0,0 +1,113 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.aws.bench;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.remote.JMXServiceURL;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.heliosapm.aws.jmx.AWSJVMMetaDataService;
+import com.heliosapm.aws.jmx.agent.AgentOption;
+import com.heliosapm.aws.jmx.agent.BindAddress;
+import com.heliosapm.aws.jmx.agent.Boot;
+import com.heliosapm.aws.metadata.FetchMode;
+import com.heliosapm.aws.metadata.MetaDataReader;
+import com.heliosapm.aws.support.metadata.MetaDataSimulator;
+
+/**
+ * <p>Title: AgentBootBenchmark</p>
+ * <p>Description: Benchmarks the agent boot path steps that run after the meta-data has been read:
+ * agent option parsing, the meta-data service JSON form and the JVMUp signal payload</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.aws.bench.AgentBootBenchmark</code></p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AgentBootBenchmark {
+	/** Packed agent options as relayed by the installer, built from the agent's own keys so they cannot drift */
+	public static final String PACKED_OPTIONS = "D:" + Boot.SYSPROP_JMXMP_PORT + "=8006"
+		+ "##D:" + BindAddress.SYSPROP_JMXMP_BIND + "=" + BindAddress.LOCALIP.name()
+		+ "##D:" + FetchMode.FETCH_MODE_KEY + "=" + FetchMode.PARALLEL.name()
+		+ "##D:" + MetaDataReader.LAZY_KEY + "=false";
+
+	private MetaDataSimulator simulator;
+	private AWSJVMMetaDataService service;
+	private JMXServiceURL serviceUrl;
+	private String publicJmxServiceUrl;
+
+	/**
+	 * Starts the simulator and the meta-data service
+	 * @throws Exception thrown on any error
+	 */
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		simulator = new MetaDataSimulator(0).loadDefaults().start().install();
+		service = AWSJVMMetaDataService.getInstance();
+		serviceUrl = new JMXServiceURL("service:jmx:jmxmp://127.0.0.1:8006");
+		publicJmxServiceUrl = "service:jmx:jmxmp://10.0.0.10:8006";
+	}
+
+	/**
+	 * Stops the simulator
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		simulator.stop();
+	}
+
+	/**
+	 * Parses the packed agent options
+	 * @return the parsed options
+	 */
+	@Benchmark
+	public Map<AgentOption, Object> agentOptions() {
+		return AgentOption.agentOptions(PACKED_OPTIONS);
+	}
+
+	/**
+	 * Renders the meta-data service JSON
+	 * @return the JSON
+	 */
+	@Benchmark
+	public String serviceToJSON() {
+		return service.toJSON();
+	}
+
+	/**
+	 * Renders the JVMUp signal message body
+	 * @return the message body
+	 */
+	@Benchmark
+	public String upSignal() {
+		return Boot.upSignal(serviceUrl, publicJmxServiceUrl);
+	}
+}
@@ -0,0 +1,50 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.aws.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * <p>Title: BenchmarkRunner</p>
+ * <p>Description: Runs the benchmarks with the GC profiler attached so allocation per operation is reported
+ * alongside throughput and average time. Standard JMH command line options are honoured, e.g.
+ * <b><code>java -jar benchmarks.jar MetaDataReader -rff before.json</code></b></p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.aws.bench.BenchmarkRunner</code></p>
+ */
+
+public class BenchmarkRunner {
+
+	/**
+	 * Runs the benchmarks
+	 * @param args JMH command line options
+	 * @throws Exception thrown on any error
+	 */
+	public static void main(final String[] args) throws Exception {
+		final CommandLineOptions cl = new CommandLineOptions(args);
+		final Options options = new OptionsBuilder()
+			.parent(cl)
+			.addProfiler(GCProfiler.class)
+			.resultFormat(cl.getResultFormat().hasValue() ? cl.getResultFormat().get() : ResultFormatType.JSON)
+			.build();
+		new Runner(options).run();
+	}
+
+	private BenchmarkRunner() {}
+}
@@ -0,0 +1,162 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.aws.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.heliosapm.aws.json.JSONUtil;
+import com.heliosapm.aws.metadata.FetchMode;
+import com.heliosapm.aws.metadata.MetaDataReader;
+import com.heliosapm.aws.support.metadata.MetaDataSimulator;
+import com.heliosapm.aws.support.metadata.PathBehavior;
+
+/**
+ * <p>Title: MetaDataReaderBenchmark</p>
+ * <p>Description: Benchmarks building a {@link MetaDataReader} against a local {@link MetaDataSimulator}
+ * and converting a reader to and from JSON</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.aws.bench.MetaDataReaderBenchmark</code></p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetaDataReaderBenchmark {
+	/** The fixed simulated latency of each meta-data request in ms. */
+	@Param({"0", "2"})
+	public long latency;
+
+	private MetaDataSimulator simulator;
+	private MetaDataReader reader;
+	private String json;
+	private JsonNode node;
+
+	/**
+	 * Starts the simulator and builds the reader the conversion benchmarks use
+	 */
+	@Setup(Level.Trial)
+	public void setup() {
+		simulator = new MetaDataSimulator(0).loadDefaults().tokenMode(MetaDataSimulator.TokenMode.REQUIRED).start().install();
+		if(latency > 0L) simulator.behavior(MetaDataSimulator.ROOT, PathBehavior.latency(latency, 0L));
+		reader = new MetaDataReader(FetchMode.SEQUENTIAL, false);
+		json = reader.toJSON();
+		node = JSONUtil.parseToNode(json);
+	}
+
+	/**
+	 * Stops the simulator
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		simulator.stop();
+	}
+
+	/**
+	 * Boots an eager reader, which reads the identity document and the IAM keys and defers the rest
+	 * @return the reader
+	 */
+	@Benchmark
+	public MetaDataReader readEager() {
+		return new MetaDataReader(FetchMode.SEQUENTIAL, false);
+	}
+
+	/**
+	 * Builds a reader and resolves every key and the network interface walk, resolving the boot keys in turn
+	 * @return the rendered JSON, which forces the deferred keys
+	 */
+	@Benchmark
+	public String readSequential() {
+		return new MetaDataReader(FetchMode.SEQUENTIAL, false).toJSON();
+	}
+
+	/**
+	 * Builds a reader and resolves every key and the network interface walk, resolving the boot keys concurrently
+	 * @return the rendered JSON, which forces the deferred keys
+	 */
+	@Benchmark
+	public String readParallel() {
+		return new MetaDataReader(FetchMode.PARALLEL, false).toJSON();
+	}
+
+	/**
+	 * Builds a lazy reader and resolves the instance id
+	 * @return the instance id
+	 */
+	@Benchmark
+	public String readLazy() {
+		return new MetaDataReader(FetchMode.SEQUENTIAL, true).getInstanceId();
+	}
+
+	/**
+	 * Deserializes a reader through {@link MetaDataReader.Deser}
+	 * @return the reader
+	 */
+	@Benchmark
+	public MetaDataReader deserialize() {
+		return JSONUtil.parseToObject(json, MetaDataReader.class);
+	}
+
+	/**
+	 * Creates a reader from a parsed tree
+	 * @return the reader
+	 */
+	@Benchmark
+	public MetaDataReader fromNode() {
+		return new MetaDataReader(node);
+	}
+
+	/**
+	 * Renders the reader through {@link MetaDataReader#toJSON()}
+	 * @return the JSON
+	 */
+	@Benchmark
+	public String toJSON() {
+		return reader.toJSON();
+	}
+
+	/**
+	 * Renders the reader through {@link MetaDataReader#toJsonNode()}
+	 * @return the JSON tree
+	 */
+	@Benchmark
+	public JsonNode toJsonNode() {
+		return reader.toJsonNode();
+	}
+
+	/**
+	 * Serializes the reader from scratch, bypassing any rendered form the reader retains
+	 * @return the JSON
+	 */
+	@Benchmark
+	public String serialize() {
+		return JSONUtil.serializeToString(reader);
+	}
+}
@@ -0,0 +1,107 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.aws.bench;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.heliosapm.aws.metrics.HdrReservoir;
+
+/**
+ * <p>Title: ReservoirContentionBenchmark</p>
+ * <p>Description: Benchmarks one timer shared by 32 and 64 threads, backed by the default exponentially
+ * decaying reservoir, which takes a lock on every update, and by an {@link HdrReservoir}, which records
+ * without locks, and shared by 32 recording threads while one more takes snapshots as a reporter would</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.aws.bench.ReservoirContentionBenchmark</code></p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReservoirContentionBenchmark {
+	/** The reservoir backing the timer */
+	@Param({"exponential", "hdr"})
+	public String reservoir;
+
+	private Timer timer;
+
+	/**
+	 * Creates the shared timer
+	 */
+	@Setup(Level.Trial)
+	public void setup() {
+		timer = new Timer("hdr".equals(reservoir) ? new HdrReservoir(1, TimeUnit.SECONDS) : new ExponentiallyDecayingReservoir());
+	}
+
+	/**
+	 * Records a duration from 32 threads
+	 */
+	@Benchmark
+	@Threads(32)
+	public void update32() {
+		timer.update(ThreadLocalRandom.current().nextLong(1000L, 1000000L), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Records a duration from 64 threads
+	 */
+	@Benchmark
+	@Threads(64)
+	public void update64() {
+		timer.update(ThreadLocalRandom.current().nextLong(1000L, 1000000L), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Records a duration from 32 threads while another thread takes snapshots
+	 */
+	@Benchmark
+	@Group("reporting")
+	@GroupThreads(32)
+	public void reportingUpdate() {
+		timer.update(ThreadLocalRandom.current().nextLong(1000L, 1000000L), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Takes a snapshot, as a reporter does, while 32 threads record
+	 * @return the snapshot
+	 */
+	@Benchmark
+	@Group("reporting")
+	@GroupThreads(1)
+	public Snapshot reportingSnapshot() {
+		return timer.getSnapshot();
+	}
+}
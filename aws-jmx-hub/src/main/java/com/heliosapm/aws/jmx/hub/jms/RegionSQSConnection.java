@@ -31,8 +31,8 @@ import javax.jms.Session;
 import com.amazon.sqs.javamessaging.SQSConnectionFactory;
 import com.amazonaws.ClientConfiguration;
 import com.amazonaws.auth.AWSCredentialsProvider;
-import com.amazonaws.regions.Region;
 import com.amazonaws.regions.Regions;
+import com.heliosapm.aws.regions.RegionDescriptor;
 
 /**
  * <p>Title: RegionSQSConnection</p>
@@ -73,11 +73,15 @@ public class RegionSQSConnection implements ExceptionListener, MessageListener {
 		queueMessageCounts = new HashMap<String, LongAdder>(queueNames.size());
 		sessions = new ConcurrentHashMap<String, Session>(queueNames.size());
 		messageConsumers = new HashMap<String, MessageConsumer>(queueNames.size());		
+		final RegionDescriptor rd = RegionDescriptor.forRegion(region);
 		connectionFactory = SQSConnectionFactory.builder()
 			.withAWSCredentialsProvider(awsCredentialsProvider)
 			.withClientConfiguration(clientConfig)
 			.withNumberOfMessagesToPrefetch(prefetch)
-			.withRegion(Region.getRegion(region))
+			.withRegion(rd.getRegion())
+			.withEndpoint(rd.getServiceEndpoint(RegionDescriptor.SQS))
+			// a VPC endpoint host does not name the region, so sign for the region explicitly
+			.withSignerRegionOverride(rd.getName())
 			.build();
 		init();
 	}
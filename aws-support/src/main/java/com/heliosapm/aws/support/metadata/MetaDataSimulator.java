@@ -0,0 +1,811 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.aws.support.metadata;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Title: MetaDataSimulator</p>
+ * <p>Description: Embedded non-blocking HTTP server simulating the EC2 instance meta-data endpoint, including the IMDSv2
+ * session token semantics, so the agent can be exercised and timed off EC2. Point the agent at it by setting
+ * <b><code>com.heliosapm.aws.metadata.endpoint</code></b> to {@link #getEndpoint()}, or by calling {@link #install()}.</p>
+ * <p>The tree is a set of leaf paths relative to <b><code>/latest/</code></b>, such as <b><code>meta-data/ami-id</code></b>.
+ * Directory listings are derived from the leaves unless a listing is explicitly put at the directory path.
+ * Latency, throttling, failures and dropped connections are injected per path prefix through {@link PathBehavior}s.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.aws.support.metadata.MetaDataSimulator</code></p>
+ */
+
+public class MetaDataSimulator {
+	/** The agent system property key specifying the meta-data endpoint */
+	public static final String ENDPOINT_KEY = "com.heliosapm.aws.metadata.endpoint";
+	/** The IMDSv2 token path */
+	public static final String TOKEN_PATH = "/latest/api/token";
+	/** The IMDSv2 token TTL request header */
+	public static final String TOKEN_TTL_HEADER = "X-aws-ec2-metadata-token-ttl-seconds";
+	/** The IMDSv2 token header */
+	public static final String TOKEN_HEADER = "X-aws-ec2-metadata-token";
+	/** The maximum IMDSv2 token TTL in seconds */
+	public static final int MAX_TOKEN_TTL = 21600;
+	/** The prefix of all the served paths */
+	public static final String ROOT = "/latest/";
+	/** The maximum size of a request head */
+	public static final int MAX_REQUEST = 8192;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * <p>Title: TokenMode</p>
+	 * <p>Description: Enumerates the IMDSv2 modes the simulator can run in</p>
+	 */
+	public static enum TokenMode {
+		/** IMDSv1 only. Token requests are answered with a 404 as on endpoints predating IMDSv2. */
+		DISABLED,
+		/** Tokens are issued and validated when presented, but requests without a token are served */
+		OPTIONAL,
+		/** Requests without a valid token are rejected with a 401 */
+		REQUIRED;
+	}
+
+	/** The leaf values keyed by the path relative to {@link #ROOT} */
+	private final ConcurrentSkipListMap<String, String> tree = new ConcurrentSkipListMap<String, String>();
+	/** The fault injection behaviors keyed by the absolute path prefix */
+	private final ConcurrentHashMap<String, PathBehavior> behaviors = new ConcurrentHashMap<String, PathBehavior>();
+	/** The issued tokens and their expiry times */
+	private final ConcurrentHashMap<String, Long> tokens = new ConcurrentHashMap<String, Long>();
+	/** Tasks to run on the selector thread */
+	private final ConcurrentLinkedQueue<Runnable> pending = new ConcurrentLinkedQueue<Runnable>();
+	/** The requested listening port */
+	private final int requestedPort;
+	/** The IMDSv2 mode */
+	private volatile TokenMode tokenMode = TokenMode.OPTIONAL;
+
+	private final AtomicLong requests = new AtomicLong(0L);
+	private final AtomicLong connections = new AtomicLong(0L);
+	private final AtomicLong tokensIssued = new AtomicLong(0L);
+	private final AtomicLong unauthorized = new AtomicLong(0L);
+	private final AtomicLong throttled = new AtomicLong(0L);
+	private final AtomicLong failed = new AtomicLong(0L);
+	private final AtomicLong dropped = new AtomicLong(0L);
+	private final AtomicLong notFound = new AtomicLong(0L);
+
+	private volatile Selector selector = null;
+	private volatile ServerSocketChannel server = null;
+	private volatile ScheduledThreadPoolExecutor delayer = null;
+	private volatile Thread selectorThread = null;
+	private volatile boolean running = false;
+
+	/**
+	 * Runs a simulator until the JVM is stopped
+	 * @param args The listening port (defaults to 8394) and an optional properties file of paths and values
+	 * to load instead of the default tree
+	 */
+	public static void main(final String[] args) {
+		final int port = args.length > 0 ? Integer.parseInt(args[0].trim()) : 8394;
+		final MetaDataSimulator sim = new MetaDataSimulator(port);
+		if(args.length > 1) {
+			InputStream is = null;
+			try {
+				is = new FileInputStream(new File(args[1].trim()));
+				final Properties p = new Properties();
+				p.load(is);
+				sim.load(p);
+			} catch (Exception ex) {
+				throw new RuntimeException("Failed to load tree from [" + args[1] + "]", ex);
+			} finally {
+				if(is!=null) try { is.close(); } catch (Exception x) {/* No Op */}
+			}
+		} else {
+			sim.loadDefaults();
+		}
+		sim.start();
+		System.out.println("MetaDataSimulator listening on [" + sim.getEndpoint() + "]. Set -D" + ENDPOINT_KEY + "=" + sim.getEndpoint());
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				sim.stop();
+			}
+		});
+	}
+
+	/**
+	 * Creates a new MetaDataSimulator with an empty tree
+	 * @param port The port to listen on, or 0 for an ephemeral port
+	 */
+	public MetaDataSimulator(final int port) {
+		if(port < 0 || port > 65535) throw new IllegalArgumentException("Invalid port [" + port + "]");
+		requestedPort = port;
+	}
+
+	/**
+	 * Puts a leaf value
+	 * @param path The path relative to <b><code>/latest/</code></b>, e.g. <b><code>meta-data/ami-id</code></b>
+	 * @param value The value
+	 * @return this simulator
+	 */
+	public MetaDataSimulator put(final String path, final String value) {
+		if(value==null) throw new IllegalArgumentException("The passed value was null");
+		tree.put(normalize(path), value);
+		return this;
+	}
+
+	/**
+	 * Removes a leaf value
+	 * @param path The path relative to <b><code>/latest/</code></b>
+	 * @return this simulator
+	 */
+	public MetaDataSimulator remove(final String path) {
+		tree.remove(normalize(path));
+		return this;
+	}
+
+	/**
+	 * Puts all the passed properties as leaf values keyed by path
+	 * @param p The properties to load
+	 * @return this simulator
+	 */
+	public MetaDataSimulator load(final Properties p) {
+		for(String path: p.stringPropertyNames()) {
+			put(path, p.getProperty(path));
+		}
+		return this;
+	}
+
+	/**
+	 * Sets the behavior of all the requests for paths starting with the passed prefix. The longest matching prefix applies.
+	 * @param pathPrefix The absolute path prefix, e.g. <b><code>/latest/meta-data/iam/</code></b> or <b><code>/</code></b> for all
+	 * @param behavior The behavior, or null to remove it
+	 * @return this simulator
+	 */
+	public MetaDataSimulator behavior(final String pathPrefix, final PathBehavior behavior) {
+		if(pathPrefix==null || pathPrefix.isEmpty()) throw new IllegalArgumentException("The passed path prefix was null or empty");
+		if(behavior==null) behaviors.remove(pathPrefix);
+		else behaviors.put(pathPrefix, behavior);
+		return this;
+	}
+
+	/**
+	 * Sets the IMDSv2 mode
+	 * @param tokenMode The mode
+	 * @return this simulator
+	 */
+	public MetaDataSimulator tokenMode(final TokenMode tokenMode) {
+		if(tokenMode==null) throw new IllegalArgumentException("The passed token mode was null");
+		this.tokenMode = tokenMode;
+		return this;
+	}
+
+	/**
+	 * Invalidates all the issued tokens, as happens when the instance is stopped and started
+	 * @return this simulator
+	 */
+	public MetaDataSimulator expireTokens() {
+		tokens.clear();
+		return this;
+	}
+
+	/**
+	 * Loads a tree describing a single interface instance with an IAM role
+	 * @return this simulator
+	 */
+	public MetaDataSimulator loadDefaults() {
+		final String instanceId = "i-0123456789abcdef0";
+		final String region = "us-east-1";
+		final String az = "us-east-1a";
+		final String mac = "0e:12:34:56:78:9a";
+		final String ip = "10.0.0.10";
+		final SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+		sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
+		final long now = System.currentTimeMillis();
+		final String updated = sdf.format(new Date(now));
+		final String expires = sdf.format(new Date(now + TimeUnit.HOURS.toMillis(6)));
+		put("meta-data/ami-id", "ami-0abcdef1234567890");
+		put("meta-data/ami-launch-index", "0");
+		put("meta-data/ami-manifest-path", "(unknown)");
+		put("meta-data/block-device-mapping/ami", "/dev/xvda");
+		put("meta-data/block-device-mapping/root", "/dev/xvda");
+		put("meta-data/hostname", "ip-10-0-0-10.ec2.internal");
+		put("meta-data/local-hostname", "ip-10-0-0-10.ec2.internal");
+		put("meta-data/public-hostname", "ec2-54-0-0-10.compute-1.amazonaws.com");
+		put("meta-data/local-ipv4", ip);
+		put("meta-data/public-ipv4", "54.0.0.10");
+		put("meta-data/mac", mac);
+		put("meta-data/instance-id", instanceId);
+		put("meta-data/instance-action", "none");
+		put("meta-data/instance-type", "t2.micro");
+		put("meta-data/placement/availability-zone", az);
+		put("meta-data/public-keys", "0=simulator-key");
+		put("meta-data/public-keys/0/openssh-key", "ssh-rsa AAAA simulator-key");
+		put("meta-data/iam/info", "{\n  \"Code\" : \"Success\",\n  \"LastUpdated\" : \"" + updated
+			+ "\",\n  \"InstanceProfileArn\" : \"arn:aws:iam::123456789012:instance-profile/simulator\",\n  \"InstanceProfileId\" : \"AIPAEXAMPLE\"\n}");
+		put("meta-data/iam/security-credentials/simulator", "{\n  \"Code\" : \"Success\",\n  \"LastUpdated\" : \"" + updated
+			+ "\",\n  \"Type\" : \"AWS-HMAC\",\n  \"AccessKeyId\" : \"ASIAEXAMPLE\",\n  \"SecretAccessKey\" : \"secret\",\n  \"Token\" : \"token\",\n  \"Expiration\" : \""
+			+ expires + "\"\n}");
+		final String nic = "meta-data/network/interfaces/macs/" + mac + "/";
+		put(nic + "device-number", "0");
+		put(nic + "interface-id", "eni-0123456789abcdef0");
+		put(nic + "local-ipv4s", ip);
+		put(nic + "local-hostname", "ip-10-0-0-10.ec2.internal");
+		put(nic + "mac", mac);
+		put(nic + "subnet-id", "subnet-0123456789abcdef0");
+		put(nic + "subnet-ipv4-cidr-block", "10.0.0.0/24");
+		put(nic + "vpc-id", "vpc-0123456789abcdef0");
+		put(nic + "vpc-ipv4-cidr-block", "10.0.0.0/16");
+		put("dynamic/instance-identity/document", "{\n  \"accountId\" : \"123456789012\",\n  \"architecture\" : \"x86_64\",\n  \"availabilityZone\" : \""
+			+ az + "\",\n  \"imageId\" : \"ami-0abcdef1234567890\",\n  \"instanceId\" : \"" + instanceId + "\",\n  \"instanceType\" : \"t2.micro\",\n  \"privateIp\" : \""
+			+ ip + "\",\n  \"region\" : \"" + region + "\",\n  \"version\" : \"2017-09-30\"\n}");
+		return this;
+	}
+
+	/**
+	 * Starts the simulator
+	 * @return this simulator
+	 */
+	public synchronized MetaDataSimulator start() {
+		if(running) return this;
+		try {
+			selector = Selector.open();
+			server = ServerSocketChannel.open();
+			server.configureBlocking(false);
+			server.socket().setReuseAddress(true);
+			server.socket().bind(new InetSocketAddress("127.0.0.1", requestedPort), 128);
+			server.register(selector, SelectionKey.OP_ACCEPT);
+		} catch (IOException iex) {
+			closeQuietly();
+			throw new RuntimeException("Failed to start meta-data simulator on port [" + requestedPort + "]", iex);
+		}
+		delayer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread t = new Thread(r, "MetaDataSimulatorDelay");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		delayer.setRemoveOnCancelPolicy(true);
+		running = true;
+		selectorThread = new Thread("MetaDataSimulator:" + getPort()) {
+			@Override
+			public void run() {
+				serve();
+			}
+		};
+		selectorThread.setDaemon(true);
+		selectorThread.start();
+		return this;
+	}
+
+	/**
+	 * Stops the simulator, closing all connections
+	 */
+	public synchronized void stop() {
+		if(!running) return;
+		running = false;
+		selector.wakeup();
+		try {
+			selectorThread.join(2000);
+		} catch (InterruptedException iex) {
+			Thread.currentThread().interrupt();
+		}
+		delayer.shutdownNow();
+		closeQuietly();
+	}
+
+	/**
+	 * Sets the agent endpoint system property to this simulator
+	 * @return this simulator
+	 */
+	public MetaDataSimulator install() {
+		System.setProperty(ENDPOINT_KEY, getEndpoint());
+		return this;
+	}
+
+	/**
+	 * Returns the endpoint the agent should be configured with
+	 * @return the endpoint as <b><code>host:port</code></b>
+	 */
+	public String getEndpoint() {
+		return "127.0.0.1:" + getPort();
+	}
+
+	/**
+	 * Returns the bound listening port
+	 * @return the bound port, or the requested port if not started
+	 */
+	public int getPort() {
+		final ServerSocketChannel s = server;
+		return s==null || !s.isOpen() ? requestedPort : s.socket().getLocalPort();
+	}
+
+	/**
+	 * Indicates if the simulator is running
+	 * @return true if running
+	 */
+	public boolean isRunning() {
+		return running;
+	}
+
+	private void closeQuietly() {
+		if(selector!=null) {
+			try {
+				for(SelectionKey key: selector.keys()) {
+					try { key.channel().close(); } catch (Exception x) {/* No Op */}
+				}
+				selector.close();
+			} catch (Exception x) {/* No Op */}
+		}
+		if(server!=null) try { server.close(); } catch (Exception x) {/* No Op */}
+	}
+
+	/**
+	 * The selector loop
+	 */
+	private void serve() {
+		while(running) {
+			try {
+				selector.select();
+				Runnable task = null;
+				while((task = pending.poll())!=null) {
+					task.run();
+				}
+				final Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+				while(iter.hasNext()) {
+					final SelectionKey key = iter.next();
+					iter.remove();
+					try {
+						if(!key.isValid()) continue;
+						if(key.isAcceptable()) accept();
+						else {
+							if(key.isReadable()) read(key);
+							if(key.isValid() && key.isWritable()) write(key);
+						}
+					} catch (IOException iex) {
+						close(key);
+					}
+				}
+			} catch (Exception ex) {
+				if(running) System.err.println("MetaDataSimulator selector error:" + ex);
+			}
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel ch = null;
+		while((ch = server.accept())!=null) {
+			ch.configureBlocking(false);
+			ch.socket().setTcpNoDelay(true);
+			ch.register(selector, SelectionKey.OP_READ, new Connection());
+			connections.incrementAndGet();
+		}
+	}
+
+	private static void close(final SelectionKey key) {
+		key.cancel();
+		try { key.channel().close(); } catch (Exception x) {/* No Op */}
+	}
+
+	private void read(final SelectionKey key) throws IOException {
+		final Connection conn = (Connection)key.attachment();
+		final int n = ((SocketChannel)key.channel()).read(conn.in);
+		if(n==-1) {
+			close(key);
+			return;
+		}
+		process(key);
+	}
+
+	private void write(final SelectionKey key) throws IOException {
+		final Connection conn = (Connection)key.attachment();
+		final SocketChannel ch = (SocketChannel)key.channel();
+		while(!conn.out.isEmpty()) {
+			final ByteBuffer buff = conn.out.peek();
+			ch.write(buff);
+			if(buff.hasRemaining()) return;
+			conn.out.poll();
+		}
+		if(conn.closeAfterWrite) {
+			close(key);
+		} else {
+			key.interestOps(SelectionKey.OP_READ);
+		}
+	}
+
+	/**
+	 * Handles the buffered requests of a connection, one at a time so responses are written in order
+	 * @param key The connection's key
+	 */
+	private void process(final SelectionKey key) {
+		final Connection conn = (Connection)key.attachment();
+		while(!conn.busy && !conn.closeAfterWrite && key.isValid()) {
+			final Request request = Request.parse(conn.in);
+			if(request==null) {
+				if(!conn.in.hasRemaining()) {
+					// request head too large
+					close(key);
+				}
+				return;
+			}
+			handle(key, conn, request);
+		}
+	}
+
+	/**
+	 * Computes the response for one request and sends it, after the configured latency
+	 * @param key The connection's key
+	 * @param conn The connection
+	 * @param request The request
+	 */
+	private void handle(final SelectionKey key, final Connection conn, final Request request) {
+		requests.incrementAndGet();
+		final PathBehavior behavior = behaviorFor(request.path);
+		if(behavior.nextDrop()) {
+			dropped.incrementAndGet();
+			close(key);
+			return;
+		}
+		final ByteBuffer response;
+		if(behavior.nextThrottle()) {
+			throttled.incrementAndGet();
+			response = response(429, "Too Many Requests", null, request.keepAlive);
+		} else if(behavior.nextFailure()) {
+			failed.incrementAndGet();
+			response = response(500, "Internal Server Error", null, request.keepAlive);
+		} else {
+			response = respond(request);
+		}
+		if(!request.keepAlive) conn.closeAfterWrite = true;
+		final long latency = behavior.nextLatency();
+		if(latency <= 0L) {
+			send(key, conn, response);
+			return;
+		}
+		conn.busy = true;
+		delayer.schedule(new Runnable() {
+			@Override
+			public void run() {
+				pending.add(new Runnable() {
+					@Override
+					public void run() {
+						conn.busy = false;
+						if(!key.isValid()) return;
+						send(key, conn, response);
+						process(key);
+					}
+				});
+				selector.wakeup();
+			}
+		}, latency, TimeUnit.MILLISECONDS);
+	}
+
+	private static void send(final SelectionKey key, final Connection conn, final ByteBuffer response) {
+		conn.out.add(response);
+		key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+	}
+
+	/**
+	 * Finds the behavior with the longest prefix of the passed path
+	 * @param path The request path
+	 * @return the behavior
+	 */
+	private PathBehavior behaviorFor(final String path) {
+		PathBehavior match = PathBehavior.NORMAL;
+		int length = -1;
+		for(Map.Entry<String, PathBehavior> entry: behaviors.entrySet()) {
+			final String prefix = entry.getKey();
+			if(prefix.length() > length && path.startsWith(prefix)) {
+				match = entry.getValue();
+				length = prefix.length();
+			}
+		}
+		return match;
+	}
+
+	/**
+	 * Computes the response to a request that passed fault injection
+	 * @param request The request
+	 * @return the response
+	 */
+	private ByteBuffer respond(final Request request) {
+		if(TOKEN_PATH.equals(request.path)) {
+			return issueToken(request);
+		}
+		if(!"GET".equals(request.method) && !"HEAD".equals(request.method)) {
+			return response(405, "Method Not Allowed", null, request.keepAlive);
+		}
+		final String token = request.headers.get(TOKEN_HEADER.toLowerCase());
+		if(token!=null || tokenMode==TokenMode.REQUIRED) {
+			if(tokenMode!=TokenMode.DISABLED) {
+				final Long expiry = token==null ? null : tokens.get(token);
+				if(expiry==null || expiry < System.currentTimeMillis()) {
+					if(expiry!=null) tokens.remove(token);
+					unauthorized.incrementAndGet();
+					return response(401, "Unauthorized", null, request.keepAlive);
+				}
+			}
+		}
+		final String value = lookup(request.path);
+		if(value==null) {
+			notFound.incrementAndGet();
+			return response(404, "Not Found", null, request.keepAlive);
+		}
+		return response(200, "OK", "HEAD".equals(request.method) ? null : value, request.keepAlive);
+	}
+
+	private ByteBuffer issueToken(final Request request) {
+		if(tokenMode==TokenMode.DISABLED) {
+			notFound.incrementAndGet();
+			return response(404, "Not Found", null, request.keepAlive);
+		}
+		if(!"PUT".equals(request.method)) {
+			return response(405, "Method Not Allowed", null, request.keepAlive);
+		}
+		if(request.headers.containsKey("x-forwarded-for")) {
+			return response(403, "Forbidden", null, request.keepAlive);
+		}
+		int ttl = -1;
+		try {
+			ttl = Integer.parseInt(request.headers.get(TOKEN_TTL_HEADER.toLowerCase()).trim());
+		} catch (Exception ex) {/* No Op */}
+		if(ttl < 1 || ttl > MAX_TOKEN_TTL) {
+			return response(400, "Bad Request", null, request.keepAlive);
+		}
+		final String token = UUID.randomUUID().toString();
+		tokens.put(token, System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(ttl));
+		tokensIssued.incrementAndGet();
+		return response(200, "OK", token, request.keepAlive, TOKEN_TTL_HEADER + ": " + ttl);
+	}
+
+	/**
+	 * Looks up a path in the tree
+	 * @param path The absolute request path
+	 * @return the leaf value, the derived directory listing, or null if the path does not exist
+	 */
+	String lookup(final String path) {
+		if(!path.startsWith(ROOT)) return null;
+		final String relative = normalize(path.substring(ROOT.length()));
+		if(relative.isEmpty()) return "dynamic\nmeta-data";
+		final String value = tree.get(relative);
+		if(value!=null) return value;
+		final String dir = relative + "/";
+		final Set<String> children = new TreeSet<String>();
+		for(String leaf: tree.tailMap(dir).keySet()) {
+			if(!leaf.startsWith(dir)) break;
+			final String rest = leaf.substring(dir.length());
+			final int slash = rest.indexOf('/');
+			children.add(slash==-1 ? rest : rest.substring(0, slash + 1));
+		}
+		if(children.isEmpty()) return null;
+		final StringBuilder b = new StringBuilder();
+		for(String child: children) {
+			if(b.length() > 0) b.append('\n');
+			b.append(child);
+		}
+		return b.toString();
+	}
+
+	private static String normalize(final String path) {
+		if(path==null) throw new IllegalArgumentException("The passed path was null");
+		int start = 0, end = path.length();
+		while(start < end && path.charAt(start)=='/') start++;
+		while(end > start && path.charAt(end-1)=='/') end--;
+		return path.substring(start, end);
+	}
+
+	private static ByteBuffer response(final int status, final String reason, final String body, final boolean keepAlive, final String...extraHeaders) {
+		final byte[] content = body==null ? new byte[0] : body.getBytes(UTF8);
+		final StringBuilder b = new StringBuilder(128)
+			.append("HTTP/1.1 ").append(status).append(' ').append(reason).append("\r\n")
+			.append("Content-Type: text/plain\r\n")
+			.append("Content-Length: ").append(content.length).append("\r\n")
+			.append("Server: EC2ws\r\n")
+			.append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n");
+		for(String header: extraHeaders) {
+			b.append(header).append("\r\n");
+		}
+		b.append("\r\n");
+		final byte[] head = b.toString().getBytes(UTF8);
+		final ByteBuffer buff = ByteBuffer.allocate(head.length + content.length);
+		buff.put(head).put(content).flip();
+		return buff;
+	}
+
+	/**
+	 * Returns the total number of requests handled
+	 * @return the request count
+	 */
+	public long getRequestCount() {
+		return requests.get();
+	}
+
+	/**
+	 * Returns the total number of connections accepted
+	 * @return the connection count
+	 */
+	public long getConnectionCount() {
+		return connections.get();
+	}
+
+	/**
+	 * Returns the number of tokens issued
+	 * @return the token count
+	 */
+	public long getTokensIssued() {
+		return tokensIssued.get();
+	}
+
+	/**
+	 * Returns the number of requests rejected with a 401
+	 * @return the unauthorized count
+	 */
+	public long getUnauthorizedCount() {
+		return unauthorized.get();
+	}
+
+	/**
+	 * Returns the number of requests throttled with a 429
+	 * @return the throttled count
+	 */
+	public long getThrottledCount() {
+		return throttled.get();
+	}
+
+	/**
+	 * Returns the number of requests failed with a 500
+	 * @return the failed count
+	 */
+	public long getFailedCount() {
+		return failed.get();
+	}
+
+	/**
+	 * Returns the number of requests answered by dropping the connection
+	 * @return the dropped count
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	/**
+	 * Returns the number of requests for paths that do not exist
+	 * @return the not found count
+	 */
+	public long getNotFoundCount() {
+		return notFound.get();
+	}
+
+	/**
+	 * Resets all the counters
+	 */
+	public void resetCounts() {
+		for(AtomicLong counter: new AtomicLong[]{requests, connections, tokensIssued, unauthorized, throttled, failed, dropped, notFound}) {
+			counter.set(0L);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuilder("MetaDataSimulator [endpoint=").append(getEndpoint()).append(", tokenMode=").append(tokenMode)
+			.append(", running=").append(running).append(", leaves=").append(tree.size()).append(", requests=").append(requests.get())
+			.append("]").toString();
+	}
+
+	/**
+	 * <p>Title: Connection</p>
+	 * <p>Description: The per-connection state, only accessed on the selector thread</p>
+	 */
+	private static final class Connection {
+		/** The buffered request bytes */
+		final ByteBuffer in = ByteBuffer.allocate(MAX_REQUEST);
+		/** The responses waiting to be written */
+		final ArrayDeque<ByteBuffer> out = new ArrayDeque<ByteBuffer>(2);
+		/** Set while a delayed response is pending */
+		boolean busy = false;
+		/** Set when the connection is closed once the responses are written */
+		boolean closeAfterWrite = false;
+	}
+
+	/**
+	 * <p>Title: Request</p>
+	 * <p>Description: A parsed request head</p>
+	 */
+	private static final class Request {
+		final String method;
+		final String path;
+		final Map<String, String> headers;
+		final boolean keepAlive;
+
+		private Request(final String method, final String path, final Map<String, String> headers, final boolean keepAlive) {
+			this.method = method;
+			this.path = path;
+			this.headers = headers;
+			this.keepAlive = keepAlive;
+		}
+
+		/**
+		 * Parses and consumes one request from the passed buffer
+		 * @param in The buffer in write mode
+		 * @return the request or null if a complete request has not been buffered yet
+		 */
+		static Request parse(final ByteBuffer in) {
+			final int limit = in.position();
+			int end = -1;
+			for(int i = 3; i < limit; i++) {
+				if(in.get(i)=='\n' && in.get(i-1)=='\r' && in.get(i-2)=='\n' && in.get(i-3)=='\r') {
+					end = i + 1;
+					break;
+				}
+			}
+			if(end==-1) return null;
+			final byte[] head = new byte[end];
+			for(int i = 0; i < end; i++) head[i] = in.get(i);
+			final String[] lines = new String(head, UTF8).split("\r\n");
+			final String[] requestLine = lines[0].split(" ");
+			final Map<String, String> headers = new HashMap<String, String>();
+			for(int i = 1; i < lines.length; i++) {
+				final int colon = lines[i].indexOf(':');
+				if(colon > 0) headers.put(lines[i].substring(0, colon).trim().toLowerCase(), lines[i].substring(colon + 1).trim());
+			}
+			int bodyLength = 0;
+			try {
+				if(headers.containsKey("content-length")) bodyLength = Integer.parseInt(headers.get("content-length"));
+			} catch (Exception ex) {/* No Op */}
+			if(limit - end < bodyLength) {
+				// wait for the body, or give up if it cannot fit
+				if(end + bodyLength > in.capacity()) in.clear();
+				return null;
+			}
+			in.flip();
+			in.position(end + bodyLength);
+			in.compact();
+			final String method = requestLine[0];
+			String path = requestLine.length > 1 ? requestLine[1] : "/";
+			final int query = path.indexOf('?');
+			if(query!=-1) path = path.substring(0, query);
+			final String version = requestLine.length > 2 ? requestLine[2] : "HTTP/1.0";
+			final String connection = headers.get("connection");
+			final boolean keepAlive = "HTTP/1.1".equals(version)
+				? !"close".equalsIgnoreCase(connection)
+				: "keep-alive".equalsIgnoreCase(connection);
+			return new Request(method, path, headers, keepAlive);
+		}
+	}
+}
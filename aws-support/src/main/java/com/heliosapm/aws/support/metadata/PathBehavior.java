@@ -0,0 +1,189 @@
+// This file is part of OpenTSDB.
+// Copyright (C) 2010-2016  The OpenTSDB Authors.
+//
+// This program is free software: you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 2.1 of the License, or (at your
+// option) any later version.  This program is distributed in the hope that it
+// will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+// of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser
+// General Public License for more details.  You should have received a copy
+// of the GNU Lesser General Public License along with this program.  If not,
+// see <http://www.gnu.org/licenses/>.
+package com.heliosapm.aws.support.metadata;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * <p>Title: PathBehavior</p>
+ * <p>Description: Immutable latency and fault injection settings applied by the {@link MetaDataSimulator}
+ * to the requests for a path prefix. Rates are probabilities between 0 and 1, evaluated in the order
+ * drop, throttle, failure.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.aws.support.metadata.PathBehavior</code></p>
+ */
+
+public class PathBehavior {
+	/** The behavior of paths with no configured behavior */
+	public static final PathBehavior NORMAL = new PathBehavior(0L, 0L, 0D, 0D, 0D);
+
+	/** The fixed latency added to each response in ms. */
+	private final long latency;
+	/** The maximum random latency added on top of the fixed latency in ms. */
+	private final long jitter;
+	/** The probability of responding with a 429 */
+	private final double throttleRate;
+	/** The probability of responding with a 500 */
+	private final double failureRate;
+	/** The probability of closing the connection without responding */
+	private final double dropRate;
+
+	/**
+	 * Creates a new PathBehavior
+	 * @param latency The fixed latency added to each response in ms.
+	 * @param jitter The maximum random latency added on top of the fixed latency in ms.
+	 * @param throttleRate The probability of responding with a 429
+	 * @param failureRate The probability of responding with a 500
+	 * @param dropRate The probability of closing the connection without responding
+	 */
+	public PathBehavior(final long latency, final long jitter, final double throttleRate, final double failureRate, final double dropRate) {
+		if(latency < 0L || jitter < 0L) throw new IllegalArgumentException("Negative latency [" + latency + "] or jitter [" + jitter + "]");
+		this.latency = latency;
+		this.jitter = jitter;
+		this.throttleRate = rate("throttle", throttleRate);
+		this.failureRate = rate("failure", failureRate);
+		this.dropRate = rate("drop", dropRate);
+	}
+
+	/**
+	 * Returns a behavior that only adds latency
+	 * @param latency The fixed latency in ms.
+	 * @param jitter The maximum random latency added on top of the fixed latency in ms.
+	 * @return the behavior
+	 */
+	public static PathBehavior latency(final long latency, final long jitter) {
+		return new PathBehavior(latency, jitter, 0D, 0D, 0D);
+	}
+
+	/**
+	 * Returns a behavior that throttles a proportion of the requests
+	 * @param throttleRate The probability of responding with a 429
+	 * @return the behavior
+	 */
+	public static PathBehavior throttle(final double throttleRate) {
+		return new PathBehavior(0L, 0L, throttleRate, 0D, 0D);
+	}
+
+	/**
+	 * Returns a behavior that fails a proportion of the requests
+	 * @param failureRate The probability of responding with a 500
+	 * @return the behavior
+	 */
+	public static PathBehavior failure(final double failureRate) {
+		return new PathBehavior(0L, 0L, 0D, failureRate, 0D);
+	}
+
+	/**
+	 * Returns a behavior that drops a proportion of the connections
+	 * @param dropRate The probability of closing the connection without responding
+	 * @return the behavior
+	 */
+	public static PathBehavior drop(final double dropRate) {
+		return new PathBehavior(0L, 0L, 0D, 0D, dropRate);
+	}
+
+	/**
+	 * Returns a copy of this behavior with the passed latency
+	 * @param latency The fixed latency in ms.
+	 * @param jitter The maximum random latency added on top of the fixed latency in ms.
+	 * @return the new behavior
+	 */
+	public PathBehavior withLatency(final long latency, final long jitter) {
+		return new PathBehavior(latency, jitter, throttleRate, failureRate, dropRate);
+	}
+
+	private static double rate(final String name, final double rate) {
+		if(rate < 0D || rate > 1D || Double.isNaN(rate)) throw new IllegalArgumentException("Invalid " + name + " rate [" + rate + "]");
+		return rate;
+	}
+
+	/**
+	 * Computes the latency of one response
+	 * @return the latency in ms.
+	 */
+	long nextLatency() {
+		return jitter==0L ? latency : latency + ThreadLocalRandom.current().nextLong(jitter + 1);
+	}
+
+	/**
+	 * Decides if one request is dropped
+	 * @return true to drop the connection
+	 */
+	boolean nextDrop() {
+		return dropRate > 0D && ThreadLocalRandom.current().nextDouble() < dropRate;
+	}
+
+	/**
+	 * Decides if one request is throttled
+	 * @return true to respond with a 429
+	 */
+	boolean nextThrottle() {
+		return throttleRate > 0D && ThreadLocalRandom.current().nextDouble() < throttleRate;
+	}
+
+	/**
+	 * Decides if one request fails
+	 * @return true to respond with a 500
+	 */
+	boolean nextFailure() {
+		return failureRate > 0D && ThreadLocalRandom.current().nextDouble() < failureRate;
+	}
+
+	/**
+	 * Returns the fixed latency in ms.
+	 * @return the fixed latency
+	 */
+	public long getLatency() {
+		return latency;
+	}
+
+	/**
+	 * Returns the maximum random latency added on top of the fixed latency in ms.
+	 * @return the jitter
+	 */
+	public long getJitter() {
+		return jitter;
+	}
+
+	/**
+	 * Returns the probability of responding with a 429
+	 * @return the throttle rate
+	 */
+	public double getThrottleRate() {
+		return throttleRate;
+	}
+
+	/**
+	 * Returns the probability of responding with a 500
+	 * @return the failure rate
+	 */
+	public double getFailureRate() {
+		return failureRate;
+	}
+
+	/**
+	 * Returns the probability of closing the connection without responding
+	 * @return the drop rate
+	 */
+	public double getDropRate() {
+		return dropRate;
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuilder("PathBehavior [latency=").append(latency).append(", jitter=").append(jitter)
+			.append(", throttleRate=").append(throttleRate).append(", failureRate=").append(failureRate)
+			.append(", dropRate=").append(dropRate).append("]").toString();
+	}
+}